@@ -1,12 +1,17 @@
 import coggame.*;
 import java.util.*;
 import java.awt.Graphics;
+import java.awt.Image;
 
 public class PathRobot {
 	
 	private final Sprite sprite;
-	private int[][] path;
-	private int state = 0;
+	private final Animator animator;
+	private int[] path;
+	private int pathlength = 0;
+	private int heading = 0;
+	private boolean rolling = false;
+	private boolean stuck = false;
 	private int pathindex = 0;
 	private int pathdir = 1;
 
@@ -14,93 +19,105 @@ public class PathRobot {
     private static final int n = Sprite.TRANS_NONE;
     private static final int f = Sprite.TRANS_MIRROR_HORIZ;
     private static final double SPEED = TILESIZE * 4;
+    private static final double FRAME_TIME = .1;
 
-    // 0-down, 1-left, 2-up, 3-right
-    //                                               0  1  2  3  4  5  6  7  8  9 10 11 12 13 14 15
-    private static final byte[] flag = new byte[]  { 0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 5, 5 };
-    private static final byte[] frame = new byte[] { 1, 2, 3, 2, 1, 4, 2, 5, 3, 6, 2, 5, 1, 2, 3, 2 };
-    private static final byte[] next = new byte[]  { 0, 1, 2, 3, 5, 4, 7, 6, 9, 8,11,10,13,14,15,12 };
-    private static final int[] trans = new int[]   { n, n, n, f, n, n, n, n, n, n, f, f, n, n, n, f };
+    // headings: 0-down, 1-left, 2-up, 3-right
+    private static final AnimationClip[] idle = new AnimationClip[] {
+        clip(new int[] { 1 }, n),
+        clip(new int[] { 2 }, n),
+        clip(new int[] { 3 }, n),
+        clip(new int[] { 2 }, f),
+    };
+    private static final AnimationClip[] roll = new AnimationClip[] {
+        clip(new int[] { 1, 4 }, n),
+        clip(new int[] { 2, 5 }, n),
+        clip(new int[] { 3, 6 }, n),
+        clip(new int[] { 2, 5 }, f),
+    };
+    private static final AnimationClip spin = new AnimationClip(
+        new int[]    { 1, 2, 3, 2 },
+        new int[]    { n, n, n, f },
+        new double[] { FRAME_TIME, FRAME_TIME, FRAME_TIME, FRAME_TIME },
+        true
+    );
 
-	public PathRobot() {
-		sprite = new Sprite(ImageTool.loadImage("assets/robot.png"), 48, 48);
+    private static AnimationClip clip(int[] frames, int transform) {
+        int[] transforms = new int[frames.length];
+        double[] durations = new double[frames.length];
+        Arrays.fill(transforms, transform);
+        Arrays.fill(durations, FRAME_TIME);
+        return new AnimationClip(frames, transforms, durations, true);
+    }
+
+	public PathRobot(Image sheet) {
+		sprite = new Sprite(sheet, 48, 48);
+		animator = new Animator(sprite);
 	}
 
 	public void tick(double time) {
+		animator.update(time);
+		if (stuck) { return; }
 
 		// if we've reached a waypoint,
 		// switch our goal to the next waypoint.
-		if (sprite.getX() == path[pathindex][0] &&
-			sprite.getY() == path[pathindex][1]) {
+		if (sprite.getX() == path[pathindex * 2] &&
+			sprite.getY() == path[pathindex * 2 + 1]) {
 
 			pathindex += pathdir;
 			if (pathindex < 0) {
 				pathindex = 0;
 				pathdir = 1;
 			}
-			else if (pathindex >= path.length) {
-				pathindex = path.length - 1;
+			else if (pathindex >= pathlength) {
+				pathindex = pathlength - 1;
 				pathdir = -1;
 			}
 		}
 
-		boolean lf = (sprite.getX() > path[pathindex][0]);
-		boolean rt = (sprite.getX() < path[pathindex][0]);
-		boolean up = (sprite.getY() > path[pathindex][1]);
-		boolean dn = (sprite.getY() < path[pathindex][1]);
-
-        // If rolling, move the robot.
-        double deltaX = 0;
-        double deltaY = 0;
-        if      (flag[state] == 1) { deltaY = Math.min(SPEED * time, path[pathindex][1] - sprite.getY()); }
-        else if (flag[state] == 2) { deltaX = Math.max(-SPEED * time, path[pathindex][0] - sprite.getX()); }
-        else if (flag[state] == 3) { deltaY = Math.max(-SPEED * time, path[pathindex][1] - sprite.getY()); }
-        else if (flag[state] == 4) { deltaX = Math.min(SPEED * time, path[pathindex][0] - sprite.getX()); }
-        sprite.move(deltaX, deltaY);
-
-        // If we aren't rolling in a direction, switch to idle.
-        if      (!dn && flag[state] == 1) { state = 0; }
-        else if (!lf && flag[state] == 2) { state = 1; }
-        else if (!up && flag[state] == 3) { state = 2; }
-        else if (!rt && flag[state] == 4) { state = 3; }
-
-        // If we're idling and directed to move, start walking.
-        else if (dn && flag[state] == 0) { state = 4; }
-        else if (lf && flag[state] == 0) { state = 6; }
-        else if (up && flag[state] == 0) { state = 8; }
-        else if (rt && flag[state] == 0) { state = 10; }
-
-        // Otherwise, loop the current animation.
-        else { state = next[state]; }
+		// Waypoints may lie in any direction, so move
+		// straight towards the next one and face along
+		// whichever axis we're mostly moving on.
+		double deltaX = path[pathindex * 2]     - sprite.getX();
+		double deltaY = path[pathindex * 2 + 1] - sprite.getY();
+		double distance = Math.hypot(deltaX, deltaY);
+		rolling = distance > 0;
+		if (rolling) {
+			if (Math.abs(deltaX) > Math.abs(deltaY)) { heading = (deltaX < 0) ? 1 : 3; }
+			else                                     { heading = (deltaY > 0) ? 0 : 2; }
+			double step = SPEED * time;
+			if (step >= distance) { sprite.setPosition(path[pathindex * 2], path[pathindex * 2 + 1]); }
+			else                  { sprite.move(deltaX * step / distance, deltaY * step / distance); }
+		}
 
-        sprite.setTransform(trans[state]);
-        sprite.setFrame(frame[state]);
+        animator.play(rolling ? roll[heading] : idle[heading]);
 	}
 
 	public void paint(Graphics g) { sprite.paint(g); }
 
-	public void setPath(List<int[]> path, int startX, int startY) {
+	public void setPath(Path path, int startX, int startY) {
 		startX *= TILESIZE;
 		startY *= TILESIZE;
 		sprite.setPosition(startX, startY);
 		pathindex = 0;
 		pathdir = 1;
+		heading = 0;
+		rolling = false;
 		if (path == null) {
-			this.path = new int[1][2];
-			this.path[0][0] = startX;
-			this.path[0][1] = startY;
-			state = 12;
+			this.path = new int[] { startX, startY };
+			pathlength = 1;
+			stuck = true;
+			animator.restart(spin);
 			return;
 		}
-		this.path = new int[path.size() + 1][2];
+		if (this.path == null || this.path.length < path.size() * 2) {
+			this.path = new int[path.size() * 2];
+		}
 		for(int z = 0; z < path.size(); z++) {
-			this.path[z][0] = startX;
-			this.path[z][1] = startY;
-			startX += path.get(z)[0] * TILESIZE;
-			startY += path.get(z)[1] * TILESIZE;
+			this.path[z * 2]     = path.getX(z) * TILESIZE;
+			this.path[z * 2 + 1] = path.getY(z) * TILESIZE;
 		}
-		this.path[path.size()][0] = startX;
-		this.path[path.size()][1] = startY;
-		state = 0;
+		pathlength = path.size();
+		stuck = false;
+		animator.restart(idle[0]);
 	}
 }
\ No newline at end of file
@@ -1,7 +1,7 @@
 import coggame.*;
 import java.awt.*;
 import java.awt.image.*;
-import java.util.List;
+import java.util.function.Supplier;
 
 public class Pathfinder extends GameApplication {
 
@@ -9,27 +9,44 @@ public class Pathfinder extends GameApplication {
 	private static final int TILES_X = 15;
 	private static final int TILES_Y = 10;
 
-	private final TiledLayer gridfloor;
-	private final TiledLayer gridwalls;
-	private final PathRobot robot;
-	private final TextTool text;
+	private TiledLayer gridfloor;
+	private TiledLayer gridwalls;
+	private PathRobot robot;
+	private TextTool text;
+	private Supplier<Image> steel;
+	private Supplier<Image> font;
+	private Supplier<Image> robotSheet;
 
 	private int ax = 0;
 	private int ay = 0;
 	private int bx = 0;
 	private int by = 0;
-	private List<int[]> dirs;
+	private final Path path = new Path();
+	private boolean found = false;
 
-	public static void main(String[] args) { new Pathfinder(); }
+	public static void main(String[] args) { new Pathfinder().launch(); }
 
 	public Pathfinder() {
 		super(TILES_X * TILESIZE, TILES_Y * TILESIZE, 1, false);
-		getWindow().setTitle("Pathfinding Demo");
-		Image tiles = ImageTool.loadImage("assets/steel.png");
+		setTitle("Pathfinding Demo");
+	}
+
+	protected void preload(Preloader loader) {
+		steel      = loader.image("assets/steel.png");
+		font       = loader.image("assets/text.png");
+		robotSheet = loader.image("assets/robot.png");
+	}
+
+	protected void start() {
+		TextureAtlas atlas = new TextureAtlas(512, 512);
+		atlas.add("assets/steel.png", steel.get());
+		atlas.add("assets/text.png", font.get());
+		atlas.add("assets/robot.png", robotSheet.get());
+		Image tiles = atlas.get("assets/steel.png");
 		gridfloor = new TiledLayer(TILES_X, TILES_Y, tiles, TILESIZE, TILESIZE);
 		gridwalls = new TiledLayer(TILES_X, TILES_Y, tiles, TILESIZE, TILESIZE);
-		text = new TextTool(ImageTool.loadImage("assets/text.png"), 8, 8, true);
-		robot = new PathRobot();
+		text = new TextTool(atlas.get("assets/text.png"), 8, 8, true);
+		robot = new PathRobot(atlas.get("assets/robot.png"));
 		initBoard();
 	}
 
@@ -45,19 +62,15 @@ public class Pathfinder extends GameApplication {
 		gridfloor.paint(g);
 		gridwalls.paint(g);
 
-		if (dirs != null) {
+		if (found) {
 			g.setColor(Color.RED);
 			g.drawOval(ax * TILESIZE, ay * TILESIZE, TILESIZE, TILESIZE);
-			int x = ax;
-			int y = ay;
-			for(int[] deltas : dirs) {
-				g.drawLine( (TILESIZE * x) + TILESIZE / 2,
-							(TILESIZE * y) + TILESIZE / 2,
-							(TILESIZE * (x + deltas[0])) + TILESIZE / 2,
-							(TILESIZE * (y + deltas[1])) + TILESIZE / 2
+			for(int z = 1; z < path.size(); z++) {
+				g.drawLine( (TILESIZE * path.getX(z - 1)) + TILESIZE / 2,
+							(TILESIZE * path.getY(z - 1)) + TILESIZE / 2,
+							(TILESIZE * path.getX(z)) + TILESIZE / 2,
+							(TILESIZE * path.getY(z)) + TILESIZE / 2
 				);
-				x += deltas[0];
-				y += deltas[1];
 			}
 		}
 		else {
@@ -75,14 +88,14 @@ public class Pathfinder extends GameApplication {
 		gridwalls.fillCells(0, 0, gridwalls.getColumns(), gridwalls.getRows(), 0);
 		int solid = ((gridwalls.getColumns() * gridwalls.getRows()) / 8) * 3;
 		for(int z = 0; z < solid; z++) {
-			int x = (int)(Math.random() * gridwalls.getColumns());
-			int y = (int)(Math.random() * gridwalls.getRows());
+			int x = getRandom().nextInt(gridwalls.getColumns());
+			int y = getRandom().nextInt(gridwalls.getRows());
 			gridwalls.setCell(x, y, 1);
 		}
 		gridfloor.fillCells(0, 0, gridfloor.getColumns(), gridfloor.getRows(), 4);
 		while(true) {
-			int x = (int)(Math.random() * gridfloor.getColumns());
-			int y = (int)(Math.random() * gridfloor.getRows());
+			int x = getRandom().nextInt(gridfloor.getColumns());
+			int y = getRandom().nextInt(gridfloor.getRows());
 			if (gridwalls.getCell(x, y) == 0) {
 				gridfloor.setCell(x, y, 2);
 				ax = x;
@@ -91,8 +104,8 @@ public class Pathfinder extends GameApplication {
 			}
 		}
 		while(true) {
-			int x = (int)(Math.random() * gridfloor.getColumns());
-			int y = (int)(Math.random() * gridfloor.getRows());
+			int x = getRandom().nextInt(gridfloor.getColumns());
+			int y = getRandom().nextInt(gridfloor.getRows());
 			if (gridwalls.getCell(x, y) == 0 && gridfloor.getCell(x, y) != 2) {
 				gridfloor.setCell(x, y, 3);
 				bx = x;
@@ -100,7 +113,8 @@ public class Pathfinder extends GameApplication {
 				break;
 			}
 		}
-		dirs = TiledLayer.path(gridwalls, ax, ay, bx, by, false);
-		robot.setPath(dirs, ax, ay);
+		found = TiledLayer.path(gridwalls, ax, ay, bx, by, false, path);
+		if (found) { path.smooth(gridwalls); }
+		robot.setPath((found) ? path : null, ax, ay);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,335 @@
+package coggame;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/**
+* An AllocationMonitor counts the bytes allocated on the
+* heap while a GameApplication ticks and paints, and while
+* each Layer of a LayerManager is drawn, using the per-thread
+* allocation counters of the JVM. A game which allocates
+* nothing in its steady state never pauses for garbage
+* collection, and the monitor makes that property something
+* which can be checked rather than hoped for.
+*
+* Monitoring is off by default, and is controlled by
+* system properties:
+* <pre>
+* -Dcoggame.alloc=log              report phases which exceed their budgets
+* -Dcoggame.alloc=fail             as above, and exit with a nonzero status
+* -Dcoggame.alloc.tick=0           the budget for tick(), in bytes per frame
+* -Dcoggame.alloc.paint=0          the budget for painting, in bytes per frame
+* -Dcoggame.alloc.layer=0          the budget for each Layer, in bytes per frame
+* -Dcoggame.alloc.warmup=120       the number of frames to ignore at first
+* </pre>
+* Combined with a headless replay, this lets a continuous
+* build require that a recorded session is free of garbage:
+* <pre>
+* java -Dcoggame.replay=session.log -Dcoggame.alloc=fail
+*      -Dcoggame.alloc.tick=0 -Dcoggame.alloc.paint=0 MyGame
+* </pre>
+*
+* Figures are only available on JVMs which provide
+* com.sun.management.ThreadMXBean; elsewhere every count
+* is 0. When a scene is painted on a separate thread, its
+* painting is counted in the frame during which it ends.
+*
+* @author John Earnest
+**/
+public class AllocationMonitor {
+
+	/**
+	* The phase in which tick() is called.
+	**/
+	public static final int TICK = 0;
+	/**
+	* The phase in which a frame is painted.
+	**/
+	public static final int PAINT = 1;
+	/**
+	* The phase in which a single Layer is painted.
+	**/
+	public static final int LAYER = 2;
+
+	private static final String[] NAMES = { "tick", "paint", "layer" };
+	private static final com.sun.management.ThreadMXBean THREADS = threads();
+
+	private static com.sun.management.ThreadMXBean threads() {
+		try {
+			final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+			if (!(bean instanceof com.sun.management.ThreadMXBean)) { return null; }
+			final com.sun.management.ThreadMXBean ret = (com.sun.management.ThreadMXBean) bean;
+			if (!ret.isThreadAllocatedMemorySupported()) { return null; }
+			ret.setThreadAllocatedMemoryEnabled(true);
+			return ret;
+		}
+		catch(RuntimeException re) { return null; }
+		catch(LinkageError le) { return null; }
+	}
+
+	private volatile boolean enabled = false;
+	private boolean failing = false;
+	private int warmup = 0;
+	private final long[] budgets = { -1, -1, -1 };
+
+	// bytes counted so far in the current frame, and in the last one
+	private final long[] current = new long[2];
+	private final long[] last = new long[2];
+	private final long[] totals = new long[2];
+	private final long[] peaks = new long[2];
+	private long[] currentLayers = new long[8];
+	private long[] lastLayers = new long[8];
+	private int layerCount = 0;
+	private int currentLayerCount = 0;
+
+	private long frames = 0;
+	private long measured = 0;
+	private final int[] overruns = new int[3];
+	private boolean failed = false;
+
+	/**
+	* Create a new AllocationMonitor, which is disabled.
+	**/
+	public AllocationMonitor() {}
+
+	/**
+	* Create an AllocationMonitor configured from
+	* the system properties described above.
+	**/
+	static AllocationMonitor fromProperties() {
+		final AllocationMonitor ret = new AllocationMonitor();
+		final String mode = System.getProperty("coggame.alloc");
+		if (mode == null || mode.equals("false")) { return ret; }
+		ret.setEnabled(true);
+		ret.setFailing(mode.equals("fail"));
+		ret.setWarmup(Integer.getInteger("coggame.alloc.warmup", 120));
+		for(int z = 0; z < NAMES.length; z++) {
+			final Long budget = Long.getLong("coggame.alloc." + NAMES[z]);
+			if (budget != null) { ret.setBudget(z, budget); }
+		}
+		return ret;
+	}
+
+	/**
+	* Returns true if this JVM can count the bytes
+	* allocated by a thread.
+	**/
+	public static boolean isSupported() { return THREADS != null; }
+
+	/**
+	* Turn counting on or off.
+	*
+	* @param enabled should allocations be counted?
+	**/
+	public void setEnabled(boolean enabled) { this.enabled = enabled && THREADS != null; }
+
+	/**
+	* Returns true if allocations are being counted.
+	**/
+	public boolean isEnabled() { return enabled; }
+
+	/**
+	* Choose whether exceeding a budget should make the
+	* application exit with a nonzero status, or only
+	* be reported. A replay runs to the end either way.
+	*
+	* @param failing should exceeding a budget be a failure?
+	**/
+	public void setFailing(boolean failing) { this.failing = failing; }
+
+	/**
+	* Set the number of frames for which budgets are not
+	* checked and nothing is added to the averages, giving
+	* caches time to fill and classes time to load.
+	*
+	* @param frames the number of frames to ignore
+	**/
+	public void setWarmup(int frames) { warmup = Math.max(0, frames); }
+
+	/**
+	* Set the most bytes a phase may allocate in one frame.
+	* The LAYER budget applies to each Layer separately.
+	*
+	* @param phase TICK, PAINT or LAYER
+	* @param bytes the budget in bytes, or -1 for none
+	**/
+	public void setBudget(int phase, long bytes) { budgets[phase] = bytes; }
+
+	/**
+	* Returns the budget of a phase, or -1 if it has none.
+	*
+	* @param phase TICK, PAINT or LAYER
+	**/
+	public long getBudget(int phase) { return budgets[phase]; }
+
+	/**
+	* Returns the bytes allocated during the last frame
+	* by a phase.
+	*
+	* @param phase TICK or PAINT
+	**/
+	public synchronized long getBytes(int phase) { return last[phase]; }
+
+	/**
+	* Returns the bytes allocated while painting a Layer
+	* during the last frame.
+	*
+	* @param index the index of the Layer in its LayerManager
+	**/
+	public synchronized long getLayerBytes(int index) {
+		return (index < layerCount) ? lastLayers[index] : 0;
+	}
+
+	/**
+	* Returns the number of Layers counted in the last frame.
+	**/
+	public synchronized int getLayerCount() { return layerCount; }
+
+	/**
+	* Returns the mean bytes allocated per frame by a
+	* phase, ignoring the warmup frames.
+	*
+	* @param phase TICK or PAINT
+	**/
+	public synchronized double getAverage(int phase) {
+		return (measured == 0) ? 0 : ((double) totals[phase]) / measured;
+	}
+
+	/**
+	* Returns the most bytes allocated in any one frame
+	* by a phase, ignoring the warmup frames.
+	*
+	* @param phase TICK or PAINT
+	**/
+	public synchronized long getPeak(int phase) { return peaks[phase]; }
+
+	/**
+	* Returns the number of frames counted.
+	**/
+	public synchronized long getFrames() { return frames; }
+
+	/**
+	* Returns the number of times a phase has exceeded
+	* its budget.
+	*
+	* @param phase TICK, PAINT or LAYER
+	**/
+	public synchronized int getOverruns(int phase) { return overruns[phase]; }
+
+	/**
+	* Returns true if a budget has been exceeded
+	* while failing is enabled.
+	**/
+	public synchronized boolean isFailed() { return failed; }
+
+	/**
+	* Returns the bytes allocated so far by the current
+	* thread, to be passed to add() once a phase ends.
+	**/
+	long mark() {
+		if (!enabled) { return 0; }
+		return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/**
+	* Count the bytes allocated by the current thread
+	* since mark() was called.
+	*
+	* @param phase TICK or PAINT
+	* @param since the value returned by mark()
+	**/
+	void add(int phase, long since) {
+		if (!enabled) { return; }
+		final long bytes = mark() - since;
+		synchronized(this) { current[phase] += bytes; }
+	}
+
+	/**
+	* Count the bytes allocated by the current thread
+	* since mark() was called, while painting a Layer.
+	*
+	* @param index the index of the Layer in its LayerManager
+	* @param since the value returned by mark()
+	**/
+	void addLayer(int index, long since) {
+		if (!enabled) { return; }
+		final long bytes = mark() - since;
+		synchronized(this) {
+			if (index >= currentLayers.length) {
+				currentLayers = Arrays.copyOf(currentLayers, index * 2);
+				lastLayers = Arrays.copyOf(lastLayers, index * 2);
+			}
+			currentLayers[index] += bytes;
+			currentLayerCount = Math.max(currentLayerCount, index + 1);
+		}
+	}
+
+	/**
+	* Finish counting a frame and check the budgets. Called
+	* on the game thread once each frame has been painted.
+	**/
+	void endFrame() {
+		if (!enabled) { return; }
+		final int ticks;
+		final int paints;
+		final int layers;
+		int layer = -1;
+		synchronized(this) {
+			System.arraycopy(current, 0, last, 0, current.length);
+			Arrays.fill(current, 0);
+			System.arraycopy(currentLayers, 0, lastLayers, 0, currentLayerCount);
+			Arrays.fill(currentLayers, 0, currentLayerCount, 0);
+			layerCount = currentLayerCount;
+			currentLayerCount = 0;
+			frames++;
+			if (frames <= warmup) { return; }
+			measured++;
+			for(int z = 0; z < last.length; z++) {
+				totals[z] += last[z];
+				peaks[z] = Math.max(peaks[z], last[z]);
+			}
+			ticks = overruns[TICK];
+			paints = overruns[PAINT];
+			layers = overruns[LAYER];
+			over(TICK, last[TICK]);
+			over(PAINT, last[PAINT]);
+			for(int z = 0; z < layerCount; z++) {
+				if (over(LAYER, lastLayers[z]) && layer < 0) { layer = z; }
+			}
+			if (failing && ticks + paints + layers != overruns[TICK] + overruns[PAINT] + overruns[LAYER]) {
+				failed = true;
+			}
+		}
+		// only the first overrun of each phase is reported as it happens
+		if (ticks  == 0 && overruns[TICK]  > 0) { report(TICK, last[TICK], -1); }
+		if (paints == 0 && overruns[PAINT] > 0) { report(PAINT, last[PAINT], -1); }
+		if (layers == 0 && layer >= 0)			{ report(LAYER, lastLayers[layer], layer); }
+	}
+
+	private boolean over(int phase, long bytes) {
+		if (budgets[phase] < 0 || bytes <= budgets[phase]) { return false; }
+		overruns[phase]++;
+		return true;
+	}
+
+	private void report(int phase, long bytes, int layer) {
+		System.out.format("Frame %d: %s%s allocated %d bytes, over its budget of %d.%n",
+			frames - 1, NAMES[phase], (layer < 0) ? "" : " " + layer, bytes, budgets[phase]);
+	}
+
+	/**
+	* Print the mean and peak allocation of each phase,
+	* and how often each budget was exceeded.
+	**/
+	void summary() {
+		if (!enabled) { return; }
+		synchronized(this) {
+			System.out.format("Allocated per frame: tick %.1f bytes (peak %d), paint %.1f bytes (peak %d), over %d frames.%n",
+				getAverage(TICK), peaks[TICK], getAverage(PAINT), peaks[PAINT], measured);
+			if (overruns[TICK] + overruns[PAINT] + overruns[LAYER] > 0) {
+				System.out.format("Budgets exceeded: tick %d, paint %d, layer %d times.%n",
+					overruns[TICK], overruns[PAINT], overruns[LAYER]);
+			}
+		}
+	}
+}
@@ -0,0 +1,164 @@
+package coggame;
+
+import java.util.Arrays;
+
+/**
+* The animated tile state of a TiledLayer, kept in
+* primitive arrays indexed by (-animatedTileIndex - 1).
+*
+* For each animated tile this tracks the static tile it
+* currently appears as, an optional timed frame sequence
+* and an index of the cells which use it. The index is
+* maintained lazily: entries are appended when a cell
+* becomes an animated tile, and stale or duplicate entries
+* are swept out the next time the index is read after an
+* edit, or when an index with stale entries fills up, so
+* that it stays bounded even if it is never read.
+*
+* @author John Earnest
+**/
+class AnimatedTileTable {
+
+	private int count = 0;
+	private int[] current = new int[4];
+	private int[][] frames = new int[4][];
+	private double[][] durations = new double[4][];
+	private int[] frame = new int[4];
+	private double[] elapsed = new double[4];
+	private long[][] cells = new long[4][];
+	private int[] sizes = new int[4];
+	private boolean[] stale = new boolean[4];
+
+	int size() { return count; }
+
+	int create(int staticTile) {
+		if (count == current.length) {
+			final int n = count * 2;
+			current   = Arrays.copyOf(current, n);
+			frames    = Arrays.copyOf(frames, n);
+			durations = Arrays.copyOf(durations, n);
+			frame     = Arrays.copyOf(frame, n);
+			elapsed   = Arrays.copyOf(elapsed, n);
+			cells     = Arrays.copyOf(cells, n);
+			sizes     = Arrays.copyOf(sizes, n);
+			stale     = Arrays.copyOf(stale, n);
+		}
+		current[count] = staticTile;
+		cells[count] = new long[8];
+		return count++;
+	}
+
+	int get(int k) { return current[k]; }
+
+	void set(int k, int staticTile) { current[k] = staticTile; }
+
+	void setSequence(int k, int[] sequence, double[] times) {
+		if (sequence == null) {
+			frames[k] = null;
+			durations[k] = null;
+			return;
+		}
+		if (sequence.length == 0 || sequence.length != times.length) {
+			throw new IllegalArgumentException("Frames and durations must be non-empty and the same length!");
+		}
+		for(double t : times) {
+			if (!(t > 0)) { throw new IllegalArgumentException("Frame durations must be positive!"); }
+		}
+		frames[k] = sequence.clone();
+		durations[k] = times.clone();
+		frame[k] = 0;
+		elapsed[k] = 0;
+		current[k] = sequence[0];
+	}
+
+	int[] getSequence(int k) { return frames[k]; }
+
+	double[] getDurations(int k) { return durations[k]; }
+
+	/**
+	* Advance one animated tile by some number of seconds.
+	* Returns true if its appearance changed.
+	**/
+	boolean advance(int k, double time) {
+		final int[] f = frames[k];
+		if (f == null) { return false; }
+		final double[] d = durations[k];
+		double t = elapsed[k] + time;
+		int z = frame[k];
+		if (t >= d[z]) {
+			double total = 0;
+			for(double x : d) { total += x; }
+			if (t >= total) { t %= total; }
+			while(t >= d[z]) {
+				t -= d[z];
+				z = (z + 1) % f.length;
+			}
+		}
+		elapsed[k] = t;
+		frame[k] = z;
+		if (current[k] == f[z]) { return false; }
+		current[k] = f[z];
+		return true;
+	}
+
+	/**
+	* Record that a cell now uses an animated tile.
+	* The layer must already hold the cells it has indexed.
+	**/
+	void add(int k, int col, int row, TiledLayer layer) {
+		if (sizes[k] == cells[k].length) {
+			if (stale[k]) { sweep(k, layer); }
+			// only grow if sweeping freed less than half the index
+			if (sizes[k] * 2 > cells[k].length) {
+				cells[k] = Arrays.copyOf(cells[k], cells[k].length * 2);
+			}
+		}
+		cells[k][sizes[k]++] = pack(col, row);
+	}
+
+	/**
+	* Record that a cell no longer uses an animated tile.
+	**/
+	void remove(int k) { stale[k] = true; }
+
+	/**
+	* Mark every index as possibly holding stale entries,
+	* for example after cells were discarded in bulk.
+	**/
+	void invalidate() { Arrays.fill(stale, 0, count, true); }
+
+	/**
+	* Returns the number of index entries for an animated
+	* tile, sweeping stale entries first if necessary.
+	* Entries can then be read with cell(k, z).
+	**/
+	int occurrences(int k, TiledLayer layer) {
+		if (stale[k]) { sweep(k, layer); }
+		return sizes[k];
+	}
+
+	/**
+	* Remove duplicate entries, and entries for cells which
+	* no longer use an animated tile.
+	**/
+	private void sweep(int k, TiledLayer layer) {
+		final long[] c = cells[k];
+		Arrays.sort(c, 0, sizes[k]);
+		int n = 0;
+		for(int z = 0; z < sizes[k]; z++) {
+			if (n > 0 && c[n - 1] == c[z]) { continue; }
+			if (layer.peekCell(col(c[z]), row(c[z])) != -k - 1) { continue; }
+			c[n++] = c[z];
+		}
+		sizes[k] = n;
+		stale[k] = false;
+	}
+
+	long cell(int k, int z) { return cells[k][z]; }
+
+	static long pack(int col, int row) { return ((long) col << 32) | (row & 0xFFFFFFFFL); }
+
+	static int col(long cell) { return (int)(cell >> 32); }
+
+	static int row(long cell) { return (int) cell; }
+}
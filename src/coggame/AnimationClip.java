@@ -0,0 +1,116 @@
+package coggame;
+
+import java.util.Arrays;
+
+/**
+* An AnimationClip is an immutable sequence of
+* Sprite frames, each with its own duration and
+* transform. Clips are played by an Animator and can
+* be shared freely between any number of Animators.
+*
+* A looping clip repeats forever. A clip which does not
+* loop either holds its last frame when it finishes or,
+* if a next clip has been set, transitions to that clip.
+*
+* @author John Earnest
+**/
+public class AnimationClip {
+
+	private final int[] frames;
+	private final int[] transforms;
+	private final double[] durations;
+	private final boolean loop;
+	private final double length;
+	private AnimationClip next;
+
+	/**
+	* Construct a looping clip in which every
+	* frame is shown for the same time.
+	*
+	* @param frames the 1-indexed Sprite frames to show
+	* @param frameTime the number of seconds each frame is shown
+	**/
+	public AnimationClip(int[] frames, double frameTime) {
+		this(frames, null, uniform(frames.length, frameTime), true);
+	}
+
+	/**
+	* Construct a new clip.
+	*
+	* @param frames the 1-indexed Sprite frames to show
+	* @param transforms the Sprite transform for each frame, or null for TRANS_NONE
+	* @param durations the number of seconds each frame is shown
+	* @param loop should this clip repeat when it reaches the end?
+	**/
+	public AnimationClip(int[] frames, int[] transforms, double[] durations, boolean loop) {
+		if (frames.length == 0 || frames.length != durations.length ||
+			(transforms != null && transforms.length != frames.length)) {
+			throw new IllegalArgumentException("Frames, transforms and durations must be non-empty and the same length!");
+		}
+		double total = 0;
+		for(double d : durations) {
+			if (!(d > 0)) { throw new IllegalArgumentException("Frame durations must be positive!"); }
+			total += d;
+		}
+		this.frames = frames.clone();
+		this.transforms = (transforms == null) ? new int[frames.length] : transforms.clone();
+		this.durations = durations.clone();
+		this.loop = loop;
+		this.length = total;
+	}
+
+	private static double[] uniform(int count, double frameTime) {
+		final double[] ret = new double[count];
+		Arrays.fill(ret, frameTime);
+		return ret;
+	}
+
+	/**
+	* Returns the number of frames in this clip.
+	**/
+	public int getFrameCount() { return frames.length; }
+
+	/**
+	* Returns the Sprite frame shown at a given step of this clip.
+	*
+	* @param index the 0-indexed step within the clip
+	**/
+	public int getFrame(int index) { return frames[index]; }
+
+	/**
+	* Returns the Sprite transform used at a given step of this clip.
+	*
+	* @param index the 0-indexed step within the clip
+	**/
+	public int getTransform(int index) { return transforms[index]; }
+
+	/**
+	* Returns the number of seconds a given step of this clip is shown.
+	*
+	* @param index the 0-indexed step within the clip
+	**/
+	public double getDuration(int index) { return durations[index]; }
+
+	/**
+	* Returns the total length of this clip in seconds.
+	**/
+	public double getLength() { return length; }
+
+	/**
+	* Returns true if this clip repeats when it reaches the end.
+	**/
+	public boolean isLooping() { return loop; }
+
+	/**
+	* Returns the clip which follows this one, or null.
+	**/
+	public AnimationClip getNext() { return next; }
+
+	/**
+	* Choose a clip to play automatically when this
+	* (non-looping) clip reaches its end.
+	*
+	* @param next the following clip, or null to hold the last frame
+	**/
+	public void setNext(AnimationClip next) { this.next = next; }
+}
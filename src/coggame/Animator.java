@@ -0,0 +1,117 @@
+package coggame;
+
+/**
+* An Animator plays AnimationClips on a Sprite,
+* advancing by elapsed time rather than by ticks,
+* so that animations run at the same speed no matter
+* how often update() is called.
+*
+* @author John Earnest
+**/
+public class Animator {
+
+	private final Sprite sprite;
+	private AnimationClip clip;
+	private int index = 0;
+	private double time = 0;
+	private double speed = 1;
+	private boolean finished = false;
+
+	/**
+	* Construct a new Animator.
+	*
+	* @param sprite the Sprite whose frame and transform should be driven
+	**/
+	public Animator(Sprite sprite) {
+		this.sprite = sprite;
+	}
+
+	/**
+	* Returns the Sprite driven by this Animator.
+	**/
+	public Sprite getSprite() { return sprite; }
+
+	/**
+	* Returns the clip currently playing, or null.
+	**/
+	public AnimationClip getClip() { return clip; }
+
+	/**
+	* Returns true if a non-looping clip with no
+	* following clip has reached its last frame.
+	**/
+	public boolean isFinished() { return finished; }
+
+	/**
+	* Set a multiplier for the playback rate. Defaults to 1.
+	*
+	* @param speed the playback rate multiplier
+	**/
+	public void setSpeed(double speed) { this.speed = speed; }
+
+	/**
+	* Play a clip. If the clip is already playing
+	* it continues uninterrupted.
+	*
+	* @param clip the clip to play
+	**/
+	public void play(AnimationClip clip) {
+		if (clip == this.clip) { return; }
+		restart(clip);
+	}
+
+	/**
+	* Play a clip from its first frame,
+	* even if it is already playing.
+	*
+	* @param clip the clip to play
+	**/
+	public void restart(AnimationClip clip) {
+		this.clip = clip;
+		index = 0;
+		time = 0;
+		finished = false;
+		apply();
+	}
+
+	/**
+	* Advance the current clip.
+	*
+	* @param delta the number of seconds since the last update
+	**/
+	public void update(double delta) {
+		if (clip == null || finished) { return; }
+		time += delta * speed;
+		if (time < clip.getDuration(index)) { return; }
+
+		// skip whole cycles of a looping clip at once
+		if (clip.isLooping() && time >= clip.getLength()) {
+			time %= clip.getLength();
+		}
+		while(time >= clip.getDuration(index)) {
+			time -= clip.getDuration(index);
+			if (index + 1 < clip.getFrameCount()) {
+				index++;
+			}
+			else if (clip.isLooping()) {
+				index = 0;
+			}
+			else if (clip.getNext() != null) {
+				clip = clip.getNext();
+				index = 0;
+			}
+			else {
+				time = 0;
+				finished = true;
+				break;
+			}
+		}
+		apply();
+	}
+
+	private void apply() {
+		if (clip == null) { return; }
+		sprite.setFrame(clip.getFrame(index));
+		sprite.setTransform(clip.getTransform(index));
+	}
+}
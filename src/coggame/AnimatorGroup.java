@@ -0,0 +1,70 @@
+package coggame;
+
+import java.util.Arrays;
+
+/**
+* An AnimatorGroup updates a large number of Animators
+* together. Animators are kept in a flat array, so
+* updating the group does not allocate.
+*
+* @author John Earnest
+**/
+public class AnimatorGroup {
+
+	private Animator[] animators = new Animator[16];
+	private int size = 0;
+
+	/**
+	* Returns the number of Animators in the group.
+	**/
+	public int size() { return size; }
+
+	/**
+	* Returns an Animator in the group.
+	*
+	* @param index the 0-indexed position of the Animator
+	**/
+	public Animator get(int index) {
+		if (index < 0 || index >= size) { throw new IndexOutOfBoundsException("Invalid index: " + index); }
+		return animators[index];
+	}
+
+	/**
+	* Add an Animator to the group.
+	*
+	* @param animator the Animator to add
+	**/
+	public void add(Animator animator) {
+		if (size == animators.length) {
+			animators = Arrays.copyOf(animators, size * 2);
+		}
+		animators[size++] = animator;
+	}
+
+	/**
+	* Remove an Animator from the group.
+	* The order of the remaining Animators may change.
+	*
+	* @param animator the Animator to remove
+	**/
+	public void remove(Animator animator) {
+		for(int z = 0; z < size; z++) {
+			if (animators[z] == animator) {
+				animators[z] = animators[--size];
+				animators[size] = null;
+				return;
+			}
+		}
+	}
+
+	/**
+	* Advance every Animator in the group.
+	*
+	* @param delta the number of seconds since the last update
+	**/
+	public void update(double delta) {
+		for(int z = 0; z < size; z++) {
+			animators[z].update(delta);
+		}
+	}
+}
@@ -0,0 +1,245 @@
+package coggame;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Hashtable;
+import java.util.Properties;
+import javax.imageio.ImageIO;
+
+/**
+* The AssetPacker converts images into a preprocessed
+* form which loads without decoding. It is run by the
+* build (see the preprocess-assets target in build.xml),
+* and ImageTool.loadImage() uses its output whenever a
+* packed file sits beside the original image.
+*
+* A packed image stores opaque RGB or premultiplied ARGB
+* pixels exactly as Java2D holds them in memory, together
+* with the frame size of the sheet and, for every frame,
+* its tight bounds and whether it has any transparency.
+* Frame sizes are read from a file named frames.properties
+* in the source directory, mapping image names to sizes:
+* <pre>
+* robot.png = 48 48
+* text.png = 8 8
+* </pre>
+* Images not listed are treated as a single frame.
+*
+* @author John Earnest
+**/
+public class AssetPacker {
+
+	/**
+	* The suffix appended to the name of a packed image.
+	**/
+	public static final String SUFFIX = ".raw";
+
+	static final String FRAME_WIDTH  = "coggame.frameWidth";
+	static final String FRAME_HEIGHT = "coggame.frameHeight";
+	static final String BOUNDS       = "coggame.bounds";
+	static final String TRANSPARENT  = "coggame.transparent";
+
+	private static final int MAGIC = 0x4347494D;	// "CGIM"
+	private static final int VERSION = 1;
+	private static final int OPAQUE = 0;
+	private static final int PREMULTIPLIED = 1;
+	private static final int STRIP = 64;
+
+	/**
+	* Pack every PNG and GIF beneath a source directory
+	* into a destination directory, keeping relative paths.
+	* Images whose packed form is newer than both the image
+	* and frames.properties are skipped.
+	*
+	* @param args the source and destination directories
+	**/
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("usage: AssetPacker <source dir> <destination dir>");
+			System.exit(1);
+		}
+		final File source = new File(args[0]);
+		final File dest = new File(args[1]);
+		final File framesFile = new File(source, "frames.properties");
+		final Properties frames = new Properties();
+		if (framesFile.exists()) {
+			final InputStream in = new FileInputStream(framesFile);
+			try { frames.load(in); }
+			finally { in.close(); }
+		}
+		final int packed = packDirectory(source, dest, "", frames, framesFile.lastModified());
+		System.out.format("Packed %d images.%n", packed);
+	}
+
+	private static int packDirectory(File source, File dest, String prefix, Properties frames, long framesModified) throws IOException {
+		int ret = 0;
+		final File[] files = source.listFiles();
+		if (files == null) { return 0; }
+		for(File f : files) {
+			final String name = prefix + f.getName();
+			if (f.isDirectory()) {
+				ret += packDirectory(f, new File(dest, f.getName()), name + "/", frames, framesModified);
+				continue;
+			}
+			final String lower = name.toLowerCase();
+			if (!lower.endsWith(".png") && !lower.endsWith(".gif")) { continue; }
+
+			final File out = new File(dest, f.getName() + SUFFIX);
+			if (out.lastModified() > f.lastModified() && out.lastModified() > framesModified) { continue; }
+
+			final BufferedImage image = ImageIO.read(f);
+			if (image == null) { throw new IOException("Unable to decode " + f); }
+			int frameWidth = image.getWidth();
+			int frameHeight = image.getHeight();
+			final String size = frames.getProperty(name);
+			if (size != null) {
+				final String[] wh = size.trim().split("\\s+");
+				frameWidth = Integer.parseInt(wh[0]);
+				frameHeight = Integer.parseInt(wh[1]);
+			}
+			dest.mkdirs();
+			pack(image, frameWidth, frameHeight, out);
+			ret++;
+		}
+		return ret;
+	}
+
+	/**
+	* Write a packed image.
+	*
+	* @param image the source image
+	* @param frameWidth the width of a frame in pixels
+	* @param frameHeight the height of a frame in pixels
+	* @param out the destination file
+	**/
+	public static void pack(BufferedImage image, int frameWidth, int frameHeight, File out) throws IOException {
+		final int w = image.getWidth();
+		final int h = image.getHeight();
+		final int cols = Math.max(1, w / frameWidth);
+		final int rows = Math.max(1, h / frameHeight);
+		final int frameCount = cols * rows;
+		final boolean opaque = !ImageTool.hasTransparency(image);
+
+		// convert to the layout Java2D will hold in memory
+		final BufferedImage converted = new BufferedImage(w, h,
+			(opaque) ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB_PRE);
+		final Graphics2D g = converted.createGraphics();
+		g.setComposite(AlphaComposite.Src);
+		g.drawImage(image, 0, 0, null);
+		g.dispose();
+
+		final ByteBuffer buffer = ByteBuffer.allocate(4 * (8 + frameCount * 5 + w * h));
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putInt(w);
+		buffer.putInt(h);
+		buffer.putInt((opaque) ? OPAQUE : PREMULTIPLIED);
+		buffer.putInt(frameWidth);
+		buffer.putInt(frameHeight);
+		buffer.putInt(frameCount);
+		for(int tile = 1; tile <= frameCount; tile++) {
+			final Rectangle r = ImageTool.tightBound(image, frameWidth, frameHeight, tile);
+			buffer.putInt(r.x);
+			buffer.putInt(r.y);
+			buffer.putInt(r.width);
+			buffer.putInt(r.height);
+			buffer.putInt(ImageTool.hasTransparency(image, frameWidth, frameHeight, tile) ? 1 : 0);
+		}
+		final int[] strip = new int[w * STRIP];
+		for(int y = 0; y < h; y += STRIP) {
+			final int n = Math.min(STRIP, h - y);
+			converted.getRaster().getDataElements(0, y, w, n, strip);
+			buffer.asIntBuffer().put(strip, 0, w * n);
+			buffer.position(buffer.position() + 4 * w * n);
+		}
+		buffer.flip();
+
+		final FileChannel channel = new FileOutputStream(out).getChannel();
+		try {
+			while(buffer.hasRemaining()) { channel.write(buffer); }
+		}
+		finally { channel.close(); }
+	}
+
+	/**
+	* Load a packed image resource, or return null if
+	* there is none. Files on disk are memory-mapped;
+	* resources within a JAR are read in one piece.
+	*
+	* @param filename the filename of the original image resource
+	**/
+	static BufferedImage load(String filename) {
+		final URL url = AssetPacker.class.getClassLoader().getResource(filename + SUFFIX);
+		if (url == null) { return null; }
+		try {
+			final ByteBuffer buffer;
+			if ("file".equals(url.getProtocol())) {
+				final FileChannel channel = FileChannel.open(Paths.get(url.toURI()), StandardOpenOption.READ);
+				try { buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()); }
+				finally { channel.close(); }
+			}
+			else {
+				final InputStream in = url.openStream();
+				try { buffer = ByteBuffer.wrap(in.readAllBytes()); }
+				finally { in.close(); }
+			}
+			return read(buffer);
+		}
+		catch(IOException ioe) { ioe.printStackTrace(); }
+		catch(URISyntaxException use) { use.printStackTrace(); }
+		return null;
+	}
+
+	private static BufferedImage read(ByteBuffer buffer) throws IOException {
+		if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+			throw new IOException("Not a packed image.");
+		}
+		final int w = buffer.getInt();
+		final int h = buffer.getInt();
+		final int type = buffer.getInt();
+		final int frameWidth = buffer.getInt();
+		final int frameHeight = buffer.getInt();
+		final int frameCount = buffer.getInt();
+		final Rectangle[] bounds = new Rectangle[frameCount];
+		final boolean[] transparent = new boolean[frameCount];
+		for(int z = 0; z < frameCount; z++) {
+			bounds[z] = new Rectangle(buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt());
+			transparent[z] = buffer.getInt() != 0;
+		}
+
+		final Hashtable<String, Object> properties = new Hashtable<String, Object>();
+		properties.put(FRAME_WIDTH, frameWidth);
+		properties.put(FRAME_HEIGHT, frameHeight);
+		properties.put(BOUNDS, bounds);
+		properties.put(TRANSPARENT, transparent);
+
+		// A raster built around our own array could never be cached
+		// in video memory, so the pixels are copied into a fresh one.
+		final BufferedImage plain = new BufferedImage(w, h,
+			(type == OPAQUE) ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB_PRE);
+		final BufferedImage ret = new BufferedImage(plain.getColorModel(), plain.getRaster(),
+			plain.isAlphaPremultiplied(), properties);
+		final IntBuffer pixels = buffer.asIntBuffer();
+		final int[] strip = new int[w * Math.min(STRIP, Math.max(h, 1))];
+		for(int y = 0; y < h; y += STRIP) {
+			final int n = Math.min(STRIP, h - y);
+			pixels.get(strip, 0, w * n);
+			ret.getRaster().setDataElements(0, y, w, n, strip);
+		}
+		return ret;
+	}
+}
@@ -0,0 +1,100 @@
+package coggame;
+
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+* An AtlasRegion records where an image handed out by a
+* TextureAtlas lies on its atlas page. The image itself is
+* an ordinary BufferedImage sharing the pixels of the page,
+* so it may be drawn, recolored or added to another atlas
+* like any other; Sprites, TiledLayers, TextTools and
+* ParticleLayers built from it look up its region and
+* draw straight from the page instead.
+*
+* @author John Earnest
+**/
+final class AtlasRegion {
+
+	// keyed by identity, since BufferedImage does not override equals()
+	private static final Map<Image, AtlasRegion> REGIONS =
+		Collections.synchronizedMap(new WeakHashMap<Image, AtlasRegion>());
+
+	final BufferedImage page;
+	final int x;
+	final int y;
+
+	private AtlasRegion(BufferedImage page, int x, int y) {
+		this.page = page;
+		this.x = x;
+		this.y = y;
+	}
+
+	/**
+	* Returns an image of part of an atlas page, and records
+	* where it lies. Any AssetPacker metadata of the image
+	* originally packed there is carried over.
+	*
+	* @param page the atlas page
+	* @param x the x-offset of the region within the page
+	* @param y the y-offset of the region within the page
+	* @param width the width of the region in pixels
+	* @param height the height of the region in pixels
+	* @param source the image packed into the region, or null
+	**/
+	static BufferedImage create(BufferedImage page, int x, int y, int width, int height, Image source) {
+		final Hashtable<String, Object> properties = new Hashtable<String, Object>();
+		if (source instanceof BufferedImage) {
+			final BufferedImage b = (BufferedImage) source;
+			final String[] names = b.getPropertyNames();
+			if (names != null) {
+				for(String name : names) { properties.put(name, b.getProperty(name)); }
+			}
+		}
+		final BufferedImage ret = new BufferedImage(
+			page.getColorModel(),
+			page.getRaster().createWritableChild(x, y, width, height, 0, 0, null),
+			page.isAlphaPremultiplied(),
+			properties
+		);
+		REGIONS.put(ret, new AtlasRegion(page, x, y));
+		return ret;
+	}
+
+	/**
+	* Returns the region of a given image, or null
+	* if it was not handed out by a TextureAtlas.
+	**/
+	static AtlasRegion of(Image image) {
+		return (image == null) ? null : REGIONS.get(image);
+	}
+
+	/**
+	* Returns the image to draw from for a given image:
+	* its atlas page if it has a region, otherwise itself.
+	**/
+	static Image sheet(Image image) {
+		final AtlasRegion r = of(image);
+		return (r == null) ? image : r.page;
+	}
+
+	/**
+	* Returns the x-offset of a given image within the image returned by sheet().
+	**/
+	static int originX(Image image) {
+		final AtlasRegion r = of(image);
+		return (r == null) ? 0 : r.x;
+	}
+
+	/**
+	* Returns the y-offset of a given image within the image returned by sheet().
+	**/
+	static int originY(Image image) {
+		final AtlasRegion r = of(image);
+		return (r == null) ? 0 : r.y;
+	}
+}
@@ -0,0 +1,22 @@
+package coggame;
+
+/**
+* A CellListener is notified whenever the appearance
+* of a cell in a TiledLayer changes, either because the
+* cell was set to a different tile or because the animated
+* tile it holds moved to a different frame. This allows
+* renderers that cache tiles to redraw only what changed.
+*
+* @author John Earnest
+**/
+public interface CellListener {
+
+	/**
+	* Called when the appearance of a cell changes.
+	*
+	* @param layer the TiledLayer containing the cell
+	* @param col the 0-indexed column number of the cell
+	* @param row the 0-indexed row number of the cell
+	**/
+	public void cellChanged(TiledLayer layer, int col, int row);
+}
@@ -0,0 +1,90 @@
+package coggame;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+* A ChunkFileSource stores the chunks of a
+* ChunkedTiledLayer as individual files in a directory.
+* Chunks which have never been saved can be supplied
+* by a fallback source, such as a ChunkGeneratorSource,
+* so that a generated world only stores the chunks
+* the player has actually changed.
+*
+* @author John Earnest
+**/
+public class ChunkFileSource implements ChunkSource {
+
+	private final File directory;
+	private final ChunkSource fallback;
+	private ByteBuffer buffer = ByteBuffer.allocateDirect(0);
+
+	/**
+	* Create a new ChunkFileSource with no fallback.
+	*
+	* @param directory the directory in which to store chunk files
+	**/
+	public ChunkFileSource(File directory) {
+		this(directory, null);
+	}
+
+	/**
+	* Create a new ChunkFileSource.
+	*
+	* @param directory the directory in which to store chunk files
+	* @param fallback the source of chunks which have no file, or null
+	**/
+	public ChunkFileSource(File directory, ChunkSource fallback) {
+		this.directory = directory;
+		this.fallback = fallback;
+		directory.mkdirs();
+	}
+
+	private File file(int chunkX, int chunkY) {
+		return new File(directory, chunkX + "_" + chunkY + ".chunk");
+	}
+
+	private ByteBuffer buffer(int cells) {
+		if (buffer.capacity() < cells * 4) {
+			buffer = ByteBuffer.allocateDirect(cells * 4);
+		}
+		buffer.clear();
+		buffer.limit(cells * 4);
+		return buffer;
+	}
+
+	public boolean load(int chunkX, int chunkY, int[] cells) {
+		final File f = file(chunkX, chunkY);
+		if (!f.exists()) {
+			return (fallback != null) && fallback.load(chunkX, chunkY, cells);
+		}
+		try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+			final FileChannel channel = raf.getChannel();
+			final ByteBuffer b = buffer(cells.length);
+			while(b.hasRemaining() && channel.read(b) >= 0) {}
+			b.flip();
+			b.asIntBuffer().get(cells, 0, b.remaining() / 4);
+			return true;
+		}
+		catch(IOException ioe) {
+			ioe.printStackTrace();
+			return false;
+		}
+	}
+
+	public void save(int chunkX, int chunkY, int[] cells) {
+		try (RandomAccessFile raf = new RandomAccessFile(file(chunkX, chunkY), "rw")) {
+			final FileChannel channel = raf.getChannel();
+			final ByteBuffer b = buffer(cells.length);
+			b.asIntBuffer().put(cells);
+			while(b.hasRemaining()) { channel.write(b); }
+			raf.setLength(cells.length * 4L);
+		}
+		catch(IOException ioe) {
+			ioe.printStackTrace();
+		}
+	}
+}
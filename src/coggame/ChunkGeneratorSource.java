@@ -0,0 +1,55 @@
+package coggame;
+
+import java.awt.Image;
+import java.util.Random;
+
+/**
+* A ChunkGeneratorSource produces chunks for a
+* ChunkedTiledLayer by running a TileGenerator,
+* seeded exactly as ProceduralLayer seeds it.
+* Generated chunks are reproducible, so modified
+* chunks are discarded rather than saved. Wrap this
+* in a ChunkFileSource to keep modifications.
+*
+* @author John Earnest
+**/
+public class ChunkGeneratorSource implements ChunkSource {
+
+	private final TileGenerator generator;
+	private final long seed;
+	private final TiledLayer scratch;
+
+	/**
+	* Create a new ChunkGeneratorSource.
+	*
+	* @param generator the generator which fills chunks
+	* @param seed the seed from which every chunk is generated
+	* @param tiles the tile sheet of the layer being generated
+	* @param tileWidth the width of each tile in pixels
+	* @param tileHeight the height of each tile in pixels
+	* @param chunkSize the number of columns and rows in each chunk
+	**/
+	public ChunkGeneratorSource(TileGenerator generator, long seed, Image tiles, int tileWidth, int tileHeight, int chunkSize) {
+		this.generator = generator;
+		this.seed = seed;
+		scratch = new TiledLayer(chunkSize, chunkSize, tiles, tileWidth, tileHeight);
+	}
+
+	public boolean load(int chunkX, int chunkY, int[] cells) {
+		final int size = scratch.getColumns();
+		scratch.fillCells(0, 0, size, size, 0);
+		generator.generate(scratch, chunkX, chunkY, new Random(ProceduralLayer.chunkSeed(seed, chunkX, chunkY)));
+
+		boolean any = false;
+		for(int y = 0; y < size; y++) {
+			for(int x = 0; x < size; x++) {
+				final int tile = scratch.getCell(x, y);
+				cells[y * size + x] = tile;
+				any |= (tile != 0);
+			}
+		}
+		return any;
+	}
+
+	public void save(int chunkX, int chunkY, int[] cells) {}
+}
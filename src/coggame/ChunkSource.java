@@ -0,0 +1,35 @@
+package coggame;
+
+/**
+* A ChunkSource supplies and persists the cells of
+* a ChunkedTiledLayer one square chunk at a time.
+* Cells are exchanged as a flat array in row-major
+* order, so the cell at (x, y) within a chunk of
+* size n is found at index (y * n + x).
+*
+* @author John Earnest
+**/
+public interface ChunkSource {
+
+	/**
+	* Fill the cells of a chunk. The array is zeroed
+	* before this is called. Returns false if the chunk
+	* has no content, in which case the contents of
+	* the array are ignored.
+	*
+	* @param chunkX the chunk's column, counting in chunks from the origin
+	* @param chunkY the chunk's row, counting in chunks from the origin
+	* @param cells the destination for the chunk's cells
+	**/
+	public boolean load(int chunkX, int chunkY, int[] cells);
+
+	/**
+	* Persist the cells of a chunk which has been modified.
+	* The array must not be retained after this returns.
+	*
+	* @param chunkX the chunk's column, counting in chunks from the origin
+	* @param chunkY the chunk's row, counting in chunks from the origin
+	* @param cells the chunk's cells
+	**/
+	public void save(int chunkX, int chunkY, int[] cells);
+}
@@ -0,0 +1,339 @@
+package coggame;
+
+import java.awt.Graphics;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+* A ChunkedTiledLayer is a TiledLayer for very large
+* maps which stores its cells in square chunks rather
+* than one dense grid. Chunks are loaded from a ChunkSource
+* the first time a cell within them is read or written,
+* and the least recently used chunks are discarded (and
+* saved first, if they were modified) once more than a
+* given number are resident. Memory use therefore follows
+* the area being played in, not the size of the map.
+*
+* A ChunkedTiledLayer can be used anywhere a TiledLayer can,
+* including for sprite collision. When painting, only cells
+* within the clipping region of the Graphics surface (or the
+* viewport set with setViewport()) are drawn.
+*
+* @author John Earnest
+**/
+public class ChunkedTiledLayer extends TiledLayer {
+
+	private final int chunkSize;
+	private final int chunkShift;
+	private final int chunkMask;
+	private final int maxChunks;
+	private final ChunkSource source;
+
+	private Chunk[] table = new Chunk[16];
+	private Chunk head;		// most recently used
+	private Chunk tail;		// least recently used
+	private Chunk free;
+	private Chunk last;
+	private int resident = 0;
+	private Rectangle viewport;
+
+	/**
+	* Create a new ChunkedTiledLayer.
+	*
+	* @param columns the number of columns in the grid
+	* @param rows the number of rows in the grid
+	* @param tiles an Image containing a grid of equal-sized tiles
+	* @param tileWidth the width of each tile in pixels
+	* @param tileHeight the height of each tile in pixels
+	* @param chunkSize the number of columns and rows in a chunk (a power of 2)
+	* @param maxChunks the number of chunks to keep in memory
+	* @param source the source of chunk cells, or null to start every chunk empty
+	**/
+	public ChunkedTiledLayer(int columns, int rows, Image tiles, int tileWidth, int tileHeight,
+								int chunkSize, int maxChunks, ChunkSource source) {
+		super(columns, rows, tiles, tileWidth, tileHeight, false);
+		if (chunkSize < 1 || (chunkSize & (chunkSize - 1)) != 0) {
+			throw new IllegalArgumentException("Chunk size must be a power of 2!");
+		}
+		if (maxChunks < 1) {
+			throw new IllegalArgumentException("At least one chunk must be resident!");
+		}
+		this.chunkSize = chunkSize;
+		this.chunkShift = Integer.numberOfTrailingZeros(chunkSize);
+		this.chunkMask = chunkSize - 1;
+		this.maxChunks = maxChunks;
+		this.source = source;
+	}
+
+	/**
+	* Returns the number of columns and rows in a chunk.
+	**/
+	public int getChunkSize() { return chunkSize; }
+
+	/**
+	* Returns the number of chunks currently held in memory.
+	**/
+	public int getResidentChunks() { return resident; }
+
+	/**
+	* Specify the region drawn by paint() when the
+	* Graphics surface has no clipping region.
+	* If neither is available, paint() only draws
+	* chunks which are already in memory.
+	*
+	* @param viewport the visible region in pixels, or null
+	**/
+	public void setViewport(Rectangle viewport) { this.viewport = viewport; }
+
+	/**
+	* Returns the tile index at a given position,
+	* loading the chunk containing it if necessary.
+	*
+	* @param col the 0-indexed column number of the cell
+	* @param row the 0-indexed row number of the cell
+	**/
+	public int getCell(int col, int row) {
+		checkBounds(col, row);
+		final Chunk c = chunk(col >> chunkShift, row >> chunkShift);
+		if (c.cells == null) { return 0; }
+		return c.cells[((row & chunkMask) << chunkShift) | (col & chunkMask)];
+	}
+
+	/**
+	* Sets the tile index at a given position,
+	* loading the chunk containing it if necessary.
+	*
+	* @param col the 0-indexed column number of the cell
+	* @param row the 0-indexed row number of the cell
+	* @param tile the 1-indexed tile to set (0 is transparent)
+	**/
+	public void setCell(int col, int row, int tile) {
+		checkBounds(col, row);
+		final Chunk c = chunk(col >> chunkShift, row >> chunkShift);
+		if (c.cells == null) {
+			if (tile == 0) { return; }
+			c.cells = cellArray(c);
+		}
+		final int index = ((row & chunkMask) << chunkShift) | (col & chunkMask);
+		final int old = c.cells[index];
+		if (old == tile) { return; }
+		c.cells[index] = tile;
+		c.dirty = true;
+		cellChanged(col, row, old, tile);
+	}
+
+	int peekCell(int col, int row) {
+		if (col < 0 || row < 0 || col >= getColumns() || row >= getRows()) { return 0; }
+		final Chunk c = lookup(col >> chunkShift, row >> chunkShift);
+		if (c == null || c.cells == null) { return 0; }
+		return c.cells[((row & chunkMask) << chunkShift) | (col & chunkMask)];
+	}
+
+	/**
+	* Save every modified chunk to the ChunkSource.
+	**/
+	public void flush() {
+		if (source == null) { return; }
+		for(Chunk c = head; c != null; c = c.next) {
+			if (c.dirty && c.cells != null) { source.save(c.x, c.y, c.cells); }
+			c.dirty = false;
+		}
+	}
+
+	/**
+	* Draw the visible portion of this ChunkedTiledLayer.
+	*
+	* @param g the destination Graphics object
+	**/
+	public void paint(Graphics g) {
+		if (!isVisible()) { return; }
+		Rectangle view = g.getClipBounds();
+		if (view == null) { view = viewport; }
+		if (view == null) {
+			for(Chunk c = head; c != null; c = c.next) {
+				paintChunk(g, c, 0, 0, chunkSize, chunkSize);
+			}
+			return;
+		}
+
+		final int w = getCellWidth();
+		final int h = getCellHeight();
+		final int col0 = Math.max(0, Math.floorDiv(view.x - getX(), w));
+		final int row0 = Math.max(0, Math.floorDiv(view.y - getY(), h));
+		final int col1 = Math.min(getColumns() - 1, Math.floorDiv(view.x + view.width  - 1 - getX(), w));
+		final int row1 = Math.min(getRows()    - 1, Math.floorDiv(view.y + view.height - 1 - getY(), h));
+		if (col0 > col1 || row0 > row1) { return; }
+
+		for(int cy = row0 >> chunkShift; cy <= row1 >> chunkShift; cy++) {
+			for(int cx = col0 >> chunkShift; cx <= col1 >> chunkShift; cx++) {
+				final int base = cx << chunkShift;
+				final int top  = cy << chunkShift;
+				paintChunk(g, chunk(cx, cy),
+							Math.max(col0 - base, 0), Math.max(row0 - top, 0),
+							Math.min(col1 - base + 1, chunkSize), Math.min(row1 - top + 1, chunkSize));
+			}
+		}
+	}
+
+	private void paintChunk(Graphics g, Chunk c, int x0, int y0, int x1, int y1) {
+		if (c.cells == null) { return; }
+		final int w = getCellWidth();
+		final int h = getCellHeight();
+		final int ox = getX() + (c.x << chunkShift) * w;
+		final int oy = getY() + (c.y << chunkShift) * h;
+		for(int y = y0; y < y1; y++) {
+			for(int x = x0; x < x1; x++) {
+				final int tile = c.cells[(y << chunkShift) | x];
+				if (tile == 0) { continue; }
+				drawTile(g, tile, ox + x * w, oy + y * h);
+			}
+		}
+	}
+
+	private void checkBounds(int col, int row) {
+		if (col < 0 || row < 0 || col >= getColumns() || row >= getRows()) {
+			throw new IndexOutOfBoundsException("Invalid cell: " + col + ", " + row);
+		}
+	}
+
+	private int[] cellArray(Chunk c) {
+		// reuse the array left over from a previous occupant
+		final int[] ret = (c.spare != null) ? c.spare : new int[chunkSize * chunkSize];
+		c.spare = null;
+		Arrays.fill(ret, 0);
+		return ret;
+	}
+
+	private Chunk chunk(int cx, int cy) {
+		if (last != null && last.x == cx && last.y == cy) { return last; }
+		Chunk c = lookup(cx, cy);
+		if (c == null) { c = load(cx, cy); }
+		else if (c != head) {
+			unlink(c);
+			link(c);
+		}
+		last = c;
+		return c;
+	}
+
+	private Chunk load(int cx, int cy) {
+		if (resident >= maxChunks) { evict(); }
+
+		Chunk c = free;
+		if (c != null) { free = c.next; }
+		else { c = new Chunk(); }
+		c.x = cx;
+		c.y = cy;
+		c.dirty = false;
+		c.next = null;
+		c.prev = null;
+
+		final int[] cells = cellArray(c);
+		if (source != null && source.load(cx, cy, cells)) { c.cells = cells; }
+		else { c.spare = cells; }
+
+		insert(c);
+		link(c);
+		resident++;
+		// indexed once resident, since indexing may sweep by reading cells back
+		for(int z = 0; c.cells != null && z < cells.length; z++) {
+			if (cells[z] < 0) {
+				indexCell((cx << chunkShift) | (z & chunkMask), (cy << chunkShift) | (z >> chunkShift), cells[z]);
+			}
+		}
+		return c;
+	}
+
+	private void evict() {
+		// Without a source, modified chunks have nowhere
+		// to go, so they stay resident beyond the limit.
+		Chunk c = tail;
+		while(c != null && c.dirty && source == null) { c = c.prev; }
+		if (c == null) { return; }
+
+		if (c.dirty && c.cells != null) { source.save(c.x, c.y, c.cells); }
+		delete(c);
+		unlink(c);
+		if (c == last) { last = null; }
+		if (c.cells != null) {
+			c.spare = c.cells;
+			invalidateIndex();
+		}
+		c.cells = null;
+		c.next = free;
+		free = c;
+		resident--;
+	}
+
+	private void link(Chunk c) {
+		c.prev = null;
+		c.next = head;
+		if (head != null) { head.prev = c; }
+		head = c;
+		if (tail == null) { tail = c; }
+	}
+
+	private void unlink(Chunk c) {
+		if (c.prev != null) { c.prev.next = c.next; } else { head = c.next; }
+		if (c.next != null) { c.next.prev = c.prev; } else { tail = c.prev; }
+		c.prev = null;
+		c.next = null;
+	}
+
+	private static int hash(int cx, int cy) {
+		final int h = cx * 0x9E3779B1 + cy * 0x85EBCA77;
+		return h ^ (h >>> 15);
+	}
+
+	private Chunk lookup(int cx, int cy) {
+		final int mask = table.length - 1;
+		for(int i = hash(cx, cy) & mask;; i = (i + 1) & mask) {
+			final Chunk c = table[i];
+			if (c == null) { return null; }
+			if (c.x == cx && c.y == cy) { return c; }
+		}
+	}
+
+	private void insert(Chunk c) {
+		if ((resident + 1) * 2 > table.length) {
+			final Chunk[] old = table;
+			table = new Chunk[old.length * 2];
+			for(Chunk o : old) {
+				if (o != null) { place(o); }
+			}
+		}
+		place(c);
+	}
+
+	private void place(Chunk c) {
+		final int mask = table.length - 1;
+		int i = hash(c.x, c.y) & mask;
+		while(table[i] != null) { i = (i + 1) & mask; }
+		table[i] = c;
+	}
+
+	private void delete(Chunk c) {
+		// linear probing removal: shift later entries
+		// of the same probe run back into the hole.
+		final int mask = table.length - 1;
+		int i = hash(c.x, c.y) & mask;
+		while(table[i] != c) { i = (i + 1) & mask; }
+		table[i] = null;
+		for(int j = (i + 1) & mask; table[j] != null; j = (j + 1) & mask) {
+			final Chunk moved = table[j];
+			table[j] = null;
+			place(moved);
+		}
+	}
+
+	private static class Chunk {
+		private int x;
+		private int y;
+		private int[] cells;
+		private int[] spare;
+		private boolean dirty;
+		private Chunk prev;
+		private Chunk next;
+	}
+}
@@ -0,0 +1,172 @@
+package coggame;
+
+import java.util.Arrays;
+
+/**
+* A FieldOfView records which cells of a TiledLayer are
+* visible from one or more viewpoints, using recursive
+* shadowcasting: each of the eight octants around a viewer
+* is scanned row by row outward, and every solid cell met
+* narrows the range of slopes still lit beyond it.
+* Solid cells which are lit are themselves visible, and
+* cells outside the layer block sight.
+*
+* Visibility is kept in a bitset, so a FieldOfView can be
+* recomputed every tick without allocating, and the sight
+* of several viewers can be combined with add().
+*
+* @author John Earnest
+**/
+public class FieldOfView {
+
+	// transforms from octant coordinates to grid offsets
+	private static final int[][] OCTANTS = {
+		{ 1,  0,  0, -1, -1,  0,  0,  1 },
+		{ 0,  1, -1,  0,  0, -1,  1,  0 },
+		{ 0,  1,  1,  0,  0, -1, -1,  0 },
+		{ 1,  0,  0,  1, -1,  0,  0, -1 }
+	};
+
+	private final int columns;
+	private final int rows;
+	private final int words;
+	private final long[] visible;
+	private TiledLayer layer;
+
+	/**
+	* Create a new FieldOfView with nothing visible.
+	*
+	* @param columns the number of columns of the layers it will be used with
+	* @param rows the number of rows of the layers it will be used with
+	**/
+	public FieldOfView(int columns, int rows) {
+		this.columns = columns;
+		this.rows = rows;
+		words = (columns + 63) >>> 6;
+		visible = new long[words * rows];
+	}
+
+	/**
+	* Make every cell invisible.
+	**/
+	public void clear() {
+		Arrays.fill(visible, 0);
+	}
+
+	/**
+	* Replace the visible cells with those
+	* visible from a single viewpoint.
+	*
+	* @param layer the TiledLayer whose solid cells block sight
+	* @param col the column of the viewer
+	* @param row the row of the viewer
+	* @param radius the greatest distance, in cells, which can be seen
+	**/
+	public void compute(TiledLayer layer, int col, int row, int radius) {
+		clear();
+		add(layer, col, row, radius);
+	}
+
+	/**
+	* Make the cells visible from a viewpoint visible, in
+	* addition to those which are visible already.
+	*
+	* @param layer the TiledLayer whose solid cells block sight
+	* @param col the column of the viewer
+	* @param row the row of the viewer
+	* @param radius the greatest distance, in cells, which can be seen
+	**/
+	public void add(TiledLayer layer, int col, int row, int radius) {
+		if (layer.getColumns() != columns || layer.getRows() != rows) {
+			throw new IllegalArgumentException("Layer size does not match!");
+		}
+		if (col < 0 || row < 0 || col >= columns || row >= rows) { return; }
+		this.layer = layer;
+		mark(col, row);
+		for(int[] m : OCTANTS) {
+			scan(col, row, 1, 1.0, 0.0, radius, m[0], m[1], m[2], m[3]);
+			scan(col, row, 1, 1.0, 0.0, radius, m[4], m[5], m[6], m[7]);
+		}
+		this.layer = null;
+	}
+
+	/**
+	* Scan one octant outward from a given distance,
+	* between two slopes. Each solid cell met with light
+	* beyond it starts a scan of the part of the next
+	* row still lit, and narrows this one to the rest.
+	**/
+	private void scan(int cx, int cy, int distance, double start, double end, int radius, int xx, int xy, int yx, int yy) {
+		if (start < end) { return; }
+		final int radius2 = radius * radius;
+		double newStart = 0;
+		for(int j = distance; j <= radius; j++) {
+			boolean blocked = false;
+			final int dy = -j;
+			for(int dx = -j; dx <= 0; dx++) {
+				final int x = cx + dx * xx + dy * xy;
+				final int y = cy + dx * yx + dy * yy;
+				final double leftSlope  = (dx - 0.5) / (dy + 0.5);
+				final double rightSlope = (dx + 0.5) / (dy - 0.5);
+				if (start < rightSlope) { continue; }
+				if (end > leftSlope) { break; }
+
+				if (dx * dx + dy * dy <= radius2) { mark(x, y); }
+				final boolean opaque = x < 0 || y < 0 || x >= columns || y >= rows || layer.isSolid(x, y);
+				if (blocked) {
+					if (opaque) {
+						newStart = rightSlope;
+						continue;
+					}
+					blocked = false;
+					start = newStart;
+				}
+				else if (opaque && j < radius) {
+					blocked = true;
+					scan(cx, cy, j + 1, start, leftSlope, radius, xx, xy, yx, yy);
+					newStart = rightSlope;
+				}
+			}
+			if (blocked) { break; }
+		}
+	}
+
+	private void mark(int x, int y) {
+		if (x < 0 || y < 0 || x >= columns || y >= rows) { return; }
+		visible[y * words + (x >>> 6)] |= 1L << x;
+	}
+
+	/**
+	* Returns true if a cell is visible.
+	* Cells outside the layer are never visible.
+	*
+	* @param col the column of the cell
+	* @param row the row of the cell
+	**/
+	public boolean isVisible(int col, int row) {
+		if (col < 0 || row < 0 || col >= columns || row >= rows) { return false; }
+		return (visible[row * words + (col >>> 6)] & (1L << col)) != 0;
+	}
+
+	/**
+	* Returns the number of visible cells.
+	**/
+	public int getVisibleCount() {
+		int ret = 0;
+		for(long w : visible) { ret += Long.bitCount(w); }
+		return ret;
+	}
+
+	/**
+	* Returns the visibility of 64 cells of a row, starting
+	* at column word * 64, one bit per cell from the least
+	* significant. This allows visibility to be combined
+	* with other per-cell bitsets a word at a time.
+	*
+	* @param row the row of the cells
+	* @param word the index of the word within the row
+	**/
+	public long getVisibleBits(int row, int word) {
+		return visible[row * words + word];
+	}
+}
@@ -0,0 +1,279 @@
+package coggame;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.IllegalFormatException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.imageio.ImageIO;
+
+/**
+* A FrameCapture saves frames in the background, for
+* screenshots, gameplay video and golden-image tests.
+*
+* offer() copies the pixels of a frame into one of a fixed
+* ring of preallocated buffers and returns immediately;
+* worker threads then encode the copies. If every buffer
+* is still waiting to be encoded, the frame is dropped and
+* counted rather than stalling the game, unless the capture
+* has been made blocking with setBlocking().
+*
+* In PNG format each frame is written to its own file, named
+* by formatting its frame number into a pattern such as
+* "shots/frame%05d.png". Frames are numbered by the order
+* they were offered in, so dropped frames leave gaps.
+*
+* In RAW format every frame is appended, in order, to a single
+* file as little-endian 32-bit pixels with no header, which
+* can be converted to video with, for example:
+* <pre>
+* ffmpeg -f rawvideo -pixel_format bgr0 -video_size 320x240 -framerate 30 -i frames.raw out.mp4
+* </pre>
+*
+* @author John Earnest
+**/
+public class FrameCapture {
+
+	/**
+	* Write one PNG file per frame.
+	**/
+	public static final int PNG = 0;
+	/**
+	* Write a single stream of raw pixels.
+	**/
+	public static final int RAW = 1;
+
+	private static final Frame STOP = new Frame(0);
+
+	private final String path;
+	private final int format;
+	private final int width;
+	private final int height;
+	private final BlockingQueue<Frame> free;
+	private final BlockingQueue<Frame> pending;
+	private final Thread[] workers;
+	private final FileChannel stream;
+	private final AtomicLong written = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private long offered = 0;
+	private long dropped = 0;
+	private boolean blocking = false;
+	private boolean closed = false;
+
+	/**
+	* Create a new FrameCapture.
+	*
+	* @param path a filename pattern for PNG, or the file to write for RAW
+	* @param format PNG or RAW
+	* @param width the width of captured frames in pixels
+	* @param height the height of captured frames in pixels
+	* @param ringSize the number of frames which may await encoding at once
+	* @param workerCount the number of encoding threads (always 1 for RAW)
+	**/
+	public FrameCapture(String path, int format, int width, int height, int ringSize, int workerCount) throws IOException {
+		if (format != PNG && format != RAW) {
+			throw new IllegalArgumentException("Invalid capture format!");
+		}
+		if (format == PNG) {
+			// a bad pattern would otherwise only fail on the worker threads
+			try { String.format(path, 0L); }
+			catch(IllegalFormatException ife) {
+				throw new IllegalArgumentException("Invalid capture filename pattern: " + path, ife);
+			}
+		}
+		this.path = path;
+		this.format = format;
+		this.width = width;
+		this.height = height;
+		free = new ArrayBlockingQueue<Frame>(ringSize);
+		pending = new ArrayBlockingQueue<Frame>(ringSize + workerCount + 1);
+		for(int z = 0; z < ringSize; z++) {
+			free.add(new Frame(width * height));
+		}
+
+		stream = (format == RAW) ? new FileOutputStream(path).getChannel() : null;
+		workers = new Thread[(format == RAW) ? 1 : Math.max(1, workerCount)];
+		for(int z = 0; z < workers.length; z++) {
+			workers[z] = new Thread(new Worker(), "coggame-capture-" + z);
+			workers[z].setDaemon(true);
+			workers[z].start();
+		}
+	}
+
+	/**
+	* Create a FrameCapture whose format is chosen by the
+	* extension of the path: PNG for ".png", otherwise RAW.
+	* It keeps 8 frames in flight, with one encoding thread
+	* per two available cores.
+	*
+	* @param path a filename pattern for PNG, or the file to write for RAW
+	* @param width the width of captured frames in pixels
+	* @param height the height of captured frames in pixels
+	**/
+	public FrameCapture(String path, int width, int height) throws IOException {
+		this(path, path.toLowerCase().endsWith(".png") ? PNG : RAW, width, height, 8,
+			Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+	}
+
+	/**
+	* Specify whether offer() should wait for a free buffer
+	* instead of dropping the frame. A blocking capture never
+	* drops frames, which suits offline replays and tests.
+	*
+	* @param blocking true if offer() should wait
+	**/
+	public synchronized void setBlocking(boolean blocking) { this.blocking = blocking; }
+
+	/**
+	* Returns the number of frames offered so far.
+	**/
+	public synchronized long getOffered() { return offered; }
+
+	/**
+	* Returns the number of frames dropped because
+	* every buffer was still awaiting encoding.
+	**/
+	public synchronized long getDropped() { return dropped; }
+
+	/**
+	* Returns the number of frames successfully written.
+	**/
+	public long getWritten() { return written.get(); }
+
+	/**
+	* Returns the number of frames which could not be written.
+	**/
+	public long getFailed() { return failed.get(); }
+
+	/**
+	* Copy a frame for encoding. Returns false if the frame
+	* was dropped or this capture has been closed. The image
+	* must be the size this capture was created with, and
+	* must not be drawn to during this call.
+	*
+	* @param image the frame to capture
+	**/
+	public synchronized boolean offer(BufferedImage image) {
+		if (closed) { return false; }
+		final long number = offered++;
+		Frame f = free.poll();
+		while(f == null && blocking) {
+			try { f = free.take(); }
+			catch(InterruptedException ie) { ie.printStackTrace(); }
+		}
+		if (f == null) {
+			dropped++;
+			return false;
+		}
+
+		final int type = image.getType();
+		if (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB) {
+			// copies without defeating the image's acceleration, unlike getData()
+			image.getRaster().getDataElements(0, 0, width, height, f.pixels);
+		}
+		else {
+			image.getRGB(0, 0, width, height, f.pixels, 0, width);
+		}
+		f.number = number;
+		f.alpha = (type != BufferedImage.TYPE_INT_RGB) && image.getColorModel().hasAlpha();
+		pending.add(f);
+		return true;
+	}
+
+	/**
+	* Stop accepting frames, wait for every pending frame
+	* to be written and release the worker threads.
+	**/
+	public void close() {
+		synchronized(this) {
+			if (closed) { return; }
+			closed = true;
+		}
+		for(int z = 0; z < workers.length; z++) { pending.add(STOP); }
+		for(Thread t : workers) {
+			try { t.join(); }
+			catch(InterruptedException ie) { ie.printStackTrace(); }
+		}
+		if (stream != null) {
+			try { stream.close(); }
+			catch(IOException ioe) { ioe.printStackTrace(); }
+		}
+	}
+
+	private static class Frame {
+		private final int[] pixels;
+		private long number;
+		private boolean alpha;
+
+		public Frame(int size) {
+			pixels = new int[size];
+		}
+	}
+
+	private class Worker implements Runnable {
+		private BufferedImage opaque;
+		private BufferedImage translucent;
+		private ByteBuffer bytes;
+
+		public void run() {
+			while(true) {
+				final Frame f;
+				try { f = pending.take(); }
+				catch(InterruptedException ie) { ie.printStackTrace(); continue; }
+				if (f == STOP) { return; }
+
+				try {
+					if (format == PNG) { writePNG(f); }
+					else { writeRaw(f); }
+					written.incrementAndGet();
+				}
+				catch(IOException ioe) {
+					failed.incrementAndGet();
+					ioe.printStackTrace();
+				}
+				catch(RuntimeException re) {
+					failed.incrementAndGet();
+					re.printStackTrace();
+				}
+				finally {
+					// a blocking offer() may be waiting for this buffer
+					free.add(f);
+				}
+			}
+		}
+
+		private void writePNG(Frame f) throws IOException {
+			final BufferedImage image;
+			if (f.alpha) {
+				if (translucent == null) { translucent = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB); }
+				image = translucent;
+			}
+			else {
+				if (opaque == null) { opaque = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB); }
+				image = opaque;
+			}
+			image.getRaster().setDataElements(0, 0, width, height, f.pixels);
+			final File file = new File(String.format(path, f.number));
+			if (!ImageIO.write(image, "png", file)) {
+				throw new IOException("No PNG encoder available.");
+			}
+		}
+
+		private void writeRaw(Frame f) throws IOException {
+			if (bytes == null) {
+				bytes = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.LITTLE_ENDIAN);
+			}
+			bytes.clear();
+			final IntBuffer ints = bytes.asIntBuffer();
+			ints.put(f.pixels);
+			while(bytes.hasRemaining()) { stream.write(bytes); }
+		}
+	}
+}
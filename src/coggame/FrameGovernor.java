@@ -0,0 +1,124 @@
+package coggame;
+
+/**
+* A FrameGovernor paces the game loop of a GameApplication
+* and decides, each frame, whether there is time to paint.
+* Frames are scheduled a fixed budget apart. After each
+* tick the governor compares the time remaining until the
+* frame is due with what painting has recently cost; if
+* painting would make the frame late, or the loop has
+* already fallen behind, the frame is ticked but not
+* painted, so that the next tick comes sooner.
+*
+* At most a configurable number of frames in a row are
+* skipped, so the display never freezes entirely, and the
+* cost of painting is only sampled by frames which paint.
+* If the loop falls further behind than skipping can
+* recover, the schedule is reset rather than racing to
+* catch up.
+*
+* @author John Earnest
+**/
+final class FrameGovernor {
+
+	private long budget;
+	private int maxSkip;
+	private long deadline;
+	private long paintStart;
+	private long paintCost = 0;
+	private int skipped = 0;
+	private long totalSkipped = 0;
+	private long totalPainted = 0;
+
+	FrameGovernor(long budget, int maxSkip) {
+		this.budget = budget;
+		this.maxSkip = maxSkip;
+		deadline = System.nanoTime() + budget;
+	}
+
+	/**
+	* Set the time allowed for each frame.
+	*
+	* @param budget the budget in nanoseconds
+	**/
+	void setBudget(long budget) { this.budget = Math.max(0, budget); }
+
+	long getBudget() { return budget; }
+
+	/**
+	* Set the most frames in a row which may go unpainted.
+	*
+	* @param frames the number of frames, or 0 to paint every frame
+	**/
+	void setMaxSkip(int frames) { maxSkip = Math.max(0, frames); }
+
+	int getMaxSkip() { return maxSkip; }
+
+	/**
+	* Start the schedule over from the present moment.
+	**/
+	void reset() {
+		deadline = System.nanoTime() + budget;
+		skipped = 0;
+	}
+
+	/**
+	* Decide whether the current frame should be painted,
+	* once it has been ticked. If so, the time until
+	* painted() is called is taken as the cost of painting.
+	*
+	* @param force true if the frame must be painted regardless
+	**/
+	boolean shouldPaint(boolean force) {
+		final long now = System.nanoTime();
+		if (!force && skipped < maxSkip && now + paintCost - deadline > 0) {
+			skipped++;
+			totalSkipped++;
+			return false;
+		}
+		skipped = 0;
+		paintStart = now;
+		return true;
+	}
+
+	/**
+	* Record that the current frame has been painted.
+	**/
+	void painted() {
+		final long cost = System.nanoTime() - paintStart;
+		// a moving average, so that one slow frame does not cause many skips
+		paintCost += (cost - paintCost) / 4;
+		totalPainted++;
+	}
+
+	/**
+	* Sleep until the next frame is due, and schedule it.
+	**/
+	void await() {
+		final long wait = deadline - System.nanoTime();
+		if (wait > 0) {
+			try { Thread.sleep(wait / 1000000, (int)(wait % 1000000)); }
+			catch(InterruptedException ie) { ie.printStackTrace(); }
+		}
+		deadline += budget;
+		// too far behind to catch up by skipping, so give up on the lost time
+		if (System.nanoTime() - deadline > budget * (maxSkip + 1)) {
+			deadline = System.nanoTime() + budget;
+		}
+	}
+
+	/**
+	* Returns the mean cost of recently painted frames, in nanoseconds.
+	**/
+	long getPaintCost() { return paintCost; }
+
+	/**
+	* Returns the number of frames ticked but not painted.
+	**/
+	long getSkipped() { return totalSkipped; }
+
+	/**
+	* Returns the number of frames painted.
+	**/
+	long getPainted() { return totalPainted; }
+}
@@ -7,6 +7,8 @@ import java.awt.event.KeyEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
 import java.awt.event.MouseEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.GraphicsEnvironment;
@@ -21,6 +23,10 @@ import java.awt.Cursor;
 import java.awt.Point;
 import java.awt.Dimension;
 import java.awt.BorderLayout;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
 
 /**
 * GameApplication is an abstract class that deals
@@ -29,6 +35,38 @@ import java.awt.BorderLayout;
 * including double-buffering, timing, fullscreen
 * functionality, upscaling and buffered key input.
 *
+* Input events are queued as they arrive and delivered
+* on the game thread immediately before each tick, which
+* allows a session to be recorded and replayed exactly.
+* Recording and replay are controlled by system properties:
+* <pre>
+* -Dcoggame.record=session.log     record input and tick timing
+* -Dcoggame.checksums=true         also record a checksum of every frame
+* -Dcoggame.replay=session.log     replay as fast as possible, without a window
+* -Dcoggame.replay.realtime=true   replay at the recorded pace, in a window
+* -Dcoggame.capture=shots/%05d.png capture every frame (see FrameCapture)
+* -Dcoggame.alloc=fail             check allocation budgets (see AllocationMonitor)
+* -Dcoggame.frameskip=4            the most frames in a row which may go unpainted
+* </pre>
+* A replay exits when the log is exhausted, after printing
+* the number of frames, the time taken and any frames whose
+* checksums differ from the recording. The exit status is
+* nonzero if any frame differed, or if an allocation budget
+* was exceeded while failing on budgets. For replays to be faithful,
+* games should draw random numbers from getRandom(), which
+* is seeded from the log.
+*
+* The window appears as soon as the application is
+* constructed. Once launch() is called, the game thread
+* calls init(), and preload(), whose tasks run on a pool
+* of worker threads while a loading screen is drawn with
+* paintLoading().
+* Once every task has finished, start() is called and the
+* game begins to tick. Subclass constructors should
+* therefore do no more than set up fields; anything slow
+* belongs in preload(). Setting -Dcoggame.timing=true
+* prints the time from launching the JVM to the first frame.
+*
 * @author John Earnest
 **/
 
@@ -66,15 +104,39 @@ public abstract class GameApplication {
 	private int keys = 0;
 
 	private GraphicsEnvironment ge;
-	private final JFrame frame = new JFrame();
-	private final InnerPainter panel = new InnerPainter(this);
-	private final InnerEventPump pump = new InnerEventPump(this, Thread.currentThread());
+	private final JFrame frame;
+	private final InnerPainter panel;
+	private final InnerEventPump pump = new InnerEventPump(this);
 	private final InnerListener listener;
 	private final Thread painterThread;
 	private final Thread pumpThread;
-	private final Image buffer;
+	private final BufferedImage buffer;
 	private final int width;
 	private final int height;
+	private final Random random;
+	private final InputLog recording;
+	private final InputLog replay;
+	private final boolean replayRealTime;
+	private final boolean checksums;
+	private final AllocationMonitor allocation = AllocationMonitor.fromProperties();
+	private final FrameGovernor governor;
+	private int[] pixels;
+	private double startupTime = -1;
+	private boolean shutdown = false;
+	private boolean launched = false;
+
+	// pipelined rendering of a scene, one snapshot per in-flight frame
+	private LayerManager scene;
+	private SceneSnapshot[] snapshots;
+	private int snapshotIndex = 0;
+	private InnerRenderer renderer;
+	private volatile RenderBuffer batch;
+	private volatile FrameCapture capture;
+
+	// input events queued by the AWT thread, four ints per event
+	private int[] queued = new int[64];
+	private int[] draining = new int[64];
+	private int queuedCount = 0;
 
 	/**
 	* Construct a new GameApplication. The width and height
@@ -97,16 +159,70 @@ public abstract class GameApplication {
 		this.height = height * scaleFactor;
 		buffer = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
 
+		// configure recording and replay
+		final String recordFile = System.getProperty("coggame.record");
+		final String replayFile = System.getProperty("coggame.replay");
+		replayRealTime = Boolean.getBoolean("coggame.replay.realtime");
+		long seed = System.nanoTime();
+		InputLog rec = null;
+		InputLog rep = null;
+		try {
+			if (replayFile != null) {
+				rep = InputLog.open(replayFile);
+				seed = rep.getSeed();
+			}
+			else if (recordFile != null) {
+				rec = InputLog.create(recordFile, seed, width, height, Boolean.getBoolean("coggame.checksums"));
+			}
+		}
+		catch(IOException ioe) { throw new IllegalStateException("Unable to open input log.", ioe); }
+		recording = rec;
+		replay = rep;
+		random = new Random(seed);
+		checksums = (replay != null && replay.hasChecksums()) || (recording != null && recording.hasChecksums());
+		// every frame of a recording with checksums must be painted
+		governor = new FrameGovernor(100000000L, (checksums) ? 0 : Integer.getInteger("coggame.frameskip", 4));
+		final String captureFile = System.getProperty("coggame.capture");
+		if (captureFile != null) {
+			try {
+				final FrameCapture c = new FrameCapture(captureFile, width, height);
+				// an offline replay should capture every frame
+				c.setBlocking(replay != null && !replayRealTime);
+				setCapture(c);
+			}
+			catch(IOException ioe) { throw new IllegalStateException("Unable to open frame capture.", ioe); }
+		}
+		if (recording != null) {
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				public void run() { recording.close(); }
+			});
+		}
+
+		pumpThread = new Thread(pump);
+		listener = new InnerListener(this);
+
+		// a replay at full speed has no window at all
+		if (replay != null && !replayRealTime) {
+			frame = null;
+			panel = null;
+			painterThread = null;
+			return;
+		}
+		frame = new JFrame();
+		panel = new InnerPainter(this);
+
 		// hide mouse cursor
 		showCursor(false);
 
 		// configure frame
 		panel.setPreferredSize(new Dimension(width * scaleFactor, height * scaleFactor));
-		listener = new InnerListener(this);
 		frame.addKeyListener(listener);
 		frame.setLayout(new BorderLayout());
 		frame.getContentPane().add(panel, BorderLayout.CENTER);
-		frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+		frame.setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
+		frame.addWindowListener(new WindowAdapter() {
+			public void windowClosing(WindowEvent e) { exit(); }
+		});
 		frame.setResizable(false);
 
 		// configure fullscreen stuff
@@ -134,21 +250,191 @@ public abstract class GameApplication {
 			}
 		}
 
+		// only the built-in loading screen can be drawn
+		// until the subclass has been constructed
+		synchronized(buffer) {
+			final Graphics g = buffer.getGraphics();
+			drawProgress(g, 0);
+			g.dispose();
+		}
+
 		frame.pack();
 		frame.setVisible(true);
 		painterThread = new Thread(panel);
-		pumpThread = new Thread(pump);
 
 		painterThread.start();
+	}
+
+	/**
+	* Start the game thread, which runs init(), preload()
+	* and start() and then begins to tick. This should be
+	* called once the application has been constructed:
+	* <pre>
+	* public static void main(String[] args) { new MyGame().launch(); }
+	* </pre>
+	* It returns immediately, and may only be called once.
+	**/
+	public synchronized void launch() {
+		if (launched) { throw new IllegalStateException("Application already launched."); }
+		launched = true;
 		pumpThread.start();
 	}
 
 	/**
 	* Return the JFrame for this application.
 	* mess with it at your own peril.
+	* Returns null when replaying without a window.
 	**/
 	public JFrame getWindow() { return frame; }
 
+	/**
+	* Set the title of the game window, if there is one.
+	*
+	* @param title the new window title
+	**/
+	public void setTitle(String title) {
+		if (frame != null) { frame.setTitle(title); }
+	}
+
+	/**
+	* Draw a LayerManager with pipelining instead of calling
+	* paint(). After each tick the state of the scene's Layers
+	* is captured in a SceneSnapshot, and a separate thread
+	* draws that snapshot while the game thread goes on to
+	* compute the next tick. On a machine with several cores
+	* the time per frame is then the larger of tick and paint
+	* time rather than their sum.
+	*
+	* While a scene is set, paint() is not called, so every
+	* part of the display should belong to one of its Layers.
+	* Layers must still only be modified from tick().
+	*
+	* @param scene the layers to draw, or null to call paint() again
+	**/
+	public void setScene(LayerManager scene) {
+		if (scene == null && snapshots != null) {
+			if (renderer != null) { renderer.await(); }
+			for(SceneSnapshot s : snapshots) { s.release(); }
+			snapshots = null;
+		}
+		if (scene != null && scene.getAllocationMonitor() == null) {
+			scene.setAllocationMonitor(allocation);
+		}
+		this.scene = scene;
+	}
+
+	/**
+	* Set the time allowed for each frame, which is 100
+	* milliseconds unless changed. The game loop ticks once
+	* per frame, and sleeps for whatever time is left over.
+	*
+	* @param millis the frame budget in milliseconds
+	**/
+	public void setFrameBudget(int millis) {
+		governor.setBudget(millis * 1000000L);
+		governor.reset();
+	}
+
+	/**
+	* Return the time allowed for each frame, in milliseconds.
+	**/
+	public int getFrameBudget() { return (int)(governor.getBudget() / 1000000); }
+
+	/**
+	* Set the most frames in a row which may be ticked
+	* without being painted. When painting would make a frame
+	* overrun its budget, or the game has fallen behind, the
+	* frame is not painted so that ticks stay on schedule and
+	* the game keeps to real time. Setting this to 0 paints
+	* every frame, however slowly. Frames are never skipped
+	* while replaying, or while recording with checksums.
+	*
+	* @param frames the number of frames, which defaults to 4
+	**/
+	public void setMaxFrameSkip(int frames) {
+		if (!checksums) { governor.setMaxSkip(frames); }
+	}
+
+	/**
+	* Return the most frames in a row which may go unpainted.
+	**/
+	public int getMaxFrameSkip() { return governor.getMaxSkip(); }
+
+	/**
+	* Return the number of frames which have been ticked
+	* but not painted, to keep to the frame budget.
+	**/
+	public long getSkippedFrames() { return governor.getSkipped(); }
+
+	/**
+	* Return the number of frames which have been painted
+	* by the game loop.
+	**/
+	public long getPaintedFrames() { return governor.getPainted(); }
+
+	/**
+	* Return the recent average time taken to paint a
+	* frame, in seconds. A pipelined scene is counted by
+	* the time the game thread spends capturing it and
+	* waiting for the previous frame to finish drawing.
+	**/
+	public double getPaintTime() { return governor.getPaintCost() / 1e9; }
+
+	/**
+	* Return the AllocationMonitor which counts the bytes
+	* allocated by tick() and paint() in each frame. It is
+	* configured from system properties, but may also be
+	* enabled and given budgets directly.
+	**/
+	public AllocationMonitor getAllocationMonitor() { return allocation; }
+
+	/**
+	* Record each frame into a RenderBuffer and replay it
+	* grouped by source image, rather than drawing directly.
+	* This reduces switching between tile sheets, sprite
+	* sheets and fonts in busy scenes, at the cost of
+	* recording each operation.
+	*
+	* @param batching true if frames should be batched
+	**/
+	public void setBatching(boolean batching) {
+		batch = (batching) ? new RenderBuffer() : null;
+	}
+
+	/**
+	* Capture every frame once it has been drawn, or stop
+	* capturing. The previous FrameCapture, if any, is closed,
+	* which waits for its pending frames to be written.
+	* Captures are also closed when the application exits.
+	*
+	* @param capture the capture to offer frames to, or null
+	**/
+	public void setCapture(FrameCapture capture) {
+		final FrameCapture old = this.capture;
+		this.capture = capture;
+		if (old != null && old != capture) {
+			old.close();
+			if (old.getDropped() > 0) {
+				System.out.format("Frame capture dropped %d of %d frames.%n", old.getDropped(), old.getOffered());
+			}
+		}
+	}
+
+	/**
+	* Return a random number generator for game logic.
+	* It is seeded from the input log when replaying,
+	* so a replayed session makes the same random
+	* choices as the recorded one.
+	**/
+	public Random getRandom() { return random; }
+
+	/**
+	* Return the number of seconds from the launch of the JVM
+	* until the first frame was drawn, or -1 if no frame
+	* has been drawn yet.
+	**/
+	public double getStartupTime() { return startupTime; }
+
 	/**
 	* Control the visibility of the mouse cursor.
 	* By default, it is made invisible.
@@ -156,6 +442,7 @@ public abstract class GameApplication {
 	* @param show should the cursor be shown?
 	**/
 	public void showCursor(boolean show) {
+		if (frame == null) { return; }
 		if (show) {
 			frame.setCursor(new Cursor(Cursor.DEFAULT_CURSOR));
 		}
@@ -171,6 +458,7 @@ public abstract class GameApplication {
 	* Enable mouse events for this application.
 	**/
 	public void enableMouseEvents() {
+		if (frame == null) { return; }
 		frame.getContentPane().addMouseListener(listener);
 		frame.getContentPane().addMouseMotionListener(listener);
 	}
@@ -199,12 +487,249 @@ public abstract class GameApplication {
 	* Terminate the application.
 	**/
 	private void exit() {
-		panel.stop();
+		exit(0);
+	}
+
+	private void exit(int status) {
+		if (panel != null) { panel.stop(); }
 		pump.stop();
+		synchronized(this) {
+			if (!shutdown) {
+				shutdown = true;
+				try { shutdown(); }
+				catch(RuntimeException re) { re.printStackTrace(); }
+			}
+		}
 		if (ge != null) {
 			ge.getDefaultScreenDevice().setFullScreenWindow(null);
 		}
-		System.exit(0);
+		if (recording != null) { recording.close(); }
+		if (renderer != null) { renderer.await(); }
+		allocation.summary();
+		setCapture(null);
+		System.exit(status);
+	}
+
+	/**
+	* Queue an input event for delivery on the game thread.
+	**/
+	private void post(int type, int a, int b, int c) {
+		synchronized(this) {
+			if (queuedCount + 4 > queued.length) {
+				queued = Arrays.copyOf(queued, queued.length * 2);
+			}
+			queued[queuedCount++] = type;
+			queued[queuedCount++] = a;
+			queued[queuedCount++] = b;
+			queued[queuedCount++] = c;
+		}
+	}
+
+	/**
+	* Deliver every queued input event, recording each one.
+	**/
+	private void dispatchQueued() {
+		final int count;
+		synchronized(this) {
+			final int[] t = draining;
+			draining = queued;
+			queued = (t.length >= draining.length) ? t : new int[draining.length];
+			count = queuedCount;
+			queuedCount = 0;
+		}
+		for(int z = 0; z < count; z += 4) {
+			if (recording != null) {
+				try { recording.event(draining[z], draining[z+1], draining[z+2], draining[z+3]); }
+				catch(IOException ioe) { ioe.printStackTrace(); }
+			}
+			dispatch(draining[z], draining[z+1], draining[z+2], draining[z+3]);
+		}
+	}
+
+	private void dispatch(int type, int a, int b, int c) {
+		if		(type == InputLog.KEY_PRESSED)		{ keys |= keyMask(a);	keyPressed(a); }
+		else if (type == InputLog.KEY_RELEASED)		{ keys &= ~keyMask(a);	keyReleased(a); }
+		else if (type == InputLog.KEY_TYPED)		{ keyTyped((char) a); }
+		else if (type == InputLog.MOUSE_MOVED)		{ mouseMoved(a, b); }
+		else if (type == InputLog.MOUSE_CLICKED)	{ mouseClicked(a, b, c); }
+	}
+
+	private static int keyMask(int k) {
+		if		(k == KeyEvent.VK_UP)		{ return UP; }
+		else if (k == KeyEvent.VK_DOWN)		{ return DOWN; }
+		else if (k == KeyEvent.VK_LEFT)		{ return LEFT; }
+		else if (k == KeyEvent.VK_RIGHT)	{ return RIGHT; }
+		else if (k == KeyEvent.VK_SPACE)	{ return FIRE; }
+		else if (k == KeyEvent.VK_Z)		{ return GAME_A; }
+		else if (k == KeyEvent.VK_X)		{ return GAME_B; }
+		return 0;
+	}
+
+	/**
+	* Run a single frame: deliver input, tick and paint.
+	* Returns a checksum of the painted frame, or 0 if
+	* checksums are disabled or the frame was not painted.
+	*
+	* @param elapsed the nanoseconds since the previous frame
+	* @param governor decides whether to paint, or null to always paint
+	**/
+	private long frame(long elapsed, FrameGovernor governor) {
+		final double tickTime = elapsed / 1e9;
+		final long mark = allocation.mark();
+		tick(tickTime);
+		allocation.add(AllocationMonitor.TICK, mark);
+		if (governor != null && !governor.shouldPaint(startupTime < 0)) {
+			allocation.endFrame();
+			return 0;
+		}
+		final long sum = paintFrame();
+		if (governor != null) { governor.painted(); }
+		return sum;
+	}
+
+	/**
+	* Paint the current frame, returning its checksum or 0.
+	**/
+	private long paintFrame() {
+		if (scene == null) {
+			final RenderBuffer batch = this.batch;
+			if (batch != null) {
+				batch.clear();
+				countPaint(batch.getGraphics());
+			}
+			synchronized(buffer) {
+				if (batch != null) { batch.replay(buffer.getGraphics()); }
+				else { countPaint(buffer.getGraphics()); }
+				final FrameCapture capture = this.capture;
+				if (capture != null) { capture.offer(buffer); }
+			}
+			allocation.endFrame();
+			if (startupTime < 0) { firstFrame(); }
+			return (checksums) ? checksum() : 0;
+		}
+
+		if (snapshots == null) {
+			snapshots = new SceneSnapshot[] {
+				new SceneSnapshot(buffer.getWidth(), buffer.getHeight()),
+				new SceneSnapshot(buffer.getWidth(), buffer.getHeight())
+			};
+		}
+		if (renderer == null) {
+			renderer = new InnerRenderer(this);
+			final Thread t = new Thread(renderer, "coggame-render");
+			t.setDaemon(true);
+			t.start();
+		}
+		// the other snapshot may still be painting the previous frame
+		snapshotIndex ^= 1;
+		final long captureMark = allocation.mark();
+		snapshots[snapshotIndex].capture(scene);
+		allocation.add(AllocationMonitor.PAINT, captureMark);
+		renderer.submit(snapshots[snapshotIndex]);
+		allocation.endFrame();
+		if (startupTime < 0) { renderer.await(); firstFrame(); }
+		if (!checksums) { return 0; }
+		renderer.await();
+		return checksum();
+	}
+
+	/**
+	* Call paint(), counting only what the game allocates.
+	**/
+	private void countPaint(Graphics g) {
+		final long mark = allocation.mark();
+		paint(g);
+		allocation.add(AllocationMonitor.PAINT, mark);
+	}
+
+	private void firstFrame() {
+		if (startupTime >= 0) { return; }
+		final long launched = ManagementFactory.getRuntimeMXBean().getStartTime();
+		startupTime = (System.currentTimeMillis() - launched) / 1000.0;
+		if (Boolean.getBoolean("coggame.timing")) {
+			System.out.format("First frame %.3f seconds after launch.%n", startupTime);
+		}
+	}
+
+	/**
+	* Run init() and preload(), drawing the loading screen
+	* until every preload task has finished, then start().
+	* Returns false if loading failed.
+	**/
+	private boolean load() {
+		final Preloader loader = new Preloader(Runtime.getRuntime().availableProcessors());
+		try {
+			init();
+			preload(loader);
+			while(!loader.isDone()) {
+				if (frame != null) {
+					synchronized(buffer) {
+						final Graphics g = buffer.getGraphics();
+						paintLoading(g, loader.getProgress());
+						g.dispose();
+					}
+				}
+				try { Thread.sleep(16); }
+				catch(InterruptedException ie) { ie.printStackTrace(); }
+			}
+			loader.await();
+			start();
+			return true;
+		}
+		catch(RuntimeException re) {
+			re.printStackTrace();
+			return false;
+		}
+	}
+
+	private long checksum() {
+		final int w = buffer.getWidth();
+		final int h = buffer.getHeight();
+		if (pixels == null) { pixels = new int[w * h]; }
+		buffer.getRGB(0, 0, w, h, pixels, 0, w);
+		long ret = 0xCBF29CE484222325L;
+		for(int p : pixels) {
+			ret = (ret ^ p) * 0x100000001B3L;
+		}
+		return ret;
+	}
+
+	/**
+	* Drive the game from the replay log until it is exhausted.
+	**/
+	private void runReplay() {
+		final long start = System.nanoTime();
+		int frames = 0;
+		int mismatches = 0;
+		try {
+			for(int type = replay.next(); type != InputLog.END; type = replay.next()) {
+				if (type != InputLog.FRAME) {
+					dispatch(type, replay.a(), replay.b(), replay.c());
+					continue;
+				}
+				final long frameStart = System.nanoTime();
+				final long sum = frame(replay.nanos(), null);
+				if (replay.hasChecksums() && sum != replay.checksum()) {
+					if (mismatches == 0) { System.out.format("Frame %d differs from the recording.%n", frames); }
+					mismatches++;
+				}
+				frames++;
+				if (replayRealTime) {
+					final long wait = replay.nanos() - (System.nanoTime() - frameStart);
+					if (wait > 0) {
+						try { Thread.sleep(wait / 1000000, (int)(wait % 1000000)); }
+						catch(InterruptedException ie) { ie.printStackTrace(); }
+					}
+				}
+			}
+		}
+		catch(IOException ioe) { ioe.printStackTrace(); }
+		replay.close();
+
+		final double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.format("Replayed %d frames in %.3f seconds (%.1f frames/second), %d checksum mismatches.%n",
+			frames, seconds, frames / seconds, mismatches);
+		exit((mismatches == 0 && !allocation.isFailed()) ? 0 : 1);
 	}
 
 	/**
@@ -258,6 +783,67 @@ public abstract class GameApplication {
 	**/
 	protected void mouseClicked(int x, int y, int button) {}
 
+	/**
+	* Called on the game thread once the window is
+	* showing, before preload(). Suitable for cheap setup
+	* which preload tasks depend on.
+	**/
+	protected void init() {}
+
+	/**
+	* Called after init() to submit loading work, such as
+	* images, maps and atlases, to a Preloader. The tasks
+	* run on worker threads while the loading screen is
+	* drawn; this method should only submit them and return.
+	*
+	* @param loader the Preloader to submit tasks to
+	**/
+	protected void preload(Preloader loader) {}
+
+	/**
+	* Called on the game thread once every preload task
+	* has finished, immediately before the first tick.
+	* Results of preload tasks may be collected here.
+	**/
+	protected void start() {}
+
+	/**
+	* Called once when the application exits, whether from
+	* the Escape key, closing the window or a finished replay.
+	* It may be called from any thread, and even before
+	* start() if the game is closed while loading.
+	**/
+	protected void shutdown() {}
+
+	/**
+	* Draw the loading screen shown while preload tasks
+	* run. It is called repeatedly, from the game thread.
+	* By default it draws a progress bar on black; games
+	* may override it, but should not rely on anything
+	* which preload() is still loading.
+	*
+	* @param g the destination Graphics surface
+	* @param progress the fraction of preload tasks finished, from 0 to 1
+	**/
+	protected void paintLoading(Graphics g, double progress) {
+		drawProgress(g, progress);
+	}
+
+	private void drawProgress(Graphics g, double progress) {
+		final int w = getWidth();
+		final int h = getHeight();
+		final int barWidth = w / 2;
+		final int barHeight = Math.max(4, h / 40);
+		final int x = (w - barWidth) / 2;
+		final int y = (h - barHeight) / 2;
+		g.setColor(Color.BLACK);
+		g.fillRect(0, 0, w, h);
+		g.setColor(Color.DARK_GRAY);
+		g.drawRect(x - 2, y - 2, barWidth + 3, barHeight + 3);
+		g.setColor(Color.WHITE);
+		g.fillRect(x, y, (int)(barWidth * progress), barHeight);
+	}
+
 	/**
 	* A game's rendering code should go here.
 	*
@@ -281,37 +867,22 @@ public abstract class GameApplication {
 
 		public void keyPressed(KeyEvent ke) {
 			int k = ke.getKeyCode();
-			if		(k == KeyEvent.VK_ESCAPE)	{ app.exit(); }
-			else if (k == KeyEvent.VK_UP)		{ app.keys |= GameApplication.UP; }
-			else if (k == KeyEvent.VK_DOWN)		{ app.keys |= GameApplication.DOWN; }
-			else if (k == KeyEvent.VK_LEFT)		{ app.keys |= GameApplication.LEFT; }
-			else if (k == KeyEvent.VK_RIGHT)	{ app.keys |= GameApplication.RIGHT; }
-			else if (k == KeyEvent.VK_SPACE)	{ app.keys |= GameApplication.FIRE; }
-			else if (k == KeyEvent.VK_Z)		{ app.keys |= GameApplication.GAME_A; }
-			else if (k == KeyEvent.VK_X)		{ app.keys |= GameApplication.GAME_B; }
-			app.keyPressed(k);
+			if (k == KeyEvent.VK_ESCAPE) { app.exit(); }
+			app.post(InputLog.KEY_PRESSED, k, 0, 0);
 		}
 		public void keyReleased(KeyEvent ke) {
-			int k = ke.getKeyCode();
-			if		(k == KeyEvent.VK_UP)		{ app.keys &= ~GameApplication.UP; }
-			else if	(k == KeyEvent.VK_DOWN)		{ app.keys &= ~GameApplication.DOWN; }
-			else if	(k == KeyEvent.VK_LEFT)		{ app.keys &= ~GameApplication.LEFT; }
-			else if	(k == KeyEvent.VK_RIGHT)	{ app.keys &= ~GameApplication.RIGHT; }
-			else if	(k == KeyEvent.VK_SPACE)	{ app.keys &= ~GameApplication.FIRE; }
-			else if	(k == KeyEvent.VK_Z)		{ app.keys &= ~GameApplication.GAME_A; }
-			else if	(k == KeyEvent.VK_X)		{ app.keys &= ~GameApplication.GAME_B; }
-			app.keyPressed(k);
+			app.post(InputLog.KEY_RELEASED, ke.getKeyCode(), 0, 0);
 		}
 		public void keyTyped(KeyEvent ke) {
-			app.keyTyped(ke.getKeyChar());
+			app.post(InputLog.KEY_TYPED, ke.getKeyChar(), 0, 0);
 		}
 
 		public void mouseClicked(MouseEvent e) {
-			app.mouseClicked(e.getX(), e.getY(), e.getButton());
+			app.post(InputLog.MOUSE_CLICKED, e.getX(), e.getY(), e.getButton());
 		}
 
 		public void mouseMoved(MouseEvent e) {
-			app.mouseMoved(e.getX(), e.getY());
+			app.post(InputLog.MOUSE_MOVED, e.getX(), e.getY(), 0);
 		}
 
 		public void mouseEntered(MouseEvent e)  {}
@@ -360,33 +931,113 @@ public abstract class GameApplication {
 		}
 	}
 
+	private class InnerRenderer implements Runnable {
+		private final GameApplication app;
+		private SceneSnapshot pending;
+		private boolean busy = false;
+
+		public InnerRenderer(GameApplication app) {
+			this.app = app;
+		}
+
+		/**
+		* Hand over a snapshot to paint, once the previous one is done.
+		**/
+		public synchronized void submit(SceneSnapshot snapshot) {
+			await();
+			pending = snapshot;
+			notifyAll();
+		}
+
+		/**
+		* Wait until every submitted snapshot has been painted.
+		**/
+		public synchronized void await() {
+			while(pending != null || busy) {
+				try { wait(); }
+				catch(InterruptedException ie) { ie.printStackTrace(); }
+			}
+		}
+
+		public void run() {
+			while(true) {
+				final SceneSnapshot snapshot;
+				synchronized(this) {
+					while(pending == null) {
+						try { wait(); }
+						catch(InterruptedException ie) { ie.printStackTrace(); }
+					}
+					snapshot = pending;
+					pending = null;
+					busy = true;
+				}
+				try {
+					final RenderBuffer batch = app.batch;
+					if (batch != null) {
+						batch.clear();
+						paint(snapshot, batch.getGraphics());
+					}
+					synchronized(app.buffer) {
+						final Graphics g = app.buffer.getGraphics();
+						if (batch != null) { batch.replay(g); }
+						else { paint(snapshot, g); }
+						g.dispose();
+						final FrameCapture capture = app.capture;
+						if (capture != null) { capture.offer(app.buffer); }
+					}
+				}
+				catch(RuntimeException re) { re.printStackTrace(); }
+				synchronized(this) {
+					busy = false;
+					notifyAll();
+				}
+			}
+		}
+
+		private void paint(SceneSnapshot snapshot, Graphics g) {
+			final long mark = app.allocation.mark();
+			snapshot.paint(g);
+			app.allocation.add(AllocationMonitor.PAINT, mark);
+		}
+	}
+
 	private class InnerEventPump implements Runnable {
 		private final GameApplication app;
-		private final Thread parent;
 		private boolean running = true;
 		private long lastTick = System.nanoTime();
 
-		public InnerEventPump(GameApplication app, Thread parent) {
+		public InnerEventPump(GameApplication app) {
 			this.app = app;
-			this.parent = parent;
 		}
 
 		public void run() {
-			try {
-				parent.join();
+			if (!app.load()) {
+				app.exit(1);
+				return;
 			}
-			catch(InterruptedException ie) { ie.printStackTrace(); }
-			while(true) {
+			if (app.replay != null) {
+				app.runReplay();
+				return;
+			}
+			// the first tick should not include the time spent loading
+			lastTick = System.nanoTime();
+			app.governor.reset();
+			while(running) {
 				long thisTick = System.nanoTime();
-				double tickTime = ((double)( (thisTick - lastTick) / 1000000)) / 1024;
+				long elapsed = thisTick - lastTick;
 				lastTick = thisTick;
-				app.tick(tickTime);
 
-				synchronized(app.buffer) {
-					app.paint(buffer.getGraphics());
+				app.dispatchQueued();
+				long sum = app.frame(elapsed, app.governor);
+				if (app.recording != null) {
+					try { app.recording.frame(elapsed, sum); }
+					catch(IOException ioe) { ioe.printStackTrace(); }
 				}
-				try {Thread.sleep(100);}
-				catch(InterruptedException ie) { ie.printStackTrace(); }
+				if (app.allocation.isFailed()) {
+					app.exit(1);
+					return;
+				}
+				app.governor.await();
 			}
 		}
 
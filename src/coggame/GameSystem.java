@@ -0,0 +1,18 @@
+package coggame;
+
+/**
+* A GameSystem is one independent piece of game
+* logic, such as movement, collision or AI, which
+* is run once per tick by a SystemScheduler.
+*
+* @author John Earnest
+**/
+public interface GameSystem {
+
+	/**
+	* Advance this system.
+	*
+	* @param time the number of seconds since the last tick
+	**/
+	public void update(double time);
+}
@@ -10,6 +10,7 @@ import java.awt.image.PixelGrabber;
 import java.awt.image.RenderedImage;
 import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.Array;
 import java.util.List;
 import java.util.ArrayList;
 import javax.imageio.ImageIO;
@@ -131,6 +132,8 @@ public class ImageTool {
 	* @param tile the 1-based index of the tile to examine
 	**/
 	public static boolean hasTransparency(Image i, int tileWidth, int tileHeight, int tile) {
+		final Object packed = packedFrame(i, AssetPacker.TRANSPARENT, tileWidth, tileHeight, tile);
+		if (packed != null) { return ((boolean[]) packed)[tile - 1]; }
 		final int[] a = getTile(i, tileWidth, tileHeight, tile);
 		for(int x : a) {
 			if ((x & 0xFF000000) != 0xFF000000) { return true; }
@@ -163,6 +166,8 @@ public class ImageTool {
 	* @param tile the 1-based index of the tile to examine
 	**/
 	public static Rectangle tightBound(Image i, int tileWidth, int tileHeight, int tile) {
+		final Object packed = packedFrame(i, AssetPacker.BOUNDS, tileWidth, tileHeight, tile);
+		if (packed != null) { return new Rectangle(((Rectangle[]) packed)[tile - 1]); }
 		final int[] a = getTile(i, tileWidth, tileHeight, tile);
 		int x = tileWidth;
 		int y = tileHeight;
@@ -181,14 +186,33 @@ public class ImageTool {
 		return new Rectangle(x, y, w, h);
 	}
 
+	/**
+	* Returns per-frame data precomputed by the AssetPacker
+	* if the image was packed with the given frame size,
+	* otherwise null.
+	**/
+	private static Object packedFrame(Image i, String key, int tileWidth, int tileHeight, int tile) {
+		if (!(i instanceof BufferedImage)) { return null; }
+		final BufferedImage b = (BufferedImage) i;
+		if (!Integer.valueOf(tileWidth).equals(b.getProperty(AssetPacker.FRAME_WIDTH)))   { return null; }
+		if (!Integer.valueOf(tileHeight).equals(b.getProperty(AssetPacker.FRAME_HEIGHT))) { return null; }
+		final Object ret = b.getProperty(key);
+		if (ret == null || tile < 1 || tile > Array.getLength(ret)) { return null; }
+		return ret;
+	}
+
 	/**
 	* A convenience method for loading image files
 	* from this application's JAR. Blocks until the
-	* image is fully loaded.
+	* image is fully loaded. If the build has packed
+	* the image with the AssetPacker, the packed form
+	* is loaded instead, without decoding.
 	*
 	* @param filename the filename of the image resource
 	**/
 	public static Image loadImage(String filename) {
+		final Image packed = AssetPacker.load(filename);
+		if (packed != null) { return packed; }
 		Toolkit toolkit = Toolkit.getDefaultToolkit();
 		ClassLoader loader = ImageTool.class.getClassLoader();
 		Image ret = toolkit.getImage(loader.getResource(filename));
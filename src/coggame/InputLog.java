@@ -0,0 +1,177 @@
+package coggame;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+* An InputLog is a compact binary recording of every
+* input event delivered to a GameApplication and the
+* time elapsed before every tick, from which a session
+* can be replayed exactly.
+*
+* The file begins with a header holding the random seed
+* and buffer size. It is followed by a stream of records,
+* each a type byte and variable-length integer fields.
+* Event records hold the event's arguments. Frame records
+* hold the nanoseconds elapsed since the previous tick and,
+* optionally, a checksum of the frame painted afterwards.
+*
+* @author John Earnest
+**/
+class InputLog {
+
+	static final int END           = -1;
+	static final int FRAME         = 0;
+	static final int KEY_PRESSED   = 1;
+	static final int KEY_RELEASED  = 2;
+	static final int KEY_TYPED     = 3;
+	static final int MOUSE_MOVED   = 4;
+	static final int MOUSE_CLICKED = 5;
+
+	private static final int MAGIC = 0x4347524C;	// "CGRL"
+	private static final int VERSION = 1;
+
+	private final DataOutputStream out;
+	private final DataInputStream in;
+	private final long seed;
+	private final int width;
+	private final int height;
+	private final boolean checksums;
+
+	private int a;
+	private int b;
+	private int c;
+	private long nanos;
+	private long checksum;
+
+	private InputLog(DataOutputStream out, DataInputStream in, long seed, int width, int height, boolean checksums) {
+		this.out = out;
+		this.in = in;
+		this.seed = seed;
+		this.width = width;
+		this.height = height;
+		this.checksums = checksums;
+	}
+
+	/**
+	* Create a new log file for writing.
+	**/
+	static InputLog create(String filename, long seed, int width, int height, boolean checksums) throws IOException {
+		final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename)));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(seed);
+		out.writeInt(width);
+		out.writeInt(height);
+		out.writeBoolean(checksums);
+		return new InputLog(out, null, seed, width, height, checksums);
+	}
+
+	/**
+	* Open an existing log file for reading.
+	**/
+	static InputLog open(String filename) throws IOException {
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename)));
+		if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+			in.close();
+			throw new IOException("Not an input log: " + filename);
+		}
+		final long seed = in.readLong();
+		final int width = in.readInt();
+		final int height = in.readInt();
+		final boolean checksums = in.readBoolean();
+		return new InputLog(null, in, seed, width, height, checksums);
+	}
+
+	long getSeed()				{ return seed; }
+	int getWidth()				{ return width; }
+	int getHeight()				{ return height; }
+	boolean hasChecksums()		{ return checksums; }
+
+	synchronized void event(int type, int a, int b, int c) throws IOException {
+		out.writeByte(type);
+		if (type == KEY_PRESSED || type == KEY_RELEASED || type == KEY_TYPED) {
+			writeVarint(a);
+			return;
+		}
+		writeVarint(zigzag(a));
+		writeVarint(zigzag(b));
+		if (type == MOUSE_CLICKED) { writeVarint(c); }
+	}
+
+	synchronized void frame(long nanos, long checksum) throws IOException {
+		out.writeByte(FRAME);
+		writeVarint(nanos);
+		if (checksums) { out.writeLong(checksum); }
+	}
+
+	synchronized void close() {
+		try {
+			if (out != null) { out.close(); }
+			if (in != null) { in.close(); }
+		}
+		catch(IOException ioe) { ioe.printStackTrace(); }
+	}
+
+	/**
+	* Read the next record, returning its type, or END.
+	* The record's fields are then available from the
+	* accessors below.
+	**/
+	int next() throws IOException {
+		final int type;
+		try { type = in.readByte(); }
+		catch(EOFException eofe) { return END; }
+
+		if (type == FRAME) {
+			nanos = readVarint();
+			if (checksums) { checksum = in.readLong(); }
+		}
+		else if (type == KEY_PRESSED || type == KEY_RELEASED || type == KEY_TYPED) {
+			a = (int) readVarint();
+		}
+		else if (type == MOUSE_MOVED || type == MOUSE_CLICKED) {
+			a = unzigzag((int) readVarint());
+			b = unzigzag((int) readVarint());
+			if (type == MOUSE_CLICKED) { c = (int) readVarint(); }
+		}
+		else {
+			throw new IOException("Corrupt input log record: " + type);
+		}
+		return type;
+	}
+
+	int a()					{ return a; }
+	int b()					{ return b; }
+	int c()					{ return c; }
+	long nanos()			{ return nanos; }
+	long checksum()			{ return checksum; }
+
+	private static int zigzag(int n) { return (n << 1) ^ (n >> 31); }
+
+	private static int unzigzag(int n) { return (n >>> 1) ^ -(n & 1); }
+
+	private void writeVarint(long n) throws IOException {
+		while((n & ~0x7FL) != 0) {
+			out.writeByte((int)((n & 0x7F) | 0x80));
+			n >>>= 7;
+		}
+		out.writeByte((int) n);
+	}
+
+	private long readVarint() throws IOException {
+		long ret = 0;
+		for(int shift = 0; shift < 64; shift += 7) {
+			final byte x = in.readByte();
+			ret |= (long)(x & 0x7F) << shift;
+			if (x >= 0) { return ret; }
+		}
+		throw new IOException("Malformed varint!");
+	}
+}
@@ -71,4 +71,71 @@ public abstract class Layer {
 	* @param g the target Graphics surface.
 	**/
 	public abstract void paint(Graphics g);
+
+	/**
+	* Draw this Layer shifted by a camera offset, as seen
+	* through a Viewport. By default the Graphics surface is
+	* translated; Layers which fill a fixed region of the
+	* Viewport instead shift what they draw within it.
+	*
+	* @param g the target Graphics surface
+	* @param dx the horizontal offset in pixels
+	* @param dy the vertical offset in pixels
+	**/
+	void paint(Graphics g, int dx, int dy) {
+		g.translate(dx, dy);
+		paint(g);
+		g.translate(-dx, -dy);
+	}
+
+	/**
+	* Returns true if this Layer is drawn exactly as its
+	* built-in class draws it, so that capture() and
+	* paintCaptured() may stand in for paint(). Built-in
+	* Layers return true for their own class only, since
+	* a subclass may draw differently; by default it is false.
+	**/
+	boolean paintsPlain() { return false; }
+
+	/**
+	* Copy the state paint() depends on, so that this Layer
+	* can be drawn by paintCaptured() on another thread while
+	* it goes on changing. The state previously returned to
+	* the same caller is passed back so its storage can be
+	* reused. Returns null if this kind of Layer cannot be
+	* captured, which is the default.
+	*
+	* @param previous the state from the last capture, or null
+	**/
+	Object capture(Object previous) { return null; }
+
+	/**
+	* Draw this Layer as it was when a state was captured.
+	*
+	* @param g the destination Graphics surface
+	* @param state a state returned by capture()
+	**/
+	void paintCaptured(Graphics g, Object state) {}
+
+	/**
+	* Draw this Layer as it was when a state was captured,
+	* shifted by a camera offset as in paint(g, dx, dy).
+	*
+	* @param g the destination Graphics surface
+	* @param state a state returned by capture()
+	* @param dx the horizontal offset in pixels
+	* @param dy the vertical offset in pixels
+	**/
+	void paintCaptured(Graphics g, Object state, int dx, int dy) {
+		g.translate(dx, dy);
+		paintCaptured(g, state);
+		g.translate(-dx, -dy);
+	}
+
+	/**
+	* Called when a captured state will no longer be used.
+	*
+	* @param state a state returned by capture()
+	**/
+	void release(Object state) {}
 }
\ No newline at end of file
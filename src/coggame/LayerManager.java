@@ -11,11 +11,23 @@ import java.util.Iterator;
 * and scrolling them together in a manner
 * appropriate for parallax effects.
 *
+* A LayerManager may also be given Viewports, each of
+* which draws every layer through its own region of the
+* screen from its own camera position, for split-screen
+* play or an overview alongside the main view. Layers are
+* not moved to do this; each is drawn shifted by its
+* viewport's camera and clipped to the viewport, and
+* TiledLayers only draw the cells which fall inside it.
+* Everything else a layer holds, such as loaded chunks
+* and prepared textures, is shared by every viewport.
+*
 * @author John Earnest
 **/
 public class LayerManager implements Iterable<Layer> {
 	
 	private List<LayerShift> layers = new ArrayList<LayerShift>();
+	private AllocationMonitor monitor;
+	private final List<Viewport> viewports = new ArrayList<Viewport>();
 
 	/**
 	* Add a new layer to the stack.
@@ -90,18 +102,119 @@ public class LayerManager implements Iterable<Layer> {
 		}
 	}
 
+	/**
+	* Add a Viewport. Viewports are drawn in the order
+	* they are added, so later ones appear on top.
+	*
+	* @param view the new Viewport
+	**/
+	public void addViewport(Viewport view) {
+		viewports.add(view);
+	}
+
+	/**
+	* Remove a Viewport.
+	*
+	* @param view the Viewport to remove
+	**/
+	public void removeViewport(Viewport view) {
+		viewports.remove(view);
+	}
+
+	/**
+	* Returns a reference to a given Viewport.
+	*
+	* @param index the index (counting from 0) of the Viewport
+	**/
+	public Viewport getViewport(int index) {
+		return viewports.get(index);
+	}
+
+	/**
+	* Returns the number of Viewports.
+	**/
+	public int getViewportCount() {
+		return viewports.size();
+	}
+
+	/**
+	* Returns the horizontal scroll multiplier of a layer.
+	**/
+	double getScrollX(int index) {
+		return layers.get(index).sx;
+	}
+
+	/**
+	* Returns the vertical scroll multiplier of a layer.
+	**/
+	double getScrollY(int index) {
+		return layers.get(index).sy;
+	}
+
 	/**
 	* Draw all layers, from the lowest-indexed
-	* to the highest-indexed.
+	* to the highest-indexed, through each Viewport
+	* in turn if there are any.
 	*
 	* @param g the destination Graphics surface
 	**/
 	public void paint(Graphics g) {
+		if (viewports.size() > 0) {
+			for(int z = 0; z < viewports.size(); z++) {
+				paint(g, viewports.get(z));
+			}
+			return;
+		}
+		final AllocationMonitor monitor = this.monitor;
+		if (monitor != null && monitor.isEnabled()) {
+			for(int z = 0; z < layers.size(); z++) {
+				final long mark = monitor.mark();
+				layers.get(z).layer.paint(g);
+				monitor.addLayer(z, mark);
+			}
+			return;
+		}
 		for(LayerShift shift : layers) {
 			shift.layer.paint(g);
 		}
 	}
 
+	/**
+	* Draw all layers through a single Viewport, which
+	* need not have been added to this LayerManager.
+	*
+	* @param g the destination Graphics surface
+	* @param view the Viewport to draw through
+	**/
+	public void paint(Graphics g, Viewport view) {
+		final AllocationMonitor monitor = (this.monitor != null && this.monitor.isEnabled()) ? this.monitor : null;
+		final Graphics vg = view.open(g);
+		for(int z = 0; z < layers.size(); z++) {
+			final LayerShift shift = layers.get(z);
+			final long mark = (monitor != null) ? monitor.mark() : 0;
+			shift.layer.paint(vg, view.offsetX(shift.sx), view.offsetY(shift.sy));
+			if (monitor != null) { monitor.addLayer(z, mark); }
+		}
+		vg.dispose();
+	}
+
+	/**
+	* Count the bytes allocated while drawing each layer,
+	* whether by paint() or through a SceneSnapshot.
+	* GameApplication.setScene() does this automatically.
+	*
+	* @param monitor the AllocationMonitor to count with, or null
+	**/
+	public void setAllocationMonitor(AllocationMonitor monitor) {
+		this.monitor = monitor;
+	}
+
+	/**
+	* Returns the AllocationMonitor counting this
+	* LayerManager's layers, or null.
+	**/
+	public AllocationMonitor getAllocationMonitor() { return monitor; }
+
 	/**
 	* Scroll all layers. The scrolling amounts
 	* given here are multiplied by the scaling
@@ -0,0 +1,100 @@
+package coggame;
+
+import java.util.Arrays;
+
+/**
+* A LineOfSight answers, for a group of agents standing
+* on a TiledLayer, which of them can see one another.
+* compute() tests every pair once, using the same rule
+* as TiledLayer.canSee(), and keeps the answers in a
+* bitset which is reused from one tick to the next:
+* <pre>
+* sight.compute(map, cols, rows, agentCount, 12);
+* if (sight.canSee(guard, player)) { ... }
+* </pre>
+*
+* Pairs further apart than the given range are skipped
+* entirely, and pairs whose bounding box holds no solid
+* cell are accepted without tracing a line, so open
+* areas cost little more than the distance checks.
+*
+* @author John Earnest
+**/
+public class LineOfSight {
+
+	private long[] visible = new long[0];
+	private int count = 0;
+	private int words = 0;
+
+	/**
+	* Determine which of a group of agents can see each
+	* other. Every agent can see itself.
+	*
+	* @param layer the TiledLayer whose solid cells block sight
+	* @param cols the column of each agent
+	* @param rows the row of each agent
+	* @param count the number of agents
+	* @param range the greatest distance, in cells, at which agents can see, or 0 for no limit
+	**/
+	public void compute(TiledLayer layer, int[] cols, int[] rows, int count, int range) {
+		this.count = count;
+		words = (count + 63) >>> 6;
+		if (visible.length < count * words) { visible = new long[count * words]; }
+		else { Arrays.fill(visible, 0, count * words, 0); }
+
+		final long limit = (long) range * range;
+		for(int i = 0; i < count; i++) {
+			set(i, i);
+			final int ci = cols[i];
+			final int ri = rows[i];
+			for(int j = i + 1; j < count; j++) {
+				final int cj = cols[j];
+				final int rj = rows[j];
+				final long dx = cj - ci;
+				final long dy = rj - ri;
+				if (range > 0 && dx * dx + dy * dy > limit) { continue; }
+				final int c0 = Math.min(ci, cj);
+				final int r0 = Math.min(ri, rj);
+				if (layer.isAnySolid(c0, r0, Math.max(ci, cj) - c0 + 1, Math.max(ri, rj) - r0 + 1) &&
+					!layer.canSee(ci, ri, cj, rj)) { continue; }
+				set(i, j);
+				set(j, i);
+			}
+		}
+	}
+
+	private void set(int a, int b) {
+		visible[a * words + (b >>> 6)] |= 1L << b;
+	}
+
+	/**
+	* Returns the number of agents in the last call to compute().
+	**/
+	public int getCount() { return count; }
+
+	/**
+	* Returns true if two agents could see each other
+	* in the last call to compute().
+	*
+	* @param a the index of the first agent
+	* @param b the index of the second agent
+	**/
+	public boolean canSee(int a, int b) {
+		if (a < 0 || b < 0 || a >= count || b >= count) {
+			throw new IndexOutOfBoundsException("Invalid agent: " + ((a < 0 || a >= count) ? a : b));
+		}
+		return (visible[a * words + (b >>> 6)] & (1L << b)) != 0;
+	}
+
+	/**
+	* Returns the number of other agents an agent could
+	* see in the last call to compute().
+	*
+	* @param a the index of the agent
+	**/
+	public int getVisibleCount(int a) {
+		int ret = -1;
+		for(int w = 0; w < words; w++) { ret += Long.bitCount(visible[a * words + w]); }
+		return ret;
+	}
+}
@@ -0,0 +1,140 @@
+package coggame;
+
+/**
+* A ParticleEmitter describes how a ParticleLayer
+* should spawn new particles: where they appear,
+* how fast and in which direction they travel,
+* how long they live and which frames of the
+* particle tile sheet they animate through.
+*
+* Emitters are plain configuration objects and
+* can be shared between layers or reused for
+* one-shot bursts via ParticleLayer.burst().
+*
+* @author John Earnest
+**/
+public class ParticleEmitter {
+
+	double x = 0;
+	double y = 0;
+	double rate = 0;
+	double minAngle = 0;
+	double maxAngle = Math.PI * 2;
+	double minSpeed = 0;
+	double maxSpeed = 0;
+	double minLife = 1;
+	double maxLife = 1;
+	int firstFrame = 1;
+	int frameCount = 1;
+	double frameRate = 0;
+	double accumulator = 0;
+	private boolean active = true;
+
+	/**
+	* Returns the x-position of the emitter,
+	* relative to the upper-left corner of its layer.
+	**/
+	public int getX() { return (int) x; }
+
+	/**
+	* Returns the y-position of the emitter,
+	* relative to the upper-left corner of its layer.
+	**/
+	public int getY() { return (int) y; }
+
+	/**
+	* Set the position of the emitter, relative
+	* to the upper-left corner of its layer.
+	*
+	* @param px the x-position in pixels
+	* @param py the y-position in pixels
+	**/
+	public void setPosition(double px, double py) { x = px; y = py; }
+
+	/**
+	* Translate the emitter.
+	*
+	* @param dx the x-displacement in pixels
+	* @param dy the y-displacement in pixels
+	**/
+	public void move(double dx, double dy) { x += dx; y += dy; }
+
+	/**
+	* Returns true if the emitter is continuously spawning particles.
+	**/
+	public boolean isActive() { return active; }
+
+	/**
+	* Start or stop continuous emission.
+	* Particles already spawned are unaffected.
+	*
+	* @param value true if the emitter should spawn particles
+	**/
+	public void setActive(boolean value) {
+		active = value;
+		accumulator = 0;
+	}
+
+	/**
+	* Set the number of particles spawned per second
+	* while the emitter is active.
+	*
+	* @param rate particles per second
+	**/
+	public void setRate(double rate) { this.rate = rate; }
+
+	/**
+	* Set the range of directions new particles travel in.
+	* Angles are in radians, with 0 pointing right and
+	* increasing clockwise (downward on screen).
+	*
+	* @param min the smallest launch angle
+	* @param max the largest launch angle
+	**/
+	public void setAngle(double min, double max) {
+		minAngle = min;
+		maxAngle = max;
+	}
+
+	/**
+	* Set the range of initial speeds for new particles.
+	*
+	* @param min the slowest launch speed in pixels per second
+	* @param max the fastest launch speed in pixels per second
+	**/
+	public void setSpeed(double min, double max) {
+		minSpeed = min;
+		maxSpeed = max;
+	}
+
+	/**
+	* Set the range of lifetimes for new particles.
+	*
+	* @param min the shortest lifetime in seconds
+	* @param max the longest lifetime in seconds
+	**/
+	public void setLife(double min, double max) {
+		minLife = min;
+		maxLife = max;
+	}
+
+	/**
+	* Choose the frames new particles animate through.
+	* If frameRate is 0 the frames are spread evenly over
+	* the lifetime of each particle, so the last frame is
+	* shown just before it expires. Otherwise the frames
+	* loop at the given rate.
+	*
+	* @param firstFrame the 1-indexed first frame of the animation
+	* @param frameCount the number of consecutive frames
+	* @param frameRate frames per second, or 0 to stretch over the lifetime
+	**/
+	public void setFrames(int firstFrame, int frameCount, double frameRate) {
+		if (firstFrame < 1 || frameCount < 1) {
+			throw new IllegalArgumentException("Invalid frame range!");
+		}
+		this.firstFrame = firstFrame;
+		this.frameCount = frameCount;
+		this.frameRate = frameRate;
+	}
+}
@@ -0,0 +1,359 @@
+package coggame;
+
+import java.awt.Graphics;
+import java.awt.Image;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+* A ParticleLayer is a Layer that simulates and draws
+* a large number of short-lived animated particles,
+* such as sparks, smoke or debris.
+*
+* Particle state is kept in preallocated parallel
+* arrays rather than as individual objects, so spawning,
+* updating and expiring particles does not allocate
+* once the layer has been constructed. Frames are taken
+* from a tile sheet in the same manner as a Sprite.
+*
+* @author John Earnest
+**/
+public class ParticleLayer extends Layer {
+
+	/**
+	* The number of live particles above which
+	* tick() splits its work across all available cores.
+	**/
+	public static final int PARALLEL_THRESHOLD = 8192;
+
+	private final Image frames;
+	private final int originX;
+	private final int originY;
+	private final int frameWidth;
+	private final int frameHeight;
+	private final int sheetWidth;
+	private final int capacity;
+
+	private final double[] px;
+	private final double[] py;
+	private final double[] vx;
+	private final double[] vy;
+	private final double[] age;
+	private final double[] life;
+	private final double[] rate;
+	private final int[] first;
+	private final int[] count;
+
+	private final List<ParticleEmitter> emitters = new ArrayList<ParticleEmitter>();
+	private final Slice[] slices;
+	private final Integrator integrator = new Integrator();
+	private int size = 0;
+	private double gravityX = 0;
+	private double gravityY = 0;
+	private double step = 0;
+	private long seed = 0x9E3779B97F4A7C15L;
+
+	/**
+	* Create a new ParticleLayer.
+	*
+	* @param image the tilesheet used for particle frames
+	* @param frameWidth the width of a particle frame in pixels
+	* @param frameHeight the height of a particle frame in pixels
+	* @param capacity the maximum number of live particles
+	**/
+	public ParticleLayer(Image image, int frameWidth, int frameHeight, int capacity) {
+		frames = AtlasRegion.sheet(image);
+		originX = AtlasRegion.originX(image);
+		originY = AtlasRegion.originY(image);
+		this.frameWidth = frameWidth;
+		this.frameHeight = frameHeight;
+		this.capacity = capacity;
+		sheetWidth = image.getWidth(null) / frameWidth;
+
+		px    = new double[capacity];
+		py    = new double[capacity];
+		vx    = new double[capacity];
+		vy    = new double[capacity];
+		age   = new double[capacity];
+		life  = new double[capacity];
+		rate  = new double[capacity];
+		first = new int[capacity];
+		count = new int[capacity];
+
+		slices = new Slice[Math.max(1, ForkJoinPool.getCommonPoolParallelism())];
+		for(int z = 0; z < slices.length; z++) {
+			slices[z] = new Slice();
+		}
+	}
+
+	/**
+	* Returns the number of live particles.
+	**/
+	public int getCount() { return size; }
+
+	/**
+	* Returns the maximum number of live particles.
+	**/
+	public int getCapacity() { return capacity; }
+
+	/**
+	* Set the constant acceleration applied to every particle.
+	*
+	* @param gx horizontal acceleration in pixels per second squared
+	* @param gy vertical acceleration in pixels per second squared
+	**/
+	public void setGravity(double gx, double gy) {
+		gravityX = gx;
+		gravityY = gy;
+	}
+
+	/**
+	* Seed the random number generator used to
+	* pick launch angles, speeds and lifetimes.
+	*
+	* @param seed the new seed
+	**/
+	public void setSeed(long seed) {
+		this.seed = (seed == 0) ? 0x9E3779B97F4A7C15L : seed;
+	}
+
+	/**
+	* Attach an emitter to this layer. Active emitters
+	* spawn particles every time tick() is called.
+	*
+	* @param emitter the emitter to attach
+	**/
+	public void addEmitter(ParticleEmitter emitter) {
+		emitters.add(emitter);
+	}
+
+	/**
+	* Detach an emitter from this layer.
+	* Particles it already spawned are unaffected.
+	*
+	* @param emitter the emitter to detach
+	**/
+	public void removeEmitter(ParticleEmitter emitter) {
+		emitters.remove(emitter);
+	}
+
+	/**
+	* Remove every live particle.
+	**/
+	public void clear() { size = 0; }
+
+	/**
+	* Spawn a single particle. Returns false if
+	* the layer is already at capacity.
+	*
+	* @param x the x-position relative to the layer
+	* @param y the y-position relative to the layer
+	* @param dx the horizontal velocity in pixels per second
+	* @param dy the vertical velocity in pixels per second
+	* @param lifetime the lifetime in seconds
+	* @param firstFrame the 1-indexed first frame of the animation
+	* @param frameCount the number of consecutive frames
+	* @param frameRate frames per second, or 0 to stretch over the lifetime
+	**/
+	public boolean emit(double x, double y, double dx, double dy, double lifetime,
+						int firstFrame, int frameCount, double frameRate) {
+		if (size >= capacity || lifetime <= 0) { return false; }
+		final int i = size++;
+		px[i]    = x;
+		py[i]    = y;
+		vx[i]    = dx;
+		vy[i]    = dy;
+		age[i]   = 0;
+		life[i]  = lifetime;
+		rate[i]  = frameRate;
+		first[i] = firstFrame;
+		count[i] = frameCount;
+		return true;
+	}
+
+	/**
+	* Immediately spawn a number of particles from
+	* an emitter, whether or not it is attached to
+	* this layer or active. Useful for explosions.
+	* Returns the number of particles actually spawned.
+	*
+	* @param emitter the emitter describing the particles
+	* @param particles the number of particles to spawn
+	**/
+	public int burst(ParticleEmitter emitter, int particles) {
+		int spawned = 0;
+		while(spawned < particles && spawn(emitter)) {
+			spawned++;
+		}
+		return spawned;
+	}
+
+	/**
+	* Advance the simulation: spawn particles from active
+	* emitters, apply gravity and velocity and expire
+	* particles which have outlived their lifetimes.
+	*
+	* @param time the number of seconds since the last tick() call
+	**/
+	public void tick(double time) {
+		// integrate live particles
+		step = time;
+		if (size >= PARALLEL_THRESHOLD && slices.length > 1) {
+			final int chunk = (size + slices.length - 1) / slices.length;
+			for(int z = 0; z < slices.length; z++) {
+				slices[z].reinitialize();
+				slices[z].from = Math.min(size, z * chunk);
+				slices[z].to   = Math.min(size, (z + 1) * chunk);
+			}
+			integrator.reinitialize();
+			ForkJoinPool.commonPool().invoke(integrator);
+		}
+		else {
+			integrate(0, size);
+		}
+
+		// expire dead particles by swapping
+		// the last live particle into their slot
+		for(int i = 0; i < size;) {
+			if (age[i] < life[i]) { i++; continue; }
+			final int j = --size;
+			px[i]    = px[j];
+			py[i]    = py[j];
+			vx[i]    = vx[j];
+			vy[i]    = vy[j];
+			age[i]   = age[j];
+			life[i]  = life[j];
+			rate[i]  = rate[j];
+			first[i] = first[j];
+			count[i] = count[j];
+		}
+
+		// spawn new particles
+		for(int z = 0; z < emitters.size(); z++) {
+			final ParticleEmitter e = emitters.get(z);
+			if (!e.isActive() || e.rate <= 0) { continue; }
+			e.accumulator += e.rate * time;
+			while(e.accumulator >= 1) {
+				e.accumulator -= 1;
+				if (!spawn(e)) { e.accumulator = 0; break; }
+			}
+		}
+	}
+
+	/**
+	* Draw all live particles.
+	*
+	* @param g the destination Graphics surface
+	**/
+	public void paint(Graphics g) {
+		if (!isVisible()) { return; }
+		final int ox = getX();
+		final int oy = getY();
+		for(int i = 0; i < size; i++) {
+			final int frame = first[i] + frameOffset(i);
+			final int tx = originX + ((frame - 1) % sheetWidth) * frameWidth;
+			final int ty = originY + ((frame - 1) / sheetWidth) * frameHeight;
+			final int dx = ox + (int) px[i] - frameWidth / 2;
+			final int dy = oy + (int) py[i] - frameHeight / 2;
+			g.drawImage(frames,
+						dx, dy, dx + frameWidth, dy + frameHeight,
+						tx, ty, tx + frameWidth, ty + frameHeight, null);
+		}
+	}
+
+	boolean paintsPlain() { return getClass() == ParticleLayer.class; }
+
+	Object capture(Object previous) {
+		final Placement p = (previous == null) ? new Placement() : (Placement) previous;
+		p.size = (isVisible()) ? size : 0;
+		if (p.dx.length < p.size) {
+			p.dx    = new int[capacity];
+			p.dy    = new int[capacity];
+			p.frame = new int[capacity];
+		}
+		final int ox = getX() - frameWidth / 2;
+		final int oy = getY() - frameHeight / 2;
+		for(int i = 0; i < p.size; i++) {
+			p.dx[i] = ox + (int) px[i];
+			p.dy[i] = oy + (int) py[i];
+			p.frame[i] = first[i] + frameOffset(i);
+		}
+		return p;
+	}
+
+	void paintCaptured(Graphics g, Object state) {
+		final Placement p = (Placement) state;
+		for(int i = 0; i < p.size; i++) {
+			final int tx = originX + ((p.frame[i] - 1) % sheetWidth) * frameWidth;
+			final int ty = originY + ((p.frame[i] - 1) / sheetWidth) * frameHeight;
+			g.drawImage(frames,
+						p.dx[i], p.dy[i], p.dx[i] + frameWidth, p.dy[i] + frameHeight,
+						tx, ty, tx + frameWidth, ty + frameHeight, null);
+		}
+	}
+
+	private int frameOffset(int i) {
+		if (count[i] == 1) { return 0; }
+		if (rate[i] > 0) {
+			return (int)(age[i] * rate[i]) % count[i];
+		}
+		return Math.min(count[i] - 1, (int)((age[i] / life[i]) * count[i]));
+	}
+
+	private void integrate(int from, int to) {
+		final double t = step;
+		final double gx = gravityX * t;
+		final double gy = gravityY * t;
+		for(int i = from; i < to; i++) {
+			vx[i] += gx;
+			vy[i] += gy;
+			px[i] += vx[i] * t;
+			py[i] += vy[i] * t;
+			age[i] += t;
+		}
+	}
+
+	private boolean spawn(ParticleEmitter e) {
+		final double angle = e.minAngle + random() * (e.maxAngle - e.minAngle);
+		final double speed = e.minSpeed + random() * (e.maxSpeed - e.minSpeed);
+		final double lifetime = e.minLife + random() * (e.maxLife - e.minLife);
+		return emit(e.x, e.y,
+					Math.cos(angle) * speed, Math.sin(angle) * speed, lifetime,
+					e.firstFrame, e.frameCount, e.frameRate);
+	}
+
+	private double random() {
+		// xorshift64*, so that spawning does not
+		// contend on (or allocate from) a shared Random.
+		seed ^= seed >>> 12;
+		seed ^= seed << 25;
+		seed ^= seed >>> 27;
+		return ((seed * 0x2545F4914F6CDD1DL) >>> 11) * 0x1.0p-53;
+	}
+
+	private static class Placement {
+		private int size;
+		private int[] dx = new int[0];
+		private int[] dy = new int[0];
+		private int[] frame = new int[0];
+	}
+
+	@SuppressWarnings("serial")
+	private class Integrator extends RecursiveAction {
+		protected void compute() {
+			invokeAll(slices);
+		}
+	}
+
+	@SuppressWarnings("serial")
+	private class Slice extends RecursiveAction {
+		private int from;
+		private int to;
+
+		protected void compute() {
+			integrate(from, to);
+		}
+	}
+}
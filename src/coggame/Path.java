@@ -0,0 +1,186 @@
+package coggame;
+
+import java.util.Arrays;
+
+/**
+* A Path is a sequence of waypoints through the cells
+* of a TiledLayer, packed into a single array of cell
+* coordinates which is reused whenever the Path is filled
+* again. Paths found by TiledLayer.path() hold only the
+* cells where the direction of travel changes, so a
+* straight run of any length costs a single waypoint.
+*
+* smooth() goes further, removing every waypoint which
+* can be skipped by travelling in a straight line, at any
+* angle, without passing over a solid cell. Agents then
+* follow fewer, longer segments instead of staircases.
+*
+* @author John Earnest
+**/
+public class Path {
+
+	// a tile-sized agent, shrunk slightly so that it may pass between walls
+	private static final double EXTENT = 0.499;
+
+	private int[] points = new int[16];
+	private int size = 0;
+
+	/**
+	* Returns the number of waypoints, including
+	* the starting and ending cells.
+	**/
+	public int size() { return size; }
+
+	/**
+	* Returns the column of a waypoint.
+	*
+	* @param index the 0-indexed waypoint
+	**/
+	public int getX(int index) {
+		if (index < 0 || index >= size) { throw new IndexOutOfBoundsException("Invalid waypoint: " + index); }
+		return points[index * 2];
+	}
+
+	/**
+	* Returns the row of a waypoint.
+	*
+	* @param index the 0-indexed waypoint
+	**/
+	public int getY(int index) {
+		if (index < 0 || index >= size) { throw new IndexOutOfBoundsException("Invalid waypoint: " + index); }
+		return points[index * 2 + 1];
+	}
+
+	/**
+	* Remove every waypoint, keeping the storage for reuse.
+	**/
+	public void clear() { size = 0; }
+
+	/**
+	* Add a waypoint to the end of this Path.
+	*
+	* @param x the column of the waypoint
+	* @param y the row of the waypoint
+	**/
+	public void add(int x, int y) {
+		if (size * 2 == points.length) { points = Arrays.copyOf(points, points.length * 2); }
+		points[size * 2] = x;
+		points[size * 2 + 1] = y;
+		size++;
+	}
+
+	/**
+	* Add a waypoint reached by a single step, merging
+	* it with the last waypoint if the previous step was
+	* in the same direction.
+	**/
+	void step(int x, int y) {
+		if (size >= 2) {
+			final int px = points[size * 2 - 2];
+			final int py = points[size * 2 - 1];
+			if (Integer.signum(x - px) == Integer.signum(px - points[size * 2 - 4]) &&
+				Integer.signum(y - py) == Integer.signum(py - points[size * 2 - 3])) {
+				points[size * 2 - 2] = x;
+				points[size * 2 - 1] = y;
+				return;
+			}
+		}
+		add(x, y);
+	}
+
+	/**
+	* Returns the length of this Path in cells,
+	* measured along straight lines between waypoints.
+	**/
+	public double getDistance() {
+		double ret = 0;
+		for(int z = 1; z < size; z++) {
+			ret += Math.hypot(points[z * 2] - points[z * 2 - 2], points[z * 2 + 1] - points[z * 2 - 1]);
+		}
+		return ret;
+	}
+
+	/**
+	* Remove waypoints which an agent the size of a tile
+	* could skip by travelling directly, without passing over
+	* any solid cell of a layer. Travelling between waypoints
+	* is then no longer restricted to the eight directions.
+	* Segments which cannot be skipped are kept as they are,
+	* including diagonal steps which cut between two walls.
+	*
+	* @param layer the TiledLayer this Path was found in
+	**/
+	public void smooth(TiledLayer layer) {
+		if (size < 3) { return; }
+		int kept = 1;
+		int anchor = 0;
+		for(int z = 2; z < size; z++) {
+			if (clear(layer, points[anchor * 2], points[anchor * 2 + 1], points[z * 2], points[z * 2 + 1])) { continue; }
+			// the previous waypoint is as far as we can go directly
+			points[kept * 2] = points[z * 2 - 2];
+			points[kept * 2 + 1] = points[z * 2 - 1];
+			anchor = kept++;
+		}
+		points[kept * 2] = points[size * 2 - 2];
+		points[kept * 2 + 1] = points[size * 2 - 1];
+		size = kept + 1;
+	}
+
+	/**
+	* Returns true if a tile-sized square can move from the
+	* center of one cell to the center of another without
+	* overlapping a solid cell, by tracing the lines swept by
+	* its corners. The square is slightly smaller than a cell,
+	* so no cell can lie between those lines untouched.
+	**/
+	private static boolean clear(TiledLayer layer, int x0, int y0, int x1, int y1) {
+		for(int c = 0; c < 4; c++) {
+			final double ox = ((c & 1) == 0) ? -EXTENT : EXTENT;
+			final double oy = ((c & 2) == 0) ? -EXTENT : EXTENT;
+			if (!clear(layer, x0 + 0.5 + ox, y0 + 0.5 + oy, x1 + 0.5 + ox, y1 + 0.5 + oy)) { return false; }
+		}
+		return true;
+	}
+
+	/**
+	* Returns true if a line, in cell units, touches no
+	* solid cell. A line through a corner touches all four
+	* cells around it.
+	**/
+	private static boolean clear(TiledLayer layer, double x0, double y0, double x1, double y1) {
+		final double dx = x1 - x0;
+		final double dy = y1 - y0;
+		int x = (int) Math.floor(x0);
+		int y = (int) Math.floor(y0);
+		final int xEnd = (int) Math.floor(x1);
+		final int yEnd = (int) Math.floor(y1);
+		if (layer.isSolid(x, y)) { return false; }
+
+		final int sx = (dx > 0) ? 1 : -1;
+		final int sy = (dy > 0) ? 1 : -1;
+		final double stepX = (dx == 0) ? Double.POSITIVE_INFINITY : Math.abs(1 / dx);
+		final double stepY = (dy == 0) ? Double.POSITIVE_INFINITY : Math.abs(1 / dy);
+		double nextX = (dx == 0) ? Double.POSITIVE_INFINITY : ((dx > 0) ? (x + 1 - x0) : (x0 - x)) * stepX;
+		double nextY = (dy == 0) ? Double.POSITIVE_INFINITY : ((dy > 0) ? (y + 1 - y0) : (y0 - y)) * stepY;
+		while(x != xEnd || y != yEnd) {
+			if (Math.abs(nextX - nextY) < 1e-9) {
+				if (layer.isSolid(x + sx, y) || layer.isSolid(x, y + sy)) { return false; }
+				x += sx;
+				y += sy;
+				nextX += stepX;
+				nextY += stepY;
+			}
+			else if (nextX < nextY) {
+				x += sx;
+				nextX += stepX;
+			}
+			else {
+				y += sy;
+				nextY += stepY;
+			}
+			if (layer.isSolid(x, y)) { return false; }
+			if (Math.min(nextX, nextY) > 1 + 1e-9 && (x != xEnd || y != yEnd)) { return false; }
+		}
+		return true;
+	}
+}
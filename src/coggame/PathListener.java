@@ -0,0 +1,20 @@
+package coggame;
+
+/**
+* A PathListener is told when a path requested
+* from a PathService has been found. It is always
+* called from PathService.update(), on the game thread.
+*
+* @author John Earnest
+**/
+public interface PathListener {
+
+	/**
+	* Called when a requested search has finished.
+	* Cancelled requests are never reported.
+	*
+	* @param request the request which finished
+	* @param path the path found, or null if there is none
+	**/
+	public void pathFound(PathRequest request, Path path);
+}
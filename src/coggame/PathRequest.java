@@ -0,0 +1,76 @@
+package coggame;
+
+/**
+* A PathRequest is a search submitted to a PathService.
+* It can be polled each tick with isDone() and getPath(),
+* instead of or as well as giving the request a PathListener,
+* and cancelled if the agent no longer needs it.
+*
+* @author John Earnest
+**/
+public class PathRequest {
+
+	final int xStart;
+	final int yStart;
+	final int xGoal;
+	final int yGoal;
+	final boolean useDiagonal;
+	final int priority;
+	final long sequence;
+	final PathListener listener;
+	PathSearch search;
+	volatile boolean cancelled = false;
+	private boolean done = false;
+	private Path path;
+
+	PathRequest(int xStart, int yStart, int xGoal, int yGoal, boolean useDiagonal,
+				int priority, long sequence, PathListener listener) {
+		this.xStart = xStart;
+		this.yStart = yStart;
+		this.xGoal = xGoal;
+		this.yGoal = yGoal;
+		this.useDiagonal = useDiagonal;
+		this.priority = priority;
+		this.sequence = sequence;
+		this.listener = listener;
+	}
+
+	/**
+	* Returns the priority this request was made with.
+	**/
+	public int getPriority() { return priority; }
+
+	/**
+	* Stop searching for this path, if the search has not
+	* already finished. A cancelled request is never reported
+	* to its listener, and never becomes done.
+	**/
+	public void cancel() { cancelled = true; }
+
+	/**
+	* Returns true if this request has been cancelled.
+	**/
+	public boolean isCancelled() { return cancelled; }
+
+	/**
+	* Returns true once the search has finished and
+	* been delivered by PathService.update().
+	**/
+	public boolean isDone() { return done; }
+
+	/**
+	* Returns the path found, or null if there is
+	* none or the search has not finished.
+	**/
+	public Path getPath() { return path; }
+
+	/**
+	* Record the result, on the game thread.
+	**/
+	void deliver(Path path) {
+		this.path = path;
+		done = true;
+		search = null;
+		if (listener != null) { listener.pathFound(this, path); }
+	}
+}
@@ -0,0 +1,254 @@
+package coggame;
+
+import java.util.Arrays;
+
+/**
+* A PathSearch is the breadth-first search behind
+* TiledLayer.path(), held as an object so that it can be
+* advanced a little at a time. Passable cells are given
+* as a row-major bitset, 64 cells to a word with each
+* row starting on a new word, which the search only reads.
+*
+* A wavefront spreads outward from the goal one step at a
+* time, a word of cells at once, numbering each cell by
+* its distance from the goal (plus one) as it is reached.
+* Once the start is reached the path is read back by
+* stepping to the neighbour with the smallest number,
+* into a Path which keeps only the turns.
+*
+* @author John Earnest
+**/
+final class PathSearch {
+
+	private static final int[][] ORTHOGONAL = { {-1, 0}, {1, 0}, {0, -1}, {0, 1} };
+	private static final int[][] DIAGONAL   = { {-1, 0}, {1, 0}, {0, -1}, {0, 1},
+												{-1,-1}, {1, 1}, {-1, 1}, {1,-1} };
+
+	private final long[] open;
+	private final int columns;
+	private final int rows;
+	private final int words;
+	private final int xStart;
+	private final int yStart;
+	private final int xGoal;
+	private final int yGoal;
+	private final boolean useDiagonal;
+	private final Path path;
+
+	private int[] grid;
+	private long[] visited;
+	private long[] frontier;
+	private long[] next;
+	private int top;
+	private int bottom;
+	private int distance = 2;
+	private boolean started = false;
+	private boolean done = false;
+	private boolean found = false;
+
+	PathSearch(long[] open, int columns, int rows, int xStart, int yStart, int xGoal, int yGoal, boolean useDiagonal, Path path) {
+		this.open = open;
+		this.columns = columns;
+		this.rows = rows;
+		this.words = (columns + 63) >>> 6;
+		this.xStart = xStart;
+		this.yStart = yStart;
+		this.xGoal = xGoal;
+		this.yGoal = yGoal;
+		this.useDiagonal = useDiagonal;
+		this.path = (path != null) ? path : new Path();
+		this.path.clear();
+
+		if (xStart < 0 || xStart >= columns || yStart < 0 || yStart >= rows ||
+			xGoal  < 0 || xGoal  >= columns || yGoal  < 0 || yGoal  >= rows ||
+			(open[yGoal * words + (xGoal >>> 6)] & (1L << xGoal)) == 0) {
+			done = true;
+		}
+	}
+
+	/**
+	* Take over the working arrays of a finished search of a
+	* map the same size, rather than allocating new ones.
+	* Only the cells the old search reached are cleared.
+	**/
+	void recycle(PathSearch old) {
+		if (started || done || old == null || old.grid == null) { return; }
+		if (old.columns != columns || old.rows != rows) { return; }
+		for(int i = 0; i < old.visited.length; i++) {
+			final int base = (i / words) * columns + ((i % words) << 6);
+			for(long bits = old.visited[i]; bits != 0; bits &= bits - 1) {
+				old.grid[base + Long.numberOfTrailingZeros(bits)] = 0;
+			}
+		}
+		Arrays.fill(old.visited, 0);
+		Arrays.fill(old.frontier, 0);
+		grid = old.grid;
+		visited = old.visited;
+		frontier = old.frontier;
+		next = old.next;
+		old.grid = null;
+		old.visited = null;
+		old.frontier = null;
+		old.next = null;
+	}
+
+	/**
+	* Allocate the working arrays, which is left until the
+	* search first runs so that queued searches stay small.
+	**/
+	private void begin() {
+		started = true;
+		if (grid == null) {
+			grid = new int[columns * rows];
+			visited = new long[words * rows];
+			frontier = new long[words * rows];
+			next = new long[words * rows];
+		}
+		frontier[yGoal * words + (xGoal >>> 6)] = 1L << xGoal;
+		visited[yGoal * words + (xGoal >>> 6)] = 1L << xGoal;
+		grid[yGoal * columns + xGoal] = 1;
+		top = yGoal;
+		bottom = yGoal;
+	}
+
+	/**
+	* Build the bitset of passable cells of a layer.
+	**/
+	static long[] open(TiledLayer layer) {
+		final int columns = layer.getColumns();
+		final int rows = layer.getRows();
+		final int words = (columns + 63) >>> 6;
+		final long tail = -1L >>> (63 - ((columns - 1) & 63));
+		final long[] ret = new long[words * rows];
+		for(int y = 0; y < rows; y++) {
+			for(int w = 0; w < words; w++) {
+				ret[y * words + w] = ~layer.solidBits(y, w) & ((w == words - 1) ? tail : -1L);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	* Returns true once the search has finished.
+	**/
+	boolean isDone() { return done; }
+
+	/**
+	* Returns the path found, or null if there is none
+	* or the search has not finished.
+	**/
+	Path getResult() { return (found) ? path : null; }
+
+	/**
+	* Advance the wavefront until the search finishes or
+	* System.nanoTime() passes a deadline, which is checked
+	* after each step. Returns true if the search is done.
+	*
+	* @param deadline the value of System.nanoTime() to stop at
+	**/
+	boolean step(long deadline) {
+		if (!done && !started) { begin(); }
+		while(!done) {
+			if (grid[yStart * columns + xStart] != 0 || top > bottom) {
+				finish();
+				break;
+			}
+			spread();
+			if (System.nanoTime() - deadline > 0) { break; }
+		}
+		return done;
+	}
+
+	/**
+	* Run the search to completion.
+	**/
+	Path run() {
+		step(Long.MAX_VALUE);
+		return getResult();
+	}
+
+	private void spread() {
+		final int r0 = Math.max(top - 1, 0);
+		final int r1 = Math.min(bottom + 1, rows - 1);
+		int nextTop = rows;
+		int nextBottom = -1;
+		for(int y = r0; y <= r1; y++) {
+			for(int w = 0; w < words; w++) {
+				long n = 0;
+				if (y >= top && y <= bottom) { n |= sideways(frontier, y, w); }
+				for(int v = y - 1; v <= y + 1; v += 2) {
+					if (v < top || v > bottom) { continue; }
+					n |= frontier[v * words + w];
+					if (useDiagonal) { n |= sideways(frontier, v, w); }
+				}
+				final int i = y * words + w;
+				n &= open[i] & ~visited[i];
+				next[i] = n;
+				if (n == 0) { continue; }
+				visited[i] |= n;
+				nextTop = Math.min(nextTop, y);
+				nextBottom = Math.max(nextBottom, y);
+				for(long bits = n; bits != 0; bits &= bits - 1) {
+					grid[y * columns + (w << 6) + Long.numberOfTrailingZeros(bits)] = distance;
+				}
+			}
+		}
+		for(int y = top; y <= bottom; y++) {
+			Arrays.fill(frontier, y * words, (y + 1) * words, 0);
+		}
+		final long[] t = frontier;
+		frontier = next;
+		next = t;
+		top = nextTop;
+		bottom = nextBottom;
+		distance++;
+	}
+
+	/**
+	* Returns the cells one column to the left or right
+	* of the set cells in a word of a row-major bitset.
+	**/
+	private long sideways(long[] bits, int row, int word) {
+		final int i = row * words + word;
+		long ret = (bits[i] << 1) | (bits[i] >>> 1);
+		if (word > 0)			{ ret |= bits[i - 1] >>> 63; }
+		if (word < words - 1)	{ ret |= bits[i + 1] << 63; }
+		return ret;
+	}
+
+	private void finish() {
+		done = true;
+
+		// Now every cell reached should contain its distance
+		// from the goal position, and every other cell 0.
+		// The search stops once the start is reached, but no
+		// cell beyond it could lie on a shortest path anyway.
+
+		if (grid[yStart * columns + xStart] != 0) {
+			final int[][] deltas = (useDiagonal) ? DIAGONAL : ORTHOGONAL;
+			int x = xStart;
+			int y = yStart;
+			path.add(x, y);
+			while (x != xGoal || y != yGoal) {
+				int dx = 0;
+				int dy = 0;
+				int dc = Integer.MAX_VALUE;
+				for(int[] delta : deltas) {
+					int nx = x + delta[0];
+					int ny = y + delta[1];
+					if (nx < 0 || nx >= columns)		{ continue; } // x off board
+					if (ny < 0 || ny >= rows)			{ continue; } // y off board
+					int value = grid[ny * columns + nx];
+					if (value == 0 || value >= dc)		{ continue; } // unreachable / suboptimal
+					dx = delta[0];
+					dy = delta[1];
+					dc = value;
+				}
+				x += dx;
+				y += dy;
+				path.step(x, y);
+			}
+			found = true;
+		}
+	}
+}
@@ -0,0 +1,190 @@
+package coggame;
+
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+
+/**
+* A PathService finds paths through a TiledLayer without
+* stalling the game. Requests are queued by priority, and
+* are searched either by background worker threads or, with
+* no workers, on the game thread within a time budget given
+* to each call of update():
+* <pre>
+* PathService paths = new PathService(map, 0);
+*
+* public void tick(double time) {
+*     paths.update(1000);	// search for at most a millisecond
+* }
+* </pre>
+*
+* Either way, results are delivered only by update(), so
+* PathListeners are called and PathRequests become done on
+* the game thread, and game state is never touched from
+* another thread. Each search sees the solid cells of the
+* layer as they were when it was requested. Since how
+* quickly a search finishes depends on the machine, games
+* which are replayed should not let the tick a path arrives
+* on affect their logic.
+*
+* @author John Earnest
+**/
+public class PathService {
+
+	private static final PathRequest STOP = new PathRequest(0, 0, 0, 0, false, Integer.MAX_VALUE, -1, null);
+
+	// how often background searches check for cancellation
+	private static final long SLICE = 1000000;
+
+	private final TiledLayer layer;
+	private final Thread[] workers;
+	private final PriorityBlockingQueue<PathRequest> queue;
+	private final ConcurrentLinkedQueue<PathRequest> finished = new ConcurrentLinkedQueue<PathRequest>();
+	private final Comparator<PathRequest> order = new Comparator<PathRequest>() {
+		public int compare(PathRequest a, PathRequest b) {
+			if (a.priority != b.priority) { return (a.priority > b.priority) ? -1 : 1; }
+			return Long.compare(a.sequence, b.sequence);
+		}
+	};
+	private PathRequest current;
+	private PathSearch spare;
+	private long[] open;
+	private int version;
+	private long sequence = 0;
+	private int pending = 0;
+
+	/**
+	* Create a new PathService.
+	*
+	* @param layer the TiledLayer to find paths through
+	* @param workerCount the number of background threads, or 0 to search within update()
+	**/
+	public PathService(TiledLayer layer, int workerCount) {
+		this.layer = layer;
+		queue = new PriorityBlockingQueue<PathRequest>(16, order);
+		workers = new Thread[Math.max(0, workerCount)];
+		for(int z = 0; z < workers.length; z++) {
+			workers[z] = new Thread(new Worker(), "coggame-path-" + z);
+			workers[z].setDaemon(true);
+			workers[z].start();
+		}
+	}
+
+	/**
+	* Request a path with priority 0 and no listener.
+	*
+	* @param xStart the x-position of the starting tile
+	* @param yStart the y-position of the starting tile
+	* @param xGoal the x-position of the goal tile
+	* @param yGoal the y-position of the goal tile
+	* @param useDiagonal should we consider diagonal movement as well as orthogonal?
+	**/
+	public PathRequest request(int xStart, int yStart, int xGoal, int yGoal, boolean useDiagonal) {
+		return request(xStart, yStart, xGoal, yGoal, useDiagonal, 0, null);
+	}
+
+	/**
+	* Request a path. Requests with a higher priority are
+	* searched first; among equal priorities, the oldest
+	* request is searched first. Must be called from the
+	* game thread.
+	*
+	* @param xStart the x-position of the starting tile
+	* @param yStart the y-position of the starting tile
+	* @param xGoal the x-position of the goal tile
+	* @param yGoal the y-position of the goal tile
+	* @param useDiagonal should we consider diagonal movement as well as orthogonal?
+	* @param priority the priority of the request
+	* @param listener a listener to tell when the path is found, or null
+	**/
+	public PathRequest request(int xStart, int yStart, int xGoal, int yGoal, boolean useDiagonal,
+								int priority, PathListener listener) {
+		if (open == null || version != layer.getSolidVersion()) {
+			// requests share a snapshot until the layer changes
+			open = PathSearch.open(layer);
+			version = layer.getSolidVersion();
+		}
+		final PathRequest ret = new PathRequest(xStart, yStart, xGoal, yGoal, useDiagonal,
+												priority, sequence++, listener);
+		ret.search = new PathSearch(open, layer.getColumns(), layer.getRows(),
+									xStart, yStart, xGoal, yGoal, useDiagonal, null);
+		queue.add(ret);
+		pending++;
+		return ret;
+	}
+
+	/**
+	* Returns the number of requests which have not yet
+	* been delivered, including any cancelled ones which
+	* have not yet been discarded.
+	**/
+	public int getPending() { return pending; }
+
+	/**
+	* Search for paths, if there are no worker threads,
+	* until a time budget runs out, then deliver every
+	* finished request to its listener. Should be called
+	* once per tick, from the game thread.
+	*
+	* @param budget the number of microseconds which may be spent searching
+	**/
+	public void update(int budget) {
+		if (workers.length == 0) {
+			final long deadline = System.nanoTime() + budget * 1000L;
+			while(System.nanoTime() - deadline < 0) {
+				// a newly requested search may outrank the one in progress
+				final PathRequest first = queue.peek();
+				if (current == null || (first != null && order.compare(first, current) < 0)) {
+					if (current != null) { queue.add(current); }
+					current = queue.poll();
+				}
+				if (current == null) { break; }
+				if (current.cancelled) {
+					finished.add(current);
+					current = null;
+					continue;
+				}
+				current.search.recycle(spare);
+				if (current.search.step(deadline)) {
+					spare = current.search;
+					finished.add(current);
+					current = null;
+				}
+			}
+		}
+		for(PathRequest r = finished.poll(); r != null; r = finished.poll()) {
+			pending--;
+			if (!r.cancelled) { r.deliver(r.search.getResult()); }
+		}
+	}
+
+	/**
+	* Stop the worker threads. Requests not yet searched
+	* are abandoned, and further requests will only be
+	* searched if there were no workers to begin with.
+	**/
+	public void shutdown() {
+		for(int z = 0; z < workers.length; z++) { queue.add(STOP); }
+	}
+
+	private class Worker implements Runnable {
+		public void run() {
+			PathSearch spare = null;
+			while(true) {
+				final PathRequest r;
+				try { r = queue.take(); }
+				catch(InterruptedException ie) { ie.printStackTrace(); continue; }
+				if (r == STOP) { return; }
+				if (r.cancelled) {
+					// never started, so leave the spare for the next request
+					finished.add(r);
+					continue;
+				}
+				r.search.recycle(spare);
+				while(!r.cancelled && !r.search.step(System.nanoTime() + SLICE)) {}
+				if (r.search.isDone()) { spare = r.search; }
+				finished.add(r);
+			}
+		}
+	}
+}
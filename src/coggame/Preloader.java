@@ -0,0 +1,180 @@
+package coggame;
+
+import java.awt.Image;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+* A Preloader runs the loading work of a GameApplication
+* on a pool of worker threads, one per available core,
+* while the game thread draws a loading screen. It is
+* handed to GameApplication.preload(), which submits
+* tasks and keeps the Suppliers they return; once every
+* task has finished, start() is called and the results
+* may be collected:
+* <pre>
+* private Supplier&lt;Image&gt; tiles;
+*
+* protected void preload(Preloader loader) {
+*     tiles = loader.image("assets/steel.png");
+* }
+*
+* protected void start() {
+*     floor = new TiledLayer(40, 30, tiles.get(), 16, 16);
+* }
+* </pre>
+*
+* Tasks run concurrently with one another, so they should
+* not share mutable state, and should not draw from
+* GameApplication.getRandom(), whose sequence would then
+* depend on scheduling.
+*
+* @author John Earnest
+**/
+public class Preloader {
+
+	private final ExecutorService pool;
+	private final List<Future<?>> tasks = new ArrayList<Future<?>>();
+	private final AtomicInteger completed = new AtomicInteger();
+
+	Preloader(int threads) {
+		pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			private int count = 0;
+
+			public synchronized Thread newThread(Runnable r) {
+				final Thread t = new Thread(r, "coggame-preload-" + (count++));
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	* Run a task which produces a value. The Supplier
+	* returned yields that value once loading is complete.
+	*
+	* @param task the loading task
+	**/
+	public <T> Supplier<T> submit(final Callable<T> task) {
+		final FutureTask<T> future = new FutureTask<T>(new Callable<T>() {
+			public T call() throws Exception {
+				try { return task.call(); }
+				finally { completed.incrementAndGet(); }
+			}
+		});
+		// counted before it runs, so progress never exceeds 1
+		synchronized(tasks) { tasks.add(future); }
+		pool.execute(future);
+		return new Result<T>(future);
+	}
+
+	/**
+	* Run a task which produces no value.
+	*
+	* @param task the loading task
+	**/
+	public Supplier<Void> submit(final Runnable task) {
+		return submit(new Callable<Void>() {
+			public Void call() {
+				task.run();
+				return null;
+			}
+		});
+	}
+
+	/**
+	* Load an image resource as with ImageTool.loadImage().
+	*
+	* @param filename the filename of the image resource
+	**/
+	public Supplier<Image> image(final String filename) {
+		return submit(new Callable<Image>() {
+			public Image call() {
+				final Image ret = ImageTool.loadImage(filename);
+				if (ret == null) { throw new IllegalStateException("Unable to load image: " + filename); }
+				return ret;
+			}
+		});
+	}
+
+	/**
+	* Returns the number of tasks submitted so far.
+	**/
+	public int getTotal() {
+		synchronized(tasks) { return tasks.size(); }
+	}
+
+	/**
+	* Returns the number of tasks which have finished,
+	* whether or not they succeeded.
+	**/
+	public int getCompleted() {
+		return completed.get();
+	}
+
+	/**
+	* Returns the fraction of submitted tasks which
+	* have finished, from 0 to 1. Returns 1 when
+	* there is nothing to load.
+	**/
+	public double getProgress() {
+		final int total = getTotal();
+		return (total == 0) ? 1 : ((double) getCompleted()) / total;
+	}
+
+	/**
+	* Returns true once every submitted task has finished.
+	**/
+	boolean isDone() {
+		return getCompleted() == getTotal();
+	}
+
+	/**
+	* Wait for every task, including any submitted by other
+	* tasks, then release the worker threads. The first
+	* failure, if any, is rethrown.
+	**/
+	void await() {
+		try {
+			for(int z = 0; z < getTotal(); z++) {
+				final Future<?> f;
+				synchronized(tasks) { f = tasks.get(z); }
+				try { f.get(); }
+				catch(InterruptedException ie) { ie.printStackTrace(); z--; }
+				catch(ExecutionException ee) {
+					final Throwable cause = ee.getCause();
+					if (cause instanceof RuntimeException) { throw (RuntimeException) cause; }
+					if (cause instanceof Error) { throw (Error) cause; }
+					throw new IllegalStateException("Preloading failed.", cause);
+				}
+			}
+		}
+		finally { pool.shutdownNow(); }
+	}
+
+	private static class Result<T> implements Supplier<T> {
+		private final Future<T> future;
+
+		public Result(Future<T> future) {
+			this.future = future;
+		}
+
+		public T get() {
+			if (!future.isDone()) {
+				throw new IllegalStateException("Preloading is not complete.");
+			}
+			try { return future.get(); }
+			catch(InterruptedException ie) { throw new IllegalStateException(ie); }
+			catch(ExecutionException ee) { throw new IllegalStateException("Preloading failed.", ee.getCause()); }
+		}
+	}
+}
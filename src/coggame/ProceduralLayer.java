@@ -0,0 +1,284 @@
+package coggame;
+
+import java.awt.Graphics;
+import java.awt.Image;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+* A ProceduralLayer is an endless tiled map which
+* is generated in fixed-size chunks by a TileGenerator.
+*
+* Chunks are generated on background threads as the
+* visible region approaches them and discarded once it
+* has moved well past, so a side-scrolling skyline or
+* cloud bank can continue indefinitely without stalling
+* the game thread. Every chunk is generated from a random
+* number generator seeded by the layer seed and the
+* chunk coordinates, so the same seed always produces
+* the same map regardless of the order in which chunks
+* are visited.
+*
+* stream() and paint() should be called from the
+* same thread, usually from tick() and paint().
+*
+* @author John Earnest
+**/
+public class ProceduralLayer extends Layer {
+
+	private static ExecutorService sharedPool;
+
+	private final Image tiles;
+	private final int tileWidth;
+	private final int tileHeight;
+	private final int chunkColumns;
+	private final int chunkRows;
+	private final long seed;
+	private final TileGenerator generator;
+	private final ExecutorService pool;
+	private final List<Chunk> chunks = new ArrayList<Chunk>();
+	private int lookahead = 1;
+	private int firstRow = 0;
+	private int lastRow = 0;
+
+	/**
+	* Create a new ProceduralLayer which generates
+	* chunks on a shared pool of background threads.
+	*
+	* @param tiles an Image containing a grid of equal-sized tiles
+	* @param tileWidth the width of each tile in pixels
+	* @param tileHeight the height of each tile in pixels
+	* @param chunkColumns the number of columns in each chunk
+	* @param chunkRows the number of rows in each chunk
+	* @param seed the seed from which every chunk is generated
+	* @param generator the generator which fills chunks
+	**/
+	public ProceduralLayer(Image tiles, int tileWidth, int tileHeight, int chunkColumns, int chunkRows,
+							long seed, TileGenerator generator) {
+		this(tiles, tileWidth, tileHeight, chunkColumns, chunkRows, seed, generator, sharedPool());
+	}
+
+	/**
+	* Create a new ProceduralLayer which generates
+	* chunks using the provided ExecutorService.
+	*
+	* @param tiles an Image containing a grid of equal-sized tiles
+	* @param tileWidth the width of each tile in pixels
+	* @param tileHeight the height of each tile in pixels
+	* @param chunkColumns the number of columns in each chunk
+	* @param chunkRows the number of rows in each chunk
+	* @param seed the seed from which every chunk is generated
+	* @param generator the generator which fills chunks
+	* @param pool the executor which runs generation jobs
+	**/
+	public ProceduralLayer(Image tiles, int tileWidth, int tileHeight, int chunkColumns, int chunkRows,
+							long seed, TileGenerator generator, ExecutorService pool) {
+		this.tiles = tiles;
+		this.tileWidth = tileWidth;
+		this.tileHeight = tileHeight;
+		this.chunkColumns = chunkColumns;
+		this.chunkRows = chunkRows;
+		this.seed = seed;
+		this.generator = generator;
+		this.pool = pool;
+	}
+
+	private static synchronized ExecutorService sharedPool() {
+		if (sharedPool == null) {
+			final int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+			sharedPool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "coggame-procedural");
+					t.setDaemon(true);
+					t.setPriority(Thread.NORM_PRIORITY - 1);
+					return t;
+				}
+			});
+		}
+		return sharedPool;
+	}
+
+	/**
+	* Derive the seed used to generate a single chunk.
+	* Nearby chunks receive unrelated seeds.
+	*
+	* @param seed the map seed
+	* @param chunkX the chunk's column, counting in chunks from the origin
+	* @param chunkY the chunk's row, counting in chunks from the origin
+	**/
+	public static long chunkSeed(long seed, int chunkX, int chunkY) {
+		// splitmix64 finalizer over the combined coordinates
+		long z = seed + 0x9E3779B97F4A7C15L * (((long) chunkX << 32) ^ (chunkY & 0xFFFFFFFFL));
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	* Returns the seed this layer generates chunks from.
+	**/
+	public long getSeed() { return seed; }
+
+	/**
+	* Returns the width of a chunk in pixels.
+	**/
+	public int getChunkWidth() { return chunkColumns * tileWidth; }
+
+	/**
+	* Returns the height of a chunk in pixels.
+	**/
+	public int getChunkHeight() { return chunkRows * tileHeight; }
+
+	/**
+	* Set the number of chunks beyond the visible
+	* region, in every direction, which should be
+	* generated in advance. Defaults to 1.
+	*
+	* @param chunks the number of chunks to generate ahead
+	**/
+	public void setLookahead(int chunks) { lookahead = chunks; }
+
+	/**
+	* Restrict generation to a range of chunk rows.
+	* By default only row 0 is generated, which suits
+	* a horizontally scrolling background.
+	*
+	* @param first the topmost chunk row to generate
+	* @param last the bottommost chunk row to generate
+	**/
+	public void setChunkRows(int first, int last) {
+		firstRow = first;
+		lastRow = last;
+	}
+
+	/**
+	* Returns true if the chunk at the given chunk
+	* coordinates has finished generating.
+	*
+	* @param chunkX the chunk's column
+	* @param chunkY the chunk's row
+	**/
+	public boolean isGenerated(int chunkX, int chunkY) {
+		final Chunk c = find(chunkX, chunkY);
+		return c != null && c.layer != null;
+	}
+
+	/**
+	* Returns the tile index at a given position,
+	* or 0 if the chunk containing it has not been generated.
+	*
+	* @param col the column number of the cell, which may be negative
+	* @param row the row number of the cell, which may be negative
+	**/
+	public int getCell(int col, int row) {
+		final Chunk c = find(Math.floorDiv(col, chunkColumns), Math.floorDiv(row, chunkRows));
+		if (c == null || c.layer == null) { return 0; }
+		return c.layer.getCell(Math.floorMod(col, chunkColumns), Math.floorMod(row, chunkRows));
+	}
+
+	/**
+	* Request every chunk overlapping a visible region
+	* (plus the lookahead margin) and discard chunks which
+	* have fallen well outside it. Generation happens in
+	* the background; this method never blocks.
+	*
+	* @param x the x-offset of the visible region, in the same coordinates as paint()
+	* @param y the y-offset of the visible region, in the same coordinates as paint()
+	* @param width the width of the visible region in pixels
+	* @param height the height of the visible region in pixels
+	**/
+	public void stream(int x, int y, int width, int height) {
+		final int cw = getChunkWidth();
+		final int ch = getChunkHeight();
+		final int x0 = Math.floorDiv(x - getX(), cw) - lookahead;
+		final int x1 = Math.floorDiv(x - getX() + width - 1, cw) + lookahead;
+		final int y0 = Math.max(firstRow, Math.floorDiv(y - getY(), ch) - lookahead);
+		final int y1 = Math.min(lastRow,  Math.floorDiv(y - getY() + height - 1, ch) + lookahead);
+
+		// evict chunks beyond a one-chunk hysteresis margin
+		for(int z = chunks.size() - 1; z >= 0; z--) {
+			final Chunk c = chunks.get(z);
+			if (c.x < x0 - 1 || c.x > x1 + 1 || c.y < y0 - 1 || c.y > y1 + 1) {
+				c.cancelled = true;
+				c.future.cancel(false);
+				chunks.set(z, chunks.get(chunks.size() - 1));
+				chunks.remove(chunks.size() - 1);
+			}
+		}
+
+		// request missing chunks
+		for(int cy = y0; cy <= y1; cy++) {
+			for(int cx = x0; cx <= x1; cx++) {
+				if (find(cx, cy) != null) { continue; }
+				final Chunk c = new Chunk(cx, cy);
+				chunks.add(c);
+				c.future = pool.submit(c);
+			}
+		}
+	}
+
+	/**
+	* Block until every chunk requested so far has
+	* been generated. This is useful while loading,
+	* to avoid chunks popping in on the first frames.
+	**/
+	public void waitForChunks() {
+		for(int z = 0; z < chunks.size(); z++) {
+			try { chunks.get(z).future.get(); }
+			catch(InterruptedException ie) { ie.printStackTrace(); }
+			catch(ExecutionException ee) { ee.printStackTrace(); }
+		}
+	}
+
+	/**
+	* Draw every generated chunk.
+	*
+	* @param g the destination Graphics surface
+	**/
+	public void paint(Graphics g) {
+		if (!isVisible()) { return; }
+		final int cw = getChunkWidth();
+		final int ch = getChunkHeight();
+		for(int z = 0; z < chunks.size(); z++) {
+			final Chunk c = chunks.get(z);
+			final TiledLayer layer = c.layer;
+			if (layer == null) { continue; }
+			layer.setPosition(getX() + c.x * cw, getY() + c.y * ch);
+			layer.paint(g);
+		}
+	}
+
+	private Chunk find(int cx, int cy) {
+		for(int z = 0; z < chunks.size(); z++) {
+			final Chunk c = chunks.get(z);
+			if (c.x == cx && c.y == cy) { return c; }
+		}
+		return null;
+	}
+
+	private class Chunk implements Runnable {
+		private final int x;
+		private final int y;
+		private volatile TiledLayer layer;
+		private volatile boolean cancelled = false;
+		private Future<?> future;
+
+		public Chunk(int x, int y) {
+			this.x = x;
+			this.y = y;
+		}
+
+		public void run() {
+			if (cancelled) { return; }
+			final TiledLayer ret = new TiledLayer(chunkColumns, chunkRows, tiles, tileWidth, tileHeight);
+			generator.generate(ret, x, y, new Random(chunkSeed(seed, x, y)));
+			layer = ret;
+		}
+	}
+}
@@ -0,0 +1,21 @@
+package coggame;
+
+/**
+* A RangeTask processes a contiguous range of
+* entities, and is used by SystemScheduler to split
+* a per-entity loop into chunks which run in parallel.
+*
+* @author John Earnest
+**/
+public interface RangeTask {
+
+	/**
+	* Process the entities with indices from (inclusive)
+	* to (exclusive). Implementations must only write to
+	* state belonging to entities within the range.
+	*
+	* @param from the first index to process
+	* @param to one past the last index to process
+	**/
+	public void run(int from, int to);
+}
@@ -0,0 +1,562 @@
+package coggame;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.image.BufferedImage;
+import java.awt.image.ImageObserver;
+import java.text.AttributedCharacterIterator;
+import java.text.AttributedString;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+* A RenderBuffer records drawing operations instead of
+* performing them, so that a frame can be reordered and
+* then replayed onto any number of Graphics surfaces.
+*
+* Layers draw into the Graphics returned by getGraphics()
+* exactly as they would draw to the screen. Each operation
+* is stored in a compact int array along with the color,
+* font and clip in effect when it was issued. Before
+* replaying, operations are grouped by the source image
+* they draw from: an operation may be moved ahead of
+* earlier operations only if its bounds do not overlap
+* theirs, so the composited result is unchanged while
+* the number of switches between tile sheets, sprite
+* sheets and fonts is minimized.
+*
+* Typical use, once per frame:
+* <pre>
+* buffer.clear();
+* scene.paint(buffer.getGraphics());
+* buffer.replay(screen);
+* </pre>
+*
+* Images are recorded by reference, so an image drawn into
+* a RenderBuffer must not change until the buffer has been
+* replayed and cleared. Switching to or from XOR mode is
+* recorded as a barrier which no operation is moved across.
+*
+* @author John Earnest
+**/
+public class RenderBuffer {
+
+	private static final int STRIDE = 12;
+
+	private static final int IMAGE         = 0;
+	private static final int IMAGE_AT      = 1;
+	private static final int FILL_RECT     = 2;
+	private static final int CLEAR_RECT    = 3;
+	private static final int LINE          = 4;
+	private static final int OVAL          = 5;
+	private static final int FILL_OVAL     = 6;
+	private static final int ROUND_RECT    = 7;
+	private static final int FILL_ROUND    = 8;
+	private static final int ARC           = 9;
+	private static final int FILL_ARC      = 10;
+	private static final int POLYLINE      = 11;
+	private static final int POLYGON       = 12;
+	private static final int FILL_POLYGON  = 13;
+	private static final int STRING        = 14;
+	private static final int TEXT          = 15;
+	private static final int COPY_AREA     = 16;
+	private static final int IMAGE_BG      = 17;
+	private static final int MODE          = 18;
+
+	private static final Graphics metrics = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).getGraphics();
+
+	// per command: op, image, color, clip, then up to 8 arguments
+	private int[] commands = new int[STRIDE * 256];
+	private int[] bounds = new int[4 * 256];
+	private int count = 0;
+	private long generation = 0;
+	private Color mode;
+
+	private Object[] objects = new Object[64];
+	private int objectCount = 0;
+	private final Map<Object, Integer> interned = new IdentityHashMap<Object, Integer>();
+
+	private int[] order = new int[256];
+	private int[] batchKey = new int[16];
+	private int[] batchBounds = new int[64];
+	private int[] batchHead = new int[16];
+	private int[] batchTail = new int[16];
+	private int[] nextInBatch = new int[256];
+	private int batchCount = 0;
+	private boolean sorted = false;
+
+	/**
+	* Returns a new Graphics surface which records into this buffer.
+	* Its color is white, and it has no font and no clip.
+	**/
+	public Graphics getGraphics() {
+		return new Recorder();
+	}
+
+	/**
+	* Returns the number of operations recorded.
+	**/
+	public int size() { return count; }
+
+	/**
+	* Returns the number of runs of operations sharing a
+	* source image once the buffer is sorted. Replaying
+	* switches source images at most this many times.
+	**/
+	public int getBatchCount() {
+		sort();
+		return batchCount;
+	}
+
+	/**
+	* Discard every recorded operation.
+	**/
+	public void clear() {
+		Arrays.fill(objects, 0, objectCount, null);
+		objectCount = 0;
+		interned.clear();
+		count = 0;
+		generation++;
+		mode = null;
+		sorted = false;
+	}
+
+	/**
+	* Returns a number which changes each time the buffer is
+	* cleared, so that an image recorded with one value may
+	* safely be changed once the value is different.
+	**/
+	long getGeneration() { return generation; }
+
+	/**
+	* Returns the RenderBuffer a Graphics surface records
+	* into, or null if it draws directly.
+	**/
+	static RenderBuffer recording(Graphics g) {
+		return (g instanceof Recorder) ? ((Recorder) g).owner() : null;
+	}
+
+	/**
+	* Perform every recorded operation on a Graphics surface,
+	* grouped by source image. Recorded clips are intersected
+	* with the surface's own clip, and the surface's color,
+	* font and clip are restored afterwards. A buffer may be replayed
+	* any number of times.
+	*
+	* @param g the destination Graphics surface
+	**/
+	public void replay(Graphics g) {
+		sort();
+		replay(g, order);
+	}
+
+	/**
+	* Perform every recorded operation on a Graphics
+	* surface in the order it was recorded.
+	*
+	* @param g the destination Graphics surface
+	**/
+	public void replayInOrder(Graphics g) {
+		final int[] identity = new int[count];
+		for(int z = 0; z < count; z++) { identity[z] = z; }
+		replay(g, identity);
+	}
+
+	private void replay(Graphics g, int[] order) {
+		final Color oldColor = g.getColor();
+		final Font oldFont = g.getFont();
+		final Shape oldClip = g.getClip();
+		int color = -1;
+		int clip = -2;
+		boolean xor = false;
+
+		for(int z = 0; z < count; z++) {
+			final int c = order[z] * STRIDE;
+			final int op = commands[c];
+			if (commands[c + 2] != color) {
+				color = commands[c + 2];
+				g.setColor((Color) objects[color]);
+			}
+			if (commands[c + 3] != clip) {
+				// recorded clips narrow the surface's own clip
+				clip = commands[c + 3];
+				g.setClip(oldClip);
+				if (clip >= 0) {
+					final Rectangle r = (Rectangle) objects[clip];
+					g.clipRect(r.x, r.y, r.width, r.height);
+				}
+			}
+			final int a = commands[c + 4];
+			final int b = commands[c + 5];
+			final int w = commands[c + 6];
+			final int h = commands[c + 7];
+
+			if (op == IMAGE || op == IMAGE_BG) {
+				final Image image = (Image) objects[commands[c + 1]];
+				g.drawImage(image, a, b, w, h,
+					commands[c + 8], commands[c + 9], commands[c + 10], commands[c + 11],
+					(op == IMAGE) ? null : (Color) objects[color], null);
+			}
+			else if (op == IMAGE_AT) {
+				final Image image = (Image) objects[commands[c + 1]];
+				final Color background = (commands[c + 8] == 0) ? null : (Color) objects[color];
+				if (w < 0) { g.drawImage(image, a, b, background, null); }
+				else { g.drawImage(image, a, b, w, h, background, null); }
+			}
+			else if (op == FILL_RECT)		{ g.fillRect(a, b, w, h); }
+			else if (op == CLEAR_RECT)		{ g.clearRect(a, b, w, h); }
+			else if (op == LINE)			{ g.drawLine(a, b, w, h); }
+			else if (op == OVAL)			{ g.drawOval(a, b, w, h); }
+			else if (op == FILL_OVAL)		{ g.fillOval(a, b, w, h); }
+			else if (op == ROUND_RECT)		{ g.drawRoundRect(a, b, w, h, commands[c + 8], commands[c + 9]); }
+			else if (op == FILL_ROUND)		{ g.fillRoundRect(a, b, w, h, commands[c + 8], commands[c + 9]); }
+			else if (op == ARC)				{ g.drawArc(a, b, w, h, commands[c + 8], commands[c + 9]); }
+			else if (op == FILL_ARC)		{ g.fillArc(a, b, w, h, commands[c + 8], commands[c + 9]); }
+			else if (op == POLYLINE)		{ g.drawPolyline((int[]) objects[a], (int[]) objects[b], w); }
+			else if (op == POLYGON)			{ g.drawPolygon((int[]) objects[a], (int[]) objects[b], w); }
+			else if (op == FILL_POLYGON)	{ g.fillPolygon((int[]) objects[a], (int[]) objects[b], w); }
+			else if (op == STRING) {
+				g.setFont((Font) objects[b]);
+				g.drawString((String) objects[a], w, h);
+			}
+			else if (op == TEXT) {
+				g.drawString(((AttributedString) objects[a]).getIterator(), w, h);
+			}
+			else if (op == COPY_AREA)		{ g.copyArea(a, b, w, h, commands[c + 8], commands[c + 9]); }
+			else if (op == MODE) {
+				xor = a >= 0;
+				if (xor) { g.setXORMode((Color) objects[a]); }
+				else { g.setPaintMode(); }
+			}
+		}
+		if (xor) { g.setPaintMode(); }
+		g.setColor(oldColor);
+		g.setFont(oldFont);
+		g.setClip(oldClip);
+	}
+
+	/**
+	* Group operations into batches by source image.
+	* Each operation joins the first batch with the same
+	* image which comes after the last batch it overlaps,
+	* so overlapping operations always keep their order.
+	**/
+	private void sort() {
+		if (sorted) { return; }
+		if (nextInBatch.length < count) { nextInBatch = new int[count * 2]; }
+		if (order.length < count) { order = new int[count * 2]; }
+		batchCount = 0;
+
+		for(int z = 0; z < count; z++) {
+			final int key = commands[z * STRIDE + 1];
+			final int x0 = bounds[z * 4];
+			final int y0 = bounds[z * 4 + 1];
+			final int x1 = bounds[z * 4 + 2];
+			final int y1 = bounds[z * 4 + 3];
+
+			int after = batchCount - 1;
+			while(after >= 0) {
+				final int b = after * 4;
+				if (x0 < batchBounds[b + 2] && batchBounds[b] < x1 &&
+					y0 < batchBounds[b + 3] && batchBounds[b + 1] < y1) { break; }
+				after--;
+			}
+			int batch = Math.max(after, 0);
+			while(batch < batchCount && batchKey[batch] != key) { batch++; }
+
+			if (batch == batchCount) {
+				if (batchCount == batchKey.length) {
+					batchKey    = Arrays.copyOf(batchKey,    batchCount * 2);
+					batchHead   = Arrays.copyOf(batchHead,   batchCount * 2);
+					batchTail   = Arrays.copyOf(batchTail,   batchCount * 2);
+					batchBounds = Arrays.copyOf(batchBounds, batchCount * 8);
+				}
+				batchKey[batch] = key;
+				batchHead[batch] = z;
+				batchBounds[batch * 4]     = x0;
+				batchBounds[batch * 4 + 1] = y0;
+				batchBounds[batch * 4 + 2] = x1;
+				batchBounds[batch * 4 + 3] = y1;
+				batchCount++;
+			}
+			else {
+				nextInBatch[batchTail[batch]] = z;
+				batchBounds[batch * 4]     = Math.min(batchBounds[batch * 4],     x0);
+				batchBounds[batch * 4 + 1] = Math.min(batchBounds[batch * 4 + 1], y0);
+				batchBounds[batch * 4 + 2] = Math.max(batchBounds[batch * 4 + 2], x1);
+				batchBounds[batch * 4 + 3] = Math.max(batchBounds[batch * 4 + 3], y1);
+			}
+			batchTail[batch] = z;
+			nextInBatch[z] = -1;
+		}
+
+		int n = 0;
+		for(int b = 0; b < batchCount; b++) {
+			for(int z = batchHead[b]; z >= 0; z = nextInBatch[z]) { order[n++] = z; }
+		}
+		sorted = true;
+	}
+
+	private int intern(Object o) {
+		if (o == null) { return -1; }
+		final Integer index = interned.get(o);
+		if (index != null) { return index; }
+		if (objectCount == objects.length) { objects = Arrays.copyOf(objects, objectCount * 2); }
+		objects[objectCount] = o;
+		interned.put(o, objectCount);
+		return objectCount++;
+	}
+
+	private int add(Recorder r, int op, int image, int x0, int y0, int x1, int y1) {
+		if (r.xor != mode) {
+			// a change of mode covers everything, so nothing is reordered across it
+			mode = r.xor;
+			final int c = push(r, MODE, -1);
+			bounds[count * 4]     = Integer.MIN_VALUE;
+			bounds[count * 4 + 1] = Integer.MIN_VALUE;
+			bounds[count * 4 + 2] = Integer.MAX_VALUE;
+			bounds[count * 4 + 3] = Integer.MAX_VALUE;
+			count++;
+			args(c, intern(mode), 0, 0, 0);
+		}
+		final int c = push(r, op, image);
+
+		// nothing outside the clip is drawn
+		if (r.clip != null) {
+			x0 = Math.max(x0, r.clip.x);
+			y0 = Math.max(y0, r.clip.y);
+			x1 = Math.min(x1, r.clip.x + r.clip.width);
+			y1 = Math.min(y1, r.clip.y + r.clip.height);
+		}
+		bounds[count * 4]     = x0;
+		bounds[count * 4 + 1] = y0;
+		bounds[count * 4 + 2] = x1;
+		bounds[count * 4 + 3] = y1;
+		count++;
+		return c;
+	}
+
+	private int push(Recorder r, int op, int image) {
+		if (count * STRIDE == commands.length) {
+			commands = Arrays.copyOf(commands, commands.length * 2);
+			bounds   = Arrays.copyOf(bounds,   bounds.length * 2);
+		}
+		final int c = count * STRIDE;
+		commands[c]     = op;
+		commands[c + 1] = image;
+		commands[c + 2] = intern(r.color);
+		commands[c + 3] = intern(r.clip);
+		sorted = false;
+		return c;
+	}
+
+	private void args(int c, int a, int b, int w, int h) {
+		commands[c + 4] = a;
+		commands[c + 5] = b;
+		commands[c + 6] = w;
+		commands[c + 7] = h;
+	}
+
+	private class Recorder extends Graphics {
+		private int tx = 0;
+		private int ty = 0;
+		private Color color = Color.WHITE;
+		private Font font;
+		private Rectangle clip;
+		private Color xor;
+
+		private RenderBuffer owner() { return RenderBuffer.this; }
+
+		public Graphics create() {
+			final Recorder ret = new Recorder();
+			ret.tx = tx;
+			ret.ty = ty;
+			ret.color = color;
+			ret.font = font;
+			ret.clip = clip;
+			ret.xor = xor;
+			return ret;
+		}
+
+		public void dispose() {}
+
+		public void translate(int x, int y) { tx += x; ty += y; }
+
+		public Color getColor() { return color; }
+
+		public void setColor(Color c) { if (c != null) { color = c; } }
+
+		public void setPaintMode() { xor = null; }
+
+		public void setXORMode(Color c) { if (c != null) { xor = c; } }
+
+		public Font getFont() { return font; }
+
+		public void setFont(Font f) { if (f != null) { font = f; } }
+
+		public FontMetrics getFontMetrics(Font f) {
+			synchronized(metrics) { return metrics.getFontMetrics(f); }
+		}
+
+		public Rectangle getClipBounds() {
+			if (clip == null) { return null; }
+			return new Rectangle(clip.x - tx, clip.y - ty, clip.width, clip.height);
+		}
+
+		public Shape getClip() { return getClipBounds(); }
+
+		public void clipRect(int x, int y, int width, int height) {
+			final Rectangle r = new Rectangle(x + tx, y + ty, width, height);
+			clip = (clip == null) ? r : clip.intersection(r);
+		}
+
+		public void setClip(int x, int y, int width, int height) {
+			clip = new Rectangle(x + tx, y + ty, width, height);
+		}
+
+		public void setClip(Shape s) {
+			if (s == null) { clip = null; return; }
+			final Rectangle r = s.getBounds();
+			setClip(r.x, r.y, r.width, r.height);
+		}
+
+		public void copyArea(int x, int y, int width, int height, int dx, int dy) {
+			final int c = add(this, COPY_AREA, -1, Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+			args(c, x + tx, y + ty, width, height);
+			commands[c + 8] = dx;
+			commands[c + 9] = dy;
+		}
+
+		private void shape(int op, int x, int y, int width, int height, int p, int q, int stroke) {
+			x += tx;
+			y += ty;
+			final int c = add(this, op, -1, x, y, x + width + stroke, y + height + stroke);
+			args(c, x, y, width, height);
+			commands[c + 8] = p;
+			commands[c + 9] = q;
+		}
+
+		public void drawLine(int x1, int y1, int x2, int y2) {
+			x1 += tx; y1 += ty; x2 += tx; y2 += ty;
+			final int c = add(this, LINE, -1, Math.min(x1, x2), Math.min(y1, y2), Math.max(x1, x2) + 1, Math.max(y1, y2) + 1);
+			args(c, x1, y1, x2, y2);
+		}
+
+		public void fillRect(int x, int y, int width, int height)	{ shape(FILL_RECT,  x, y, width, height, 0, 0, 0); }
+		public void clearRect(int x, int y, int width, int height)	{ shape(CLEAR_RECT, x, y, width, height, 0, 0, 0); }
+		public void drawOval(int x, int y, int width, int height)	{ shape(OVAL,       x, y, width, height, 0, 0, 1); }
+		public void fillOval(int x, int y, int width, int height)	{ shape(FILL_OVAL,  x, y, width, height, 0, 0, 0); }
+
+		public void drawRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
+			shape(ROUND_RECT, x, y, width, height, arcWidth, arcHeight, 1);
+		}
+		public void fillRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
+			shape(FILL_ROUND, x, y, width, height, arcWidth, arcHeight, 0);
+		}
+		public void drawArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
+			shape(ARC, x, y, width, height, startAngle, arcAngle, 1);
+		}
+		public void fillArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
+			shape(FILL_ARC, x, y, width, height, startAngle, arcAngle, 0);
+		}
+
+		private void poly(int op, int[] xPoints, int[] yPoints, int nPoints) {
+			final int[] xs = new int[nPoints];
+			final int[] ys = new int[nPoints];
+			int x0 = Integer.MAX_VALUE, y0 = Integer.MAX_VALUE;
+			int x1 = Integer.MIN_VALUE, y1 = Integer.MIN_VALUE;
+			for(int z = 0; z < nPoints; z++) {
+				xs[z] = xPoints[z] + tx;
+				ys[z] = yPoints[z] + ty;
+				x0 = Math.min(x0, xs[z]);
+				y0 = Math.min(y0, ys[z]);
+				x1 = Math.max(x1, xs[z] + 1);
+				y1 = Math.max(y1, ys[z] + 1);
+			}
+			final int c = add(this, op, -1, x0, y0, x1, y1);
+			args(c, intern(xs), intern(ys), nPoints, 0);
+		}
+
+		public void drawPolyline(int[] xPoints, int[] yPoints, int nPoints)	{ poly(POLYLINE, xPoints, yPoints, nPoints); }
+		public void drawPolygon(int[] xPoints, int[] yPoints, int nPoints)	{ poly(POLYGON, xPoints, yPoints, nPoints); }
+		public void fillPolygon(int[] xPoints, int[] yPoints, int nPoints)	{ poly(FILL_POLYGON, xPoints, yPoints, nPoints); }
+
+		public void drawString(String str, int x, int y) {
+			if (font == null) { font = metrics.getFont(); }
+			final FontMetrics fm = getFontMetrics(font);
+			x += tx;
+			y += ty;
+			// pad for italic overhang and antialiasing
+			final int pad = font.getSize();
+			final int c = add(this, STRING, -1,
+				x - pad, y - fm.getMaxAscent() - pad, x + fm.stringWidth(str) + pad, y + fm.getMaxDescent() + pad);
+			args(c, intern(str), intern(font), x, y);
+		}
+
+		public void drawString(AttributedCharacterIterator iterator, int x, int y) {
+			final int c = add(this, TEXT, -1, Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+			args(c, intern(new AttributedString(iterator)), 0, x + tx, y + ty);
+		}
+
+		private boolean image(Image img, int dx1, int dy1, int dx2, int dy2, int sx1, int sy1, int sx2, int sy2, Color bgcolor) {
+			if (img == null) { return true; }
+			dx1 += tx; dy1 += ty; dx2 += tx; dy2 += ty;
+			final Color old = color;
+			if (bgcolor != null) { color = bgcolor; }
+			final int c = add(this, (bgcolor == null) ? IMAGE : IMAGE_BG, intern(img),
+				Math.min(dx1, dx2), Math.min(dy1, dy2), Math.max(dx1, dx2), Math.max(dy1, dy2));
+			color = old;
+			args(c, dx1, dy1, dx2, dy2);
+			commands[c + 8]  = sx1;
+			commands[c + 9]  = sy1;
+			commands[c + 10] = sx2;
+			commands[c + 11] = sy2;
+			return true;
+		}
+
+		private boolean image(Image img, int x, int y, int width, int height, Color bgcolor) {
+			if (img == null) { return true; }
+			final int iw = img.getWidth(null);
+			final int ih = img.getHeight(null);
+			if (iw >= 0 && ih >= 0) {
+				if (width < 0) { width = iw; height = ih; }
+				return image(img, x, y, x + width, y + height, 0, 0, iw, ih, bgcolor);
+			}
+			// the size is not known yet, so it might cover anything
+			final Color old = color;
+			if (bgcolor != null) { color = bgcolor; }
+			final int c = add(this, IMAGE_AT, intern(img), Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE);
+			color = old;
+			args(c, x + tx, y + ty, width, height);
+			commands[c + 8] = (bgcolor == null) ? 0 : 1;
+			return true;
+		}
+
+		public boolean drawImage(Image img, int x, int y, ImageObserver observer) {
+			return image(img, x, y, -1, -1, null);
+		}
+		public boolean drawImage(Image img, int x, int y, Color bgcolor, ImageObserver observer) {
+			return image(img, x, y, -1, -1, bgcolor);
+		}
+		public boolean drawImage(Image img, int x, int y, int width, int height, ImageObserver observer) {
+			return image(img, x, y, width, height, null);
+		}
+		public boolean drawImage(Image img, int x, int y, int width, int height, Color bgcolor, ImageObserver observer) {
+			return image(img, x, y, width, height, bgcolor);
+		}
+		public boolean drawImage(Image img, int dx1, int dy1, int dx2, int dy2,
+									int sx1, int sy1, int sx2, int sy2, ImageObserver observer) {
+			return image(img, dx1, dy1, dx2, dy2, sx1, sy1, sx2, sy2, null);
+		}
+		public boolean drawImage(Image img, int dx1, int dy1, int dx2, int dy2,
+									int sx1, int sy1, int sx2, int sy2, Color bgcolor, ImageObserver observer) {
+			return image(img, dx1, dy1, dx2, dy2, sx1, sy1, sx2, sy2, bgcolor);
+		}
+	}
+}
@@ -0,0 +1,191 @@
+package coggame;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+* A SceneSnapshot is a copy of everything needed to
+* draw the Layers of a LayerManager at one instant:
+* positions, visibility, sprite frames and transforms,
+* particles and tile cells. Once captured, a snapshot
+* can be painted on another thread while the game goes
+* on to modify the Layers themselves.
+*
+* Captures are incremental. A snapshot remembers the
+* state it copied last time, so recapturing a TiledLayer
+* only copies the cells which have changed since then.
+* For this reason a snapshot should be reused, frame after
+* frame, rather than created anew each time, and release()
+* should be called once it is no longer needed.
+*
+* Sprites, TiledLayers, TiledImages and ParticleLayers
+* are captured directly. Any other Layer, including a
+* subclass of one of those, is drawn into an image when
+* the snapshot is captured, which costs more.
+*
+* The Viewports of the LayerManager are captured too, and
+* each captured Layer is painted through every Viewport
+* from the same copy of its state. Layers drawn into images
+* need one image per Viewport.
+*
+* @author John Earnest
+**/
+public class SceneSnapshot {
+
+	private final int width;
+	private final int height;
+	private Layer[] layers = new Layer[8];
+	private Object[] states = new Object[8];
+	private BufferedImage[][] images = new BufferedImage[8][];
+	private double[] scrollX = new double[8];
+	private double[] scrollY = new double[8];
+	private Viewport[] views = new Viewport[0];
+	private int viewCount = 0;
+	private int size = 0;
+	private AllocationMonitor monitor;
+
+	/**
+	* Create a new, empty SceneSnapshot.
+	*
+	* @param width the width of the drawing surface, in pixels
+	* @param height the height of the drawing surface, in pixels
+	**/
+	public SceneSnapshot(int width, int height) {
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	* Returns the number of Layers in this snapshot.
+	**/
+	public int size() { return size; }
+
+	/**
+	* Copy the current state of every Layer in a LayerManager.
+	* This must be called from the thread which modifies the
+	* Layers, and not while this snapshot is being painted.
+	*
+	* @param scene the layers to capture
+	**/
+	public void capture(LayerManager scene) {
+		final AllocationMonitor monitor = scene.getAllocationMonitor();
+		this.monitor = (monitor != null && monitor.isEnabled()) ? monitor : null;
+		final int count = scene.size();
+		if (count > layers.length) {
+			layers = Arrays.copyOf(layers, count * 2);
+			states = Arrays.copyOf(states, count * 2);
+			images = Arrays.copyOf(images, count * 2);
+			scrollX = Arrays.copyOf(scrollX, count * 2);
+			scrollY = Arrays.copyOf(scrollY, count * 2);
+		}
+		for(int z = count; z < size; z++) { forget(z); }
+
+		viewCount = scene.getViewportCount();
+		if (viewCount > views.length) {
+			views = Arrays.copyOf(views, viewCount);
+		}
+		for(int v = 0; v < viewCount; v++) {
+			if (views[v] == null) { views[v] = new Viewport(0, 0, width, height); }
+			views[v].set(scene.getViewport(v));
+		}
+
+		for(int z = 0; z < count; z++) {
+			final long mark = (this.monitor != null) ? this.monitor.mark() : 0;
+			scrollX[z] = scene.getScrollX(z);
+			scrollY[z] = scene.getScrollY(z);
+			capture(z, scene.get(z));
+			if (this.monitor != null) { this.monitor.addLayer(z, mark); }
+		}
+		size = count;
+	}
+
+	private void capture(int z, Layer layer) {
+		if (layers[z] != layer) {
+			forget(z);
+			layers[z] = layer;
+		}
+		if (layer.paintsPlain()) {
+			states[z] = layer.capture(states[z]);
+			if (states[z] != null) { return; }
+		}
+		draw(z, layer);
+	}
+
+	/**
+	* Draw the captured Layers, from the lowest-indexed
+	* to the highest-indexed, through each captured
+	* Viewport in turn if there were any.
+	*
+	* @param g the destination Graphics surface
+	**/
+	public void paint(Graphics g) {
+		final AllocationMonitor monitor = this.monitor;
+		if (viewCount == 0) {
+			for(int z = 0; z < size; z++) {
+				final long mark = (monitor != null) ? monitor.mark() : 0;
+				if (states[z] != null) { layers[z].paintCaptured(g, states[z]); }
+				else { g.drawImage(images[z][0], 0, 0, null); }
+				if (monitor != null) { monitor.addLayer(z, mark); }
+			}
+			return;
+		}
+		for(int v = 0; v < viewCount; v++) {
+			final Viewport view = views[v];
+			final Graphics vg = view.open(g);
+			for(int z = 0; z < size; z++) {
+				final long mark = (monitor != null) ? monitor.mark() : 0;
+				if (states[z] != null) {
+					layers[z].paintCaptured(vg, states[z], view.offsetX(scrollX[z]), view.offsetY(scrollY[z]));
+				}
+				else { vg.drawImage(images[z][v], 0, 0, null); }
+				if (monitor != null) { monitor.addLayer(z, mark); }
+			}
+			vg.dispose();
+		}
+	}
+
+	/**
+	* Discard the captured state of every Layer.
+	**/
+	public void release() {
+		for(int z = 0; z < size; z++) { forget(z); }
+		size = 0;
+	}
+
+	private void forget(int z) {
+		if (states[z] != null) { layers[z].release(states[z]); }
+		layers[z] = null;
+		states[z] = null;
+		images[z] = null;
+	}
+
+	private void draw(int z, Layer layer) {
+		final int count = Math.max(viewCount, 1);
+		if (images[z] == null || images[z].length < count) {
+			images[z] = (images[z] == null) ? new BufferedImage[count] : Arrays.copyOf(images[z], count);
+		}
+		for(int v = 0; v < count; v++) {
+			final int w = (viewCount == 0) ? width  : views[v].getWidth();
+			final int h = (viewCount == 0) ? height : views[v].getHeight();
+			if (w <= 0 || h <= 0) {
+				images[z][v] = null;
+				continue;
+			}
+			BufferedImage image = images[z][v];
+			if (image == null || image.getWidth() != w || image.getHeight() != h) {
+				image = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+				images[z][v] = image;
+			}
+			final Graphics2D g = image.createGraphics();
+			g.setComposite(AlphaComposite.Clear);
+			g.fillRect(0, 0, w, h);
+			g.setComposite(AlphaComposite.SrcOver);
+			if (viewCount == 0) { layer.paint(g); }
+			else { layer.paint(g, views[v].offsetX(scrollX[z]), views[v].offsetY(scrollY[z])); }
+			g.dispose();
+		}
+	}
+}
@@ -0,0 +1,125 @@
+package coggame;
+
+import java.util.concurrent.Semaphore;
+import java.util.function.BooleanSupplier;
+
+/**
+* A Script is an entity behaviour written as
+* ordinary straight-line code which can pause
+* itself, rather than as a state machine advanced
+* by tick(). For example:
+* <pre>
+* class Patrol extends Script {
+*     protected void run() {
+*         while (true) {
+*             walkTo(a);
+*             waitUntil(() -&gt; arrived());
+*             waitSeconds(2);
+*             walkTo(b);
+*             waitUntil(() -&gt; arrived());
+*         }
+*     }
+* }
+* </pre>
+* Scripts are started with a ScriptScheduler, which
+* resumes each paused script from within its own
+* tick() once the script's wait is over. Only one
+* script runs at a time, and always on behalf of the
+* thread calling tick(), so scripts may freely touch
+* game state without synchronization.
+*
+* @author John Earnest
+**/
+public abstract class Script {
+
+	final Semaphore resume = new Semaphore(0);
+	final Semaphore paused = new Semaphore(0);
+	ScriptScheduler scheduler;
+	Thread thread;
+	double wakeTime;
+	long wakeTick;
+	BooleanSupplier condition;
+	volatile boolean cancelled = false;
+	volatile boolean finished = false;
+
+	/**
+	* The body of the behaviour. Returning from
+	* this method finishes the script.
+	**/
+	protected abstract void run();
+
+	/**
+	* Returns true if the script has returned,
+	* thrown an exception or been cancelled.
+	**/
+	public boolean isFinished() { return finished; }
+
+	/**
+	* Stop this script. It is unwound the next
+	* time its scheduler would have resumed it.
+	**/
+	public void cancel() { cancelled = true; }
+
+	/**
+	* Pause until some number of seconds of
+	* scheduler time have elapsed.
+	*
+	* @param seconds the time to wait
+	**/
+	protected void waitSeconds(double seconds) {
+		pause(scheduler.getTime() + seconds, 0, null);
+	}
+
+	/**
+	* Pause for some number of ticks. waitTicks(1)
+	* resumes the script on the next tick.
+	*
+	* @param ticks the number of ticks to wait
+	**/
+	protected void waitTicks(int ticks) {
+		pause(0, scheduler.getTicks() + ticks, null);
+	}
+
+	/**
+	* Pause until a condition is true. The condition
+	* is checked once per tick, on the thread calling tick().
+	*
+	* @param condition the condition to wait for
+	**/
+	protected void waitUntil(BooleanSupplier condition) {
+		pause(0, scheduler.getTicks() + 1, condition);
+	}
+
+	private void pause(double time, long tick, BooleanSupplier condition) {
+		if (Thread.currentThread() != thread) {
+			throw new IllegalStateException("Scripts may only wait from within run()!");
+		}
+		wakeTime = time;
+		wakeTick = tick;
+		this.condition = condition;
+		paused.release();
+		resume.acquireUninterruptibly();
+		if (cancelled) { throw new Cancelled(); }
+	}
+
+	final void body() {
+		resume.acquireUninterruptibly();
+		try {
+			if (!cancelled) { run(); }
+		}
+		catch(Cancelled c) {}
+		catch(RuntimeException re) { re.printStackTrace(); }
+		finally {
+			condition = null;
+			finished = true;
+			paused.release();
+		}
+	}
+
+	/**
+	* Unwinds a cancelled script. This is an Error
+	* so that scripts catching Exception do not swallow it.
+	**/
+	@SuppressWarnings("serial")
+	private static class Cancelled extends Error {}
+}
@@ -0,0 +1,149 @@
+package coggame;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.concurrent.ThreadFactory;
+
+/**
+* A ScriptScheduler runs Scripts as cooperative
+* coroutines. Each script has a thread of its own,
+* but the scheduler hands control to exactly one at
+* a time, in the order the scripts were started, and
+* waits for it to pause again before moving on. The
+* outcome of a tick is therefore deterministic.
+*
+* Where the Java runtime supports virtual threads (Java 21
+* and later) they are used for scripts, which makes tens of
+* thousands of concurrent behaviours cheap. Otherwise, as on
+* the Java 17 runtime the build targets, every script is a
+* platform thread with a small stack, and so an operating
+* system thread. Each one still reserves its stack and kernel
+* resources, so on such runtimes scripts should number in the
+* hundreds or low thousands, and behaviours which many
+* entities share are better written as plain tick() code.
+* usesVirtualThreads() reports which case applies.
+*
+* Call tick() from the game's tick(), passing the same time.
+*
+* @author John Earnest
+**/
+public class ScriptScheduler {
+
+	private static final long FALLBACK_STACK_SIZE = 64 * 1024;
+	private static final ThreadFactory virtualThreads = virtualThreadFactory();
+
+	private Script[] scripts = new Script[16];
+	private int size = 0;
+	private double time = 0;
+	private long ticks = 0;
+
+	private static ThreadFactory virtualThreadFactory() {
+		// Thread.ofVirtual().factory(), where available
+		try {
+			final Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			final Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+			return (ThreadFactory) factory.invoke(builder);
+		}
+		catch(ReflectiveOperationException roe) { return null; }
+		catch(RuntimeException re) { return null; }
+	}
+
+	/**
+	* Returns true if scripts run on virtual threads.
+	**/
+	public static boolean usesVirtualThreads() { return virtualThreads != null; }
+
+	/**
+	* Returns the number of seconds of scheduler time elapsed.
+	**/
+	public double getTime() { return time; }
+
+	/**
+	* Returns the number of times tick() has been called.
+	**/
+	public long getTicks() { return ticks; }
+
+	/**
+	* Returns the number of scripts which have not yet finished.
+	**/
+	public int size() { return size; }
+
+	/**
+	* Start a script. It first runs during the next tick().
+	*
+	* @param script the script to start
+	**/
+	public void start(Script script) {
+		if (script.thread != null) { throw new IllegalStateException("Script already started!"); }
+		script.scheduler = this;
+		script.wakeTime = 0;
+		script.wakeTick = 0;
+		final Runnable body = new Runnable() {
+			public void run() { script.body(); }
+		};
+		if (virtualThreads != null) {
+			script.thread = virtualThreads.newThread(body);
+		}
+		else {
+			script.thread = new Thread(null, body, "coggame-script", FALLBACK_STACK_SIZE);
+			script.thread.setDaemon(true);
+		}
+		script.thread.start();
+		if (size == scripts.length) {
+			scripts = Arrays.copyOf(scripts, size * 2);
+		}
+		scripts[size++] = script;
+	}
+
+	/**
+	* Resume every script whose wait is over, in the
+	* order the scripts were started. Scripts started
+	* during this tick first run on the following tick.
+	*
+	* @param time the number of seconds since the last tick
+	**/
+	public void tick(double time) {
+		this.time += time;
+		ticks++;
+
+		final int count = size;
+		int live = 0;
+		for(int z = 0; z < count; z++) {
+			final Script s = scripts[z];
+			if (!s.finished && ready(s)) {
+				s.resume.release();
+				s.paused.acquireUninterruptibly();
+			}
+			if (!s.finished) { scripts[live++] = s; }
+		}
+
+		// keep scripts started from within scripts
+		for(int z = count; z < size; z++) {
+			scripts[live++] = scripts[z];
+		}
+		Arrays.fill(scripts, live, size, null);
+		size = live;
+	}
+
+	/**
+	* Cancel every running script, unwinding each one.
+	**/
+	public void cancelAll() {
+		for(int z = 0; z < size; z++) {
+			final Script s = scripts[z];
+			s.cancel();
+			if (!s.finished) {
+				s.resume.release();
+				s.paused.acquireUninterruptibly();
+			}
+			scripts[z] = null;
+		}
+		size = 0;
+	}
+
+	private boolean ready(Script s) {
+		if (s.cancelled) { return true; }
+		if (ticks < s.wakeTick || this.time < s.wakeTime) { return false; }
+		return s.condition == null || s.condition.getAsBoolean();
+	}
+}
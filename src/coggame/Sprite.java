@@ -23,6 +23,8 @@ public class Sprite extends Layer {
 	private final int frameHeight;
 	private final int sheetWidth;
 	private final Image frames;
+	private final int originX;
+	private final int originY;
 
 	private int transform = TRANS_NONE;
 	private int frame = 1;
@@ -46,7 +48,9 @@ public class Sprite extends Layer {
 	* @param frameHeight the height of an animation frame in pixels
 	**/
 	public Sprite(Image image, int frameWidth, int frameHeight) {
-		frames = image;
+		frames = AtlasRegion.sheet(image);
+		originX = AtlasRegion.originX(image);
+		originY = AtlasRegion.originY(image);
 		this.frameWidth = frameWidth;
 		this.frameHeight = frameHeight;
 		collision = new Rectangle(0, 0, frameWidth, frameHeight);
@@ -115,11 +119,30 @@ public class Sprite extends Layer {
 	* @param g the destination Graphics surface
 	**/
 	public void paint(Graphics g) {
-		if (!isVisible() || frame == 0) { return; }
-		final int tx = ((frame - 1) % sheetWidth) * frameWidth;
-		final int ty = ((frame - 1) / sheetWidth) * frameHeight;
-		final int dx = getX();
-		final int dy = getY();
+		if (!isVisible()) { return; }
+		draw(g, getX(), getY(), frame, transform);
+	}
+
+	boolean paintsPlain() { return getClass() == Sprite.class; }
+
+	Object capture(Object previous) {
+		final int[] state = (previous instanceof int[]) ? (int[]) previous : new int[4];
+		state[0] = getX();
+		state[1] = getY();
+		state[2] = (isVisible()) ? frame : 0;
+		state[3] = transform;
+		return state;
+	}
+
+	void paintCaptured(Graphics g, Object state) {
+		final int[] s = (int[]) state;
+		draw(g, s[0], s[1], s[2], s[3]);
+	}
+
+	private void draw(Graphics g, int dx, int dy, int frame, int transform) {
+		if (frame == 0) { return; }
+		final int tx = originX + ((frame - 1) % sheetWidth) * frameWidth;
+		final int ty = originY + ((frame - 1) / sheetWidth) * frameHeight;
 
 		if (transform == TRANS_NONE) {
 			g.drawImage(frames,
@@ -155,30 +178,24 @@ public class Sprite extends Layer {
 
 	/**
 	* Returns true if the collision box of this
-	* Sprite intersects with any non-zero tiles of
-	* the TiledLayer.
+	* Sprite intersects with any solid tiles of
+	* the TiledLayer. By default every non-zero
+	* tile is solid; see TiledLayer.setSolid().
 	*
 	* @param t the TiledLayer to check intersection with.
 	**/
 	public boolean collidesWith(TiledLayer t) {
-		int tx = (getX() - t.getX()) / t.getCellWidth();
-		int ty = (getY() - t.getY()) / t.getCellHeight();
-
-		int range = Math.max(	(collision.width / t.getCellWidth()) + 1,
-								(collision.height / t.getCellHeight()) + 1);
-
-		for(int x = -range; x <= range; x++) {
-			for(int y = -range; y <= range; y++) {
-				if (x + tx < 0 || x + tx >= t.getColumns()) { continue; }
-				if (y + ty < 0 || y + ty >= t.getRows())	{ continue; }
-				if (t.getCell(x + tx, y + ty) == 0)			{ continue; }
-				if (collidesWith(	(x + tx) * t.getCellWidth(),
-									(y + ty) * t.getCellHeight(),
-									t.getCellWidth(),
-									t.getCellHeight())) { return true; }
-			}
-		}
-		return false;
+		final int x = getX() + collision.x - t.getX();
+		final int y = getY() + collision.y - t.getY();
+		final int cw = t.getCellWidth();
+		final int ch = t.getCellHeight();
+
+		// as with collidesWith(int, int, int, int), touching counts
+		final int c0 = Math.floorDiv(x, cw);
+		final int r0 = Math.floorDiv(y, ch);
+		final int c1 = Math.floorDiv(x + collision.width, cw);
+		final int r1 = Math.floorDiv(y + collision.height, ch);
+		return t.isAnySolid(c0, r0, c1 - c0 + 1, r1 - r0 + 1);
 	}
 
 	/**
@@ -0,0 +1,244 @@
+package coggame;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+* A SystemScheduler runs a collection of GameSystems
+* each tick, using every available core.
+*
+* Each system declares the resources it reads and writes.
+* Resources are arbitrary objects, compared by identity;
+* typically the entity arrays or layers a system touches.
+* Systems are grouped into stages: a system is placed in
+* the first stage after every earlier-registered system
+* it conflicts with, where two systems conflict if either
+* writes something the other reads or writes. Systems
+* within a stage run in parallel and stages run in order,
+* so every pair of conflicting systems runs in registration
+* order and the outcome does not depend on the number
+* of cores.
+*
+* A typical game calls run() from tick():
+* <pre>
+* public void tick(double time) { scheduler.run(time); }
+* </pre>
+*
+* @author John Earnest
+**/
+public class SystemScheduler {
+
+	private final ForkJoinPool pool;
+	private final List<Entry> entries = new ArrayList<Entry>();
+	private Entry[][] stages = new Entry[0][];
+	private boolean dirty = false;
+	private double time;
+
+	/**
+	* Create a SystemScheduler which runs systems
+	* on the common ForkJoinPool.
+	**/
+	public SystemScheduler() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	/**
+	* Create a SystemScheduler which runs systems
+	* on the provided ForkJoinPool.
+	*
+	* @param pool the pool on which to run systems
+	**/
+	public SystemScheduler(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	* Register a system. Systems are considered in
+	* the order they are added.
+	*
+	* @param system the system to run each tick
+	* @param reads the resources the system reads but does not modify
+	* @param writes the resources the system modifies
+	**/
+	public void add(GameSystem system, Object[] reads, Object[] writes) {
+		entries.add(new Entry(system,
+			(reads == null)  ? new Object[0] : reads.clone(),
+			(writes == null) ? new Object[0] : writes.clone()
+		));
+		dirty = true;
+	}
+
+	/**
+	* Remove a system.
+	*
+	* @param system the system to remove
+	**/
+	public void remove(GameSystem system) {
+		for(int z = 0; z < entries.size(); z++) {
+			if (entries.get(z).system == system) {
+				entries.remove(z);
+				dirty = true;
+				return;
+			}
+		}
+	}
+
+	/**
+	* Returns the number of stages systems are currently
+	* grouped into. A scheduler with as many stages as
+	* systems runs entirely sequentially.
+	**/
+	public int getStageCount() {
+		if (dirty) { plan(); }
+		return stages.length;
+	}
+
+	/**
+	* Run every system once.
+	*
+	* @param time the number of seconds since the last tick
+	**/
+	public void run(double time) {
+		if (dirty) { plan(); }
+		this.time = time;
+		for(Entry[] stage : stages) {
+			if (stage.length == 1) {
+				stage[0].system.update(time);
+				continue;
+			}
+			for(Entry e : stage) { e.reinitialize(); }
+			if (ForkJoinTask.inForkJoinPool()) {
+				ForkJoinTask.invokeAll(stage);
+			}
+			else {
+				final Stage s = stage[0].stage;
+				s.reinitialize();
+				pool.invoke(s);
+			}
+		}
+	}
+
+	/**
+	* Split a per-entity loop into chunks of a fixed
+	* size and process them in parallel, returning once
+	* every chunk is finished. Because chunk boundaries
+	* depend only on the chunk size, the work done by each
+	* call to the task is the same on any number of cores.
+	* This may be called from within a running GameSystem.
+	*
+	* @param count the number of entities
+	* @param chunkSize the number of entities processed per task
+	* @param task the work to perform on each range
+	**/
+	public void parallelFor(int count, int chunkSize, RangeTask task) {
+		if (count <= chunkSize) {
+			if (count > 0) { task.run(0, count); }
+			return;
+		}
+		final Range root = new Range(task, 0, count, chunkSize);
+		if (ForkJoinTask.inForkJoinPool()) { root.invoke(); }
+		else { pool.invoke(root); }
+	}
+
+	private boolean conflicts(Entry a, Entry b) {
+		for(Object w : a.writes) {
+			if (contains(b.reads, w) || contains(b.writes, w)) { return true; }
+		}
+		for(Object w : b.writes) {
+			if (contains(a.reads, w)) { return true; }
+		}
+		return false;
+	}
+
+	private static boolean contains(Object[] set, Object o) {
+		for(Object x : set) {
+			if (x == o) { return true; }
+		}
+		return false;
+	}
+
+	private void plan() {
+		final int[] level = new int[entries.size()];
+		int depth = 0;
+		for(int z = 0; z < entries.size(); z++) {
+			for(int y = 0; y < z; y++) {
+				if (level[y] >= level[z] && conflicts(entries.get(y), entries.get(z))) {
+					level[z] = level[y] + 1;
+				}
+			}
+			depth = Math.max(depth, level[z] + 1);
+		}
+
+		final List<List<Entry>> grouped = new ArrayList<List<Entry>>();
+		for(int z = 0; z < depth; z++) { grouped.add(new ArrayList<Entry>()); }
+		for(int z = 0; z < entries.size(); z++) { grouped.get(level[z]).add(entries.get(z)); }
+
+		stages = new Entry[depth][];
+		for(int z = 0; z < depth; z++) {
+			stages[z] = grouped.get(z).toArray(new Entry[0]);
+			final Stage s = new Stage(stages[z]);
+			for(Entry e : stages[z]) { e.stage = s; }
+		}
+		dirty = false;
+	}
+
+	@SuppressWarnings("serial")
+	private class Entry extends RecursiveAction {
+		private final GameSystem system;
+		private final Object[] reads;
+		private final Object[] writes;
+		private Stage stage;
+
+		public Entry(GameSystem system, Object[] reads, Object[] writes) {
+			this.system = system;
+			this.reads = reads;
+			this.writes = writes;
+		}
+
+		protected void compute() {
+			system.update(time);
+		}
+	}
+
+	@SuppressWarnings("serial")
+	private class Stage extends RecursiveAction {
+		private final Entry[] members;
+
+		public Stage(Entry[] members) {
+			this.members = members;
+		}
+
+		protected void compute() {
+			invokeAll(members);
+		}
+	}
+
+	@SuppressWarnings("serial")
+	private static class Range extends RecursiveAction {
+		private final RangeTask task;
+		private final int from;
+		private final int to;
+		private final int chunkSize;
+
+		public Range(RangeTask task, int from, int to, int chunkSize) {
+			this.task = task;
+			this.from = from;
+			this.to = to;
+			this.chunkSize = chunkSize;
+		}
+
+		protected void compute() {
+			if (to - from <= chunkSize) {
+				task.run(from, to);
+				return;
+			}
+			// split on a chunk boundary so ranges are independent of scheduling
+			final int chunks = (to - from + chunkSize - 1) / chunkSize;
+			final int mid = from + (chunks / 2) * chunkSize;
+			invokeAll(new Range(task, from, mid, chunkSize), new Range(task, mid, to, chunkSize));
+		}
+	}
+}
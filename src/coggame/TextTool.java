@@ -2,8 +2,14 @@ package coggame;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.LinkedHashMap;
+import java.awt.AlphaComposite;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
 import java.awt.Image;
+import java.awt.image.BufferedImage;
 
 /**
 * The TextTool is a utility for working with
@@ -11,15 +17,49 @@ import java.awt.Image;
 * in the form of a grid of characters representing the
 * ASCII characters from 32 to 126 (' ' to '~'), inclusive.
 *
+* Strings and boxes are rendered once into an image
+* and kept in a small least-recently-used cache, so
+* drawing a static label costs a single blit. Once the
+* cache is full, the image of the entry it evicts is cleared
+* and reused for the next string or box not yet seen, so
+* text which changes every frame, such as a score, does not
+* allocate a new image each time it changes. An image drawn
+* into a RenderBuffer is not reused until that buffer has
+* been cleared, since it is only drawn when replayed.
+*
 * @author John Earnest
 **/
 public class TextTool {
 	
 	private final Image font;
+	private final int originX;
+	private final int originY;
 	private final int charWidth;
 	private final int charHeight;
 	private final int sheetWidth;
 	private final boolean tileCoords;
+	private final BoxKey probe = new BoxKey();
+	private final Map<Object, Entry> cache = new LinkedHashMap<Object, Entry>(16, .75f, true) {
+		protected boolean removeEldestEntry(Map.Entry<Object, Entry> eldest) {
+			if (size() <= cacheSize) { return false; }
+			// keep the larger evicted image to render the next miss into
+			final Entry e = eldest.getValue();
+			if (spare == null || e.image.getWidth() * e.image.getHeight() > spare.image.getWidth() * spare.image.getHeight()) {
+				spare = e;
+			}
+			if (eldest.getKey() instanceof BoxKey) { spareKey = (BoxKey) eldest.getKey(); }
+			return true;
+		}
+	};
+	private int cacheSize = DEFAULT_CACHE_SIZE;
+	private Entry spare;
+	private BoxKey spareKey;
+
+	/**
+	* The number of rendered strings and boxes
+	* a new TextTool will cache.
+	**/
+	public static final int DEFAULT_CACHE_SIZE = 64;
 
 	/**
 	* Construct a new TextTool.
@@ -33,7 +73,9 @@ public class TextTool {
 	* @param tileCoords select drawing units
 	**/
 	public TextTool(Image font, int charWidth, int charHeight, boolean tileCoords) {
-		this.font = font;
+		this.font = AtlasRegion.sheet(font);
+		originX = AtlasRegion.originX(font);
+		originY = AtlasRegion.originY(font);
 		this.charWidth = charWidth;
 		this.charHeight = charHeight;
 		sheetWidth = font.getWidth(null) / charWidth;
@@ -50,6 +92,31 @@ public class TextTool {
 	**/
 	public int charHeight() { return charHeight; }
 
+	/**
+	* Set the maximum number of rendered strings and boxes
+	* to retain. The least recently drawn entries are
+	* discarded first. A size of 0 disables caching and
+	* draws every character individually.
+	*
+	* @param size the maximum number of cached images
+	**/
+	public void setCacheSize(int size) {
+		if (size < 0) { throw new IllegalArgumentException("Negative cache size!"); }
+		cacheSize = size;
+		while(cache.size() > size) {
+			cache.remove(cache.keySet().iterator().next());
+		}
+	}
+
+	/**
+	* Discard all cached strings and boxes.
+	**/
+	public void clearCache() {
+		cache.clear();
+		spare = null;
+		spareKey = null;
+	}
+
 	/**
 	* Draw a single character
 	*
@@ -59,15 +126,8 @@ public class TextTool {
 	* @param g the destination Graphics surface
 	**/
 	public void drawChar(char c, int x, int y, Graphics g) {
-		if (c < ' ' || c > '~') { throw new IllegalArgumentException("Character out of range. ("+((int)c)+")"); }
-		
-		final int tx = ((c - ' ') % sheetWidth) * charWidth;
-		final int ty = ((c - ' ') / sheetWidth) * charHeight;
-		final int dx = (tileCoords) ? (x * charWidth) : x;
-		final int dy = (tileCoords) ? (y * charHeight) : y;
-		g.drawImage( font,
-						dx, dy, dx + charWidth, dy + charHeight,
-						tx, ty, tx + charWidth, ty + charHeight, null);
+		checkRange(c);
+		blit(c, (tileCoords) ? (x * charWidth) : x, (tileCoords) ? (y * charHeight) : y, g);
 	}
 
 	/**
@@ -79,9 +139,57 @@ public class TextTool {
 	* @param g the destination Graphics surface
 	**/
 	public void drawString(String text, int x, int y, Graphics g) {
-		for(char c : text.toCharArray()) {
-			drawChar(c, x, y, g);
-			x += (tileCoords) ? 1 : charWidth;
+		if (text.length() == 0) { return; }
+		final int dx = (tileCoords) ? (x * charWidth) : x;
+		final int dy = (tileCoords) ? (y * charHeight) : y;
+		if (cacheSize == 0) {
+			drawRun(text, 0, text.length(), dx, dy, g);
+			return;
+		}
+		Entry run = cache.get(text);
+		if (run == null) {
+			run = entry(text.length() * charWidth, charHeight);
+			drawRun(text, 0, text.length(), 0, 0, run.g);
+			cache.put(text, run);
+		}
+		run.draw(dx, dy, g);
+	}
+
+	/**
+	* Draw a range of characters from a CharSequence.
+	* Unlike drawString(String, ...) this never caches
+	* or copies the text, which makes it suitable for
+	* drawing lines produced by WordWrap or WrappedText.
+	*
+	* @param text the text containing the characters to draw
+	* @param start the offset of the first character to draw
+	* @param end the offset just past the last character to draw
+	* @param x the x-offset at which to draw the first character
+	* @param y the y-offset at which to draw the first character
+	* @param g the destination Graphics surface
+	**/
+	public void drawString(CharSequence text, int start, int end, int x, int y, Graphics g) {
+		final int dx = (tileCoords) ? (x * charWidth) : x;
+		final int dy = (tileCoords) ? (y * charHeight) : y;
+		drawRun(text, start, end, dx, dy, g);
+	}
+
+	/**
+	* Draw a series of consecutive lines from a WrappedText,
+	* one below the other.
+	*
+	* @param text the wrapped text to draw
+	* @param firstLine the 0-indexed first line to draw
+	* @param lineCount the maximum number of lines to draw
+	* @param x the x-offset of the upper-left corner of the first line
+	* @param y the y-offset of the upper-left corner of the first line
+	* @param g the destination Graphics surface
+	**/
+	public void drawLines(WrappedText text, int firstLine, int lineCount, int x, int y, Graphics g) {
+		final int last = Math.min(text.getLineCount(), firstLine + lineCount);
+		for(int line = Math.max(0, firstLine); line < last; line++) {
+			drawString(text.getText(), text.getLineStart(line), text.getLineEnd(line), x, y, g);
+			y += (tileCoords) ? 1 : charHeight;
 		}
 	}
 
@@ -102,55 +210,160 @@ public class TextTool {
 	* @param t an array of character indices for the border and fill
 	**/
 	public void drawBox(int x, int y, int w, int h, char[] t, Graphics g) {
-		final int hscale = (tileCoords) ? 1 : charWidth;
-		final int vscale = (tileCoords) ? 1 : charHeight;
+		final int dx = (tileCoords) ? (x * charWidth) : x;
+		final int dy = (tileCoords) ? (y * charHeight) : y;
+		for(int z = 0; z < 9; z++) { checkRange(t[z]); }
+		if (cacheSize == 0) {
+			renderBox(dx, dy, w, h, t, g);
+			return;
+		}
+		probe.set(w, h, t);
+		Entry box = cache.get(probe);
+		if (box == null) {
+			box = entry((w + 2) * charWidth, (h + 2) * charHeight);
+			renderBox(0, 0, w, h, t, box.g);
+			final BoxKey key = (spareKey != null) ? spareKey : new BoxKey();
+			spareKey = null;
+			key.set(w, h, t);
+			cache.put(key, box);
+		}
+		box.draw(dx, dy, g);
+	}
+
+	/**
+	* Returns a blank cache entry of a given size, reusing
+	* the image of an evicted entry if it is large enough.
+	**/
+	private Entry entry(int width, int height) {
+		Entry ret = spare;
+		if (ret != null && !ret.isPending() && ret.image.getWidth() >= width && ret.image.getHeight() >= height) {
+			spare = null;
+			ret.g.setComposite(AlphaComposite.Clear);
+			ret.g.fillRect(0, 0, ret.width, ret.height);
+			ret.g.setComposite(AlphaComposite.SrcOver);
+		}
+		else {
+			ret = new Entry(width, height);
+		}
+		ret.width = width;
+		ret.height = height;
+		return ret;
+	}
+
+	private void renderBox(int x, int y, int w, int h, char[] t, Graphics g) {
 		final int nedge = y;
-    	final int sedge = y + (vscale * (h + 1));
-    	final int wedge = x;
-    	final int eedge = x + (hscale * (w + 1));
-		drawChar(t[0], wedge, nedge, g);
-    	drawChar(t[2], eedge, nedge, g);
-    	drawChar(t[6], wedge, sedge, g);
-    	drawChar(t[8], eedge, sedge, g);
+		final int sedge = y + (charHeight * (h + 1));
+		final int wedge = x;
+		final int eedge = x + (charWidth * (w + 1));
+		blit(t[0], wedge, nedge, g);
+		blit(t[2], eedge, nedge, g);
+		blit(t[6], wedge, sedge, g);
+		blit(t[8], eedge, sedge, g);
 		for (int z = 1; z <= h; z++) {
-			drawChar(t[3], wedge, y + (vscale * z), g);
-			drawChar(t[5], eedge, y + (vscale * z), g);
+			blit(t[3], wedge, y + (charHeight * z), g);
+			blit(t[5], eedge, y + (charHeight * z), g);
 		}
 		for (int z = 1; z <= w; z++) {
-			drawChar(t[1], x + (hscale * z), nedge, g);
-			drawChar(t[7], x + (hscale * z), sedge, g);
+			blit(t[1], x + (charWidth * z), nedge, g);
+			blit(t[7], x + (charWidth * z), sedge, g);
 			for (int a = 1; a <= h; a++) {
-				drawChar(t[4], x + (hscale * z), y + (vscale * a), g);
+				blit(t[4], x + (charWidth * z), y + (charHeight * a), g);
 			}
 		}
 	}
 
+	private void drawRun(CharSequence text, int start, int end, int x, int y, Graphics g) {
+		for(int z = start; z < end; z++) {
+			checkRange(text.charAt(z));
+		}
+		for(int z = start; z < end; z++) {
+			blit(text.charAt(z), x, y, g);
+			x += charWidth;
+		}
+	}
+
+	private static void checkRange(char c) {
+		if (c < ' ' || c > '~') { throw new IllegalArgumentException("Character out of range. ("+((int)c)+")"); }
+	}
+
+	private void blit(char c, int dx, int dy, Graphics g) {
+		final int tx = originX + ((c - ' ') % sheetWidth) * charWidth;
+		final int ty = originY + ((c - ' ') / sheetWidth) * charHeight;
+		g.drawImage( font,
+						dx, dy, dx + charWidth, dy + charHeight,
+						tx, ty, tx + charWidth, ty + charHeight, null);
+	}
+
 	/**
 	* Split a string into a series of lines no longer
 	* than a specified width by breaking on spaces between words.
 	* Useful for word-wrapped dialog boxes, etc.
+	* For text which is re-wrapped frequently, prefer
+	* WordWrap or WrappedText, which do not copy lines.
 	*
 	* @param text the string to word-wrap
 	* @param width the maximum width in characters of a wrapped line
 	**/
 	public static List<String> wrap(String text, int width) {
 		final List<String> ret = new ArrayList<String>();
+		final WordWrap lines = new WordWrap(text, width);
+		while(lines.next()) {
+			ret.add(text.substring(lines.start(), lines.end()));
+		}
+		return ret;
+	}
+
+	private static class Entry {
+		private final BufferedImage image;
+		private final Graphics2D g;
+		private int width;
+		private int height;
+		// the RenderBuffer this was last drawn into, if any
+		private RenderBuffer recorder;
+		private long generation;
+
+		private Entry(int width, int height) {
+			image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+			g = image.createGraphics();
+		}
 
-		int line = 0;
-		int head = width;
-		
-		while(head < text.length()) {
-			while(head > line && text.charAt(head) != ' ') {
-				head--;
+		private void draw(int dx, int dy, Graphics dest) {
+			final RenderBuffer r = RenderBuffer.recording(dest);
+			if (r != null) {
+				recorder = r;
+				generation = r.getGeneration();
 			}
-			ret.add(text.substring(line, head));
-			line = head + 1;
-			head = line + width;
+			dest.drawImage(image, dx, dy, dx + width, dy + height, 0, 0, width, height, null);
 		}
-		if (line < text.length()) {
-			ret.add(text.substring(line));
+
+		/**
+		* Returns true if a RenderBuffer has recorded this
+		* image and has not yet been cleared.
+		**/
+		private boolean isPending() {
+			return recorder != null && recorder.getGeneration() == generation;
+		}
+	}
+
+	private static class BoxKey {
+		private int w;
+		private int h;
+		private final char[] t = new char[9];
+
+		private void set(int w, int h, char[] t) {
+			this.w = w;
+			this.h = h;
+			System.arraycopy(t, 0, this.t, 0, 9);
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof BoxKey)) { return false; }
+			BoxKey k = (BoxKey) o;
+			return k.w == w && k.h == h && Arrays.equals(k.t, t);
+		}
+
+		public int hashCode() {
+			return (w * 31 + h) * 31 + Arrays.hashCode(t);
 		}
-		
-		return ret;
 	}
 }
\ No newline at end of file
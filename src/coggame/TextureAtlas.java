@@ -0,0 +1,299 @@
+package coggame;
+
+import java.awt.Graphics2D;
+import java.awt.AlphaComposite;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.LinkedHashMap;
+import javax.imageio.ImageIO;
+
+/**
+* A TextureAtlas packs many small images onto one or a
+* few large pages, so that a scene built from several
+* tile sheets, sprite sheets and fonts draws from a
+* single surface.
+*
+* Images are added by name and packed together, largest
+* first, with a skyline bottom-left packer. get() then
+* returns an image of the original's place on its page,
+* which can be drawn or passed around exactly as the
+* original would. Given to the constructors of Sprite,
+* TiledLayer, TextTool and ParticleLayer, it is drawn
+* from the atlas page transparently.
+* <pre>
+* TextureAtlas atlas = new TextureAtlas(512, 512);
+* atlas.add("assets/steel.png");
+* atlas.add("assets/robot.png");
+* atlas.add("assets/text.png");
+* TiledLayer floor = new TiledLayer(40, 30, atlas.get("assets/steel.png"), 16, 16);
+* </pre>
+*
+* An atlas can be saved once packed, and loaded again
+* later without repacking, so that atlases may be built
+* ahead of time.
+*
+* @author John Earnest
+**/
+public class TextureAtlas {
+
+	private static final String HEADER = "coggame-atlas";
+
+	private final int pageWidth;
+	private final int pageHeight;
+	private final int padding;
+	private final List<BufferedImage> pages = new ArrayList<BufferedImage>();
+	private final List<int[]> skylines = new ArrayList<int[]>();
+	private final Map<String, Image> queued = new LinkedHashMap<String, Image>();
+	private final Map<String, BufferedImage> regions = new LinkedHashMap<String, BufferedImage>();
+
+	/**
+	* Create a new, empty TextureAtlas.
+	*
+	* @param pageWidth the width of each page in pixels
+	* @param pageHeight the height of each page in pixels
+	**/
+	public TextureAtlas(int pageWidth, int pageHeight) {
+		this(pageWidth, pageHeight, 0);
+	}
+
+	/**
+	* Create a new, empty TextureAtlas which leaves
+	* a gap between packed images.
+	*
+	* @param pageWidth the width of each page in pixels
+	* @param pageHeight the height of each page in pixels
+	* @param padding the number of empty pixels to leave around each image
+	**/
+	public TextureAtlas(int pageWidth, int pageHeight, int padding) {
+		this.pageWidth = pageWidth;
+		this.pageHeight = pageHeight;
+		this.padding = padding;
+	}
+
+	/**
+	* Add an image resource to the atlas, named by its filename.
+	*
+	* @param filename the filename of the image resource
+	**/
+	public void add(String filename) {
+		add(filename, ImageTool.loadImage(filename));
+	}
+
+	/**
+	* Add an image to the atlas. It is packed the next
+	* time pack() or get() is called.
+	*
+	* @param name the name by which the image will be retrieved
+	* @param image the image to add
+	**/
+	public void add(String name, Image image) {
+		if (regions.containsKey(name) || queued.containsKey(name)) {
+			throw new IllegalArgumentException("Duplicate atlas image: " + name);
+		}
+		final int w = image.getWidth(null) + padding * 2;
+		final int h = image.getHeight(null) + padding * 2;
+		if (w > pageWidth || h > pageHeight) {
+			throw new IllegalArgumentException("Image too large for atlas page: " + name);
+		}
+		queued.put(name, image);
+	}
+
+	/**
+	* Returns the image of a named image on its
+	* atlas page, packing queued images first if necessary.
+	* Returns null if no such image was added.
+	*
+	* @param name the name the image was added with
+	**/
+	public Image get(String name) {
+		if (!queued.isEmpty()) { pack(); }
+		return regions.get(name);
+	}
+
+	/**
+	* Returns true if an image with a given name has been added.
+	*
+	* @param name the name to check
+	**/
+	public boolean contains(String name) {
+		return regions.containsKey(name) || queued.containsKey(name);
+	}
+
+	/**
+	* Returns the number of pages in use.
+	**/
+	public int getPageCount() {
+		if (!queued.isEmpty()) { pack(); }
+		return pages.size();
+	}
+
+	/**
+	* Returns a page of the atlas.
+	*
+	* @param index the 0-indexed page number
+	**/
+	public BufferedImage getPage(int index) {
+		if (!queued.isEmpty()) { pack(); }
+		return pages.get(index);
+	}
+
+	/**
+	* Pack every queued image onto the pages, starting a new
+	* page whenever an image does not fit on any existing page.
+	* Taller images are placed first, which packs more tightly.
+	**/
+	public void pack() {
+		final List<Map.Entry<String, Image>> order = new ArrayList<Map.Entry<String, Image>>(queued.entrySet());
+		order.sort(new Comparator<Map.Entry<String, Image>>() {
+			public int compare(Map.Entry<String, Image> a, Map.Entry<String, Image> b) {
+				final Image i = a.getValue();
+				final Image j = b.getValue();
+				if (i.getHeight(null) != j.getHeight(null)) { return j.getHeight(null) - i.getHeight(null); }
+				return j.getWidth(null) - i.getWidth(null);
+			}
+		});
+		queued.clear();
+
+		final int[] spot = new int[2];
+		for(Map.Entry<String, Image> e : order) {
+			final Image image = e.getValue();
+			final int w = image.getWidth(null) + padding * 2;
+			final int h = image.getHeight(null) + padding * 2;
+			int page = 0;
+			while(page < pages.size() && !place(skylines.get(page), w, h, spot)) { page++; }
+			if (page == pages.size()) {
+				pages.add(new BufferedImage(pageWidth, pageHeight, BufferedImage.TYPE_INT_ARGB));
+				skylines.add(new int[pageWidth]);
+				place(skylines.get(page), w, h, spot);
+			}
+
+			final BufferedImage p = pages.get(page);
+			final int x = spot[0] + padding;
+			final int y = spot[1] + padding;
+			final Graphics2D g = p.createGraphics();
+			g.setComposite(AlphaComposite.Src);
+			g.drawImage(image, x, y, null);
+			g.dispose();
+			regions.put(e.getKey(), AtlasRegion.create(p, x, y, image.getWidth(null), image.getHeight(null), image));
+		}
+	}
+
+	/**
+	* Find the lowest position (then the leftmost) at which
+	* a rectangle rests on the skyline, and raise the skyline
+	* beneath it. Returns false if the rectangle does not fit.
+	**/
+	private boolean place(int[] skyline, int w, int h, int[] spot) {
+		int bestX = -1;
+		int bestY = Integer.MAX_VALUE;
+		for(int x = 0; x + w <= pageWidth; x++) {
+			int y = 0;
+			for(int z = x; z < x + w && y < bestY; z++) { y = Math.max(y, skyline[z]); }
+			if (y < bestY && y + h <= pageHeight) {
+				bestX = x;
+				bestY = y;
+			}
+			// no position within the next run of equal height can rest any lower
+			while(x + 1 + w <= pageWidth && skyline[x + 1] == skyline[x]) { x++; }
+		}
+		if (bestX < 0) { return false; }
+		Arrays.fill(skyline, bestX, bestX + w, bestY + h);
+		spot[0] = bestX;
+		spot[1] = bestY;
+		return true;
+	}
+
+	/**
+	* Save this atlas. Each page is written as a PNG file
+	* named after the index file, so "sprites.atlas" is
+	* accompanied by "sprites.atlas.0.png" and so on.
+	* Returns true if the atlas was saved successfully.
+	*
+	* @param filename the path of the index file
+	**/
+	public boolean save(String filename) {
+		if (!queued.isEmpty()) { pack(); }
+		try {
+			for(int z = 0; z < pages.size(); z++) {
+				ImageIO.write(pages.get(z), "png", new File(filename + "." + z + ".png"));
+			}
+			final PrintWriter out = new PrintWriter(new FileWriter(filename));
+			out.format("%s %d %d %d %d%n", HEADER, pages.size(), pageWidth, pageHeight, padding);
+			for(Map.Entry<String, BufferedImage> e : regions.entrySet()) {
+				final BufferedImage i = e.getValue();
+				final AtlasRegion r = AtlasRegion.of(i);
+				out.format("%d %d %d %d %d %s%n", pages.indexOf(r.page), r.x, r.y, i.getWidth(), i.getHeight(), e.getKey());
+			}
+			out.close();
+			return !out.checkError();
+		}
+		catch(IOException ioe) {
+			ioe.printStackTrace();
+			return false;
+		}
+	}
+
+	/**
+	* Load an atlas previously written by save().
+	* Returns null if the atlas could not be read.
+	* Further images may be added to a loaded atlas;
+	* they are packed onto new pages.
+	*
+	* @param filename the path of the index file
+	**/
+	public static TextureAtlas load(String filename) {
+		try {
+			final BufferedReader in = new BufferedReader(new FileReader(filename));
+			try {
+				final String[] header = in.readLine().split(" ");
+				if (!HEADER.equals(header[0])) { return null; }
+				final TextureAtlas ret = new TextureAtlas(
+					Integer.parseInt(header[2]),
+					Integer.parseInt(header[3]),
+					Integer.parseInt(header[4])
+				);
+				final int count = Integer.parseInt(header[1]);
+				for(int z = 0; z < count; z++) {
+					final BufferedImage page = new BufferedImage(ret.pageWidth, ret.pageHeight, BufferedImage.TYPE_INT_ARGB);
+					final Graphics2D g = page.createGraphics();
+					g.drawImage(ImageIO.read(new File(filename + "." + z + ".png")), 0, 0, null);
+					g.dispose();
+					ret.pages.add(page);
+
+					// loaded pages are treated as full
+					final int[] skyline = new int[ret.pageWidth];
+					Arrays.fill(skyline, ret.pageHeight);
+					ret.skylines.add(skyline);
+				}
+				for(String line = in.readLine(); line != null; line = in.readLine()) {
+					if (line.isEmpty()) { continue; }
+					final String[] f = line.split(" ", 6);
+					ret.regions.put(f[5], AtlasRegion.create(
+						ret.pages.get(Integer.parseInt(f[0])),
+						Integer.parseInt(f[1]),
+						Integer.parseInt(f[2]),
+						Integer.parseInt(f[3]),
+						Integer.parseInt(f[4]),
+						null
+					));
+				}
+				return ret;
+			}
+			finally { in.close(); }
+		}
+		catch(IOException ioe) { ioe.printStackTrace(); }
+		catch(RuntimeException re) { re.printStackTrace(); }
+		return null;
+	}
+}
@@ -0,0 +1,29 @@
+package coggame;
+
+import java.util.Random;
+
+/**
+* A TileGenerator procedurally fills a chunk of
+* an endless tiled map. Generators are used by
+* ProceduralLayer, which calls them on background
+* threads, so implementations must not touch shared
+* mutable state and should draw every random choice
+* from the Random they are given. Doing so guarantees
+* that a chunk is identical every time it is generated
+* from the same seed.
+*
+* @author John Earnest
+**/
+public interface TileGenerator {
+
+	/**
+	* Fill a chunk of tiles. The chunk is a fresh,
+	* empty TiledLayer owned by the caller.
+	*
+	* @param chunk the TiledLayer to fill
+	* @param chunkX the chunk's column, counting in chunks from the origin
+	* @param chunkY the chunk's row, counting in chunks from the origin
+	* @param random a generator seeded from the map seed and chunk coordinates
+	**/
+	public void generate(TiledLayer chunk, int chunkX, int chunkY, Random random);
+}
@@ -14,10 +14,12 @@ import java.awt.image.BufferedImage;
 **/
 public class TiledImage extends Layer {
 
-	private final Image image;
+	private final int imageWidth;
+	private final int imageHeight;
 	private final boolean wrapVertical;
 	private final boolean wrapHorizontal;
 	private final Rectangle clip;
+	private BufferedImage texture;
 
 	/**
 	* Create a new TiledImage.
@@ -28,10 +30,12 @@ public class TiledImage extends Layer {
 	* @param clip a Rectangle defining the drawing region
 	**/
 	public TiledImage(Image image, boolean wrapHorizontal, boolean wrapVertical, Rectangle clip) {
-		this.image = image;
+		this.imageWidth = image.getWidth(null);
+		this.imageHeight = image.getHeight(null);
 		this.wrapVertical = wrapVertical;
 		this.wrapHorizontal = wrapHorizontal;
 		this.clip = clip;
+		build(image, clip);
 	}
 
 	/**
@@ -43,22 +47,56 @@ public class TiledImage extends Layer {
 	* @param clip a Rectangle defining the drawing region
 	**/
 	public TiledImage(Layer layer, boolean wrapHorizontal, boolean wrapVertical, Rectangle clip) {
-		image = new BufferedImage(layer.getWidth(), layer.getHeight(), BufferedImage.TYPE_INT_ARGB);
-		layer.paint(image.getGraphics());
-		this.wrapVertical = wrapVertical;
-		this.wrapHorizontal = wrapHorizontal;
-		this.clip = clip;
+		this(snapshot(layer), wrapHorizontal, wrapVertical, clip);
+	}
+
+	private static Image snapshot(Layer layer) {
+		final Image ret = new BufferedImage(layer.getWidth(), layer.getHeight(), BufferedImage.TYPE_INT_ARGB);
+		final Graphics g = ret.getGraphics();
+		layer.paint(g);
+		g.dispose();
+		return ret;
 	}
-	
+
 	/**
 	* Returns the width of the source image in pixels.
 	**/
-	public int getWidth() { return image.getWidth(null); }
+	public int getWidth() { return imageWidth; }
 
 	/**
 	* Returns the height of the source image in pixels.
 	**/
-	public int getHeight() { return image.getHeight(null); }
+	public int getHeight() { return imageHeight; }
+
+	/**
+	* Pre-wrap the source image into a texture containing
+	* enough repeated copies along each wrapped axis that
+	* any clip-sized window starting within the first copy
+	* can be drawn with a single blit. Sources without
+	* transparency are stored in an opaque image.
+	**/
+	private void build(Image source, Rectangle clip) {
+		final int cols = (wrapHorizontal) ? 1 + (clip.width  + imageWidth  - 1) / imageWidth  : 1;
+		final int rows = (wrapVertical)   ? 1 + (clip.height + imageHeight - 1) / imageHeight : 1;
+		final int type = (ImageTool.hasTransparency(source)) ?	BufferedImage.TYPE_INT_ARGB :
+																BufferedImage.TYPE_INT_RGB;
+		final BufferedImage ret = new BufferedImage(cols * imageWidth, rows * imageHeight, type);
+		final Graphics g = ret.getGraphics();
+		final Image sheet = AtlasRegion.sheet(source);
+		final int ox = AtlasRegion.originX(source);
+		final int oy = AtlasRegion.originY(source);
+		for(int x = 0; x < cols; x++) {
+			for(int y = 0; y < rows; y++) {
+				final int dx = x * imageWidth;
+				final int dy = y * imageHeight;
+				g.drawImage(sheet,
+							dx, dy, dx + imageWidth, dy + imageHeight,
+							ox, oy, ox + imageWidth, oy + imageHeight, null);
+			}
+		}
+		g.dispose();
+		texture = ret;
+	}
 
 	/**
 	* Draws the tiled image.
@@ -66,57 +104,77 @@ public class TiledImage extends Layer {
 	* @param g the destination Graphics surface
 	**/
 	public void paint(Graphics g) {
-		if (!isVisible()) { return; }		
-		int tx = getX() % getWidth();
-		int ty = getY() % getHeight();
-		while (tx < getWidth())		{ tx += getWidth(); }
-		while (ty < getHeight())	{ ty += getHeight(); }
+		if (!isVisible()) { return; }
+		draw(g, getX(), getY(), clip);
+	}
+
+	// within a Viewport the clip stays put and the image scrolls beneath it,
+	// unless a subclass draws something else and must be translated instead
+	void paint(Graphics g, int dx, int dy) {
+		if (!paintsPlain()) {
+			super.paint(g, dx, dy);
+			return;
+		}
+		if (!isVisible()) { return; }
+		draw(g, getX() + dx, getY() + dy, clip);
+	}
+
+	boolean paintsPlain() { return getClass() == TiledImage.class; }
+
+	Object capture(Object previous) {
+		final Placement p = (previous == null) ? new Placement() : (Placement) previous;
+		p.x = getX();
+		p.y = getY();
+		p.visible = isVisible();
+		p.clip.setBounds(clip);
+		return p;
+	}
+
+	void paintCaptured(Graphics g, Object state) {
+		paintCaptured(g, state, 0, 0);
+	}
+
+	void paintCaptured(Graphics g, Object state, int dx, int dy) {
+		final Placement p = (Placement) state;
+		if (p.visible) { draw(g, p.x + dx, p.y + dy, p.clip); }
+	}
+
+	private void draw(Graphics g, int x, int y, Rectangle clip) {
+		// the clip region may have been resized since the texture was built
+		if ((wrapHorizontal && clip.width  > texture.getWidth()  - imageWidth) ||
+			(wrapVertical   && clip.height > texture.getHeight() - imageHeight)) {
+			build(texture.getSubimage(0, 0, imageWidth, imageHeight), clip);
+		}
+
+		final int tx = Math.floorMod(-x, imageWidth);
+		final int ty = Math.floorMod(-y, imageHeight);
 
 		if (wrapVertical && wrapHorizontal) {
-			int dx = 0;
-			while(dx < clip.width) {
-				int chunkWidth = Math.min(clip.width - dx, getWidth() - tx);
-				int dy = 0;
-				while(dy < clip.height) {
-					int chunkHeight = Math.min(clip.height - dy, getHeight() - ty);
-					g.drawImage(image,
-								dx + clip.x, dy + clip.y, dx + chunkWidth + clip.x, dy + chunkHeight + clip.y,
-								tx, ty, tx + chunkWidth, ty + chunkHeight, null);
-	
-					dy += chunkHeight;
-					ty = (ty + chunkHeight) % getHeight();
-				}
-				dy = 0;			
-				dx += chunkWidth;
-				tx = (tx + chunkWidth) % getWidth();
-			}
+			g.drawImage(texture,
+						clip.x, clip.y, clip.x + clip.width, clip.y + clip.height,
+						tx, ty, tx + clip.width, ty + clip.height, null);
 		}
 		else if (wrapVertical && !wrapHorizontal) {
-			int dy = 0;
-			while(dy < clip.height) {
-				int chunkHeight = Math.min(clip.height - dy, getHeight() - ty);
-				g.drawImage(image,
-							getX() + clip.x, dy + clip.y, getX() + getWidth() + clip.x, dy + chunkHeight + clip.y,
-							0, ty, getWidth(), ty + chunkHeight, null);
-	
-				dy += chunkHeight;
-				ty = (ty + chunkHeight) % getHeight();
-			}
+			final int dx = x + clip.x;
+			g.drawImage(texture,
+						dx, clip.y, dx + imageWidth, clip.y + clip.height,
+						0, ty, imageWidth, ty + clip.height, null);
 		}
 		else if (!wrapVertical && wrapHorizontal) {
-			int dx = 0;
-			while(dx < clip.width) {
-				int chunkWidth = Math.min(clip.width - dx, getWidth() - tx);
-				g.drawImage(image,
-							dx + clip.x, getY() + clip.y, dx + chunkWidth + clip.x, getY() + getHeight() + clip.y,
-							tx, 0, tx + chunkWidth, getHeight(), null);
-
-				dx += chunkWidth;
-				tx = (tx + chunkWidth) % getWidth();
-			}
+			final int dy = y + clip.y;
+			g.drawImage(texture,
+						clip.x, dy, clip.x + clip.width, dy + imageHeight,
+						tx, 0, tx + clip.width, imageHeight, null);
 		}
 		else {
-			g.drawImage(image, getX(), getY(), null);
+			g.drawImage(texture, x, y, null);
 		}
 	}
+
+	private static class Placement {
+		private int x;
+		private int y;
+		private boolean visible;
+		private final Rectangle clip = new Rectangle();
+	}
 }
\ No newline at end of file
@@ -2,24 +2,62 @@ package coggame;
 
 import java.awt.Graphics;
 import java.awt.Image;
+import java.awt.Rectangle;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
 * The TiledLayer represents a grid made up of
 * tiles. Tiles can be animated and modified on
 * the fly. A tile with index 0 is not drawn.
 *
+* Animated tiles may either be changed by hand with
+* setAnimatedTile() or given a timed frame sequence
+* which animate() advances. The layer remembers which
+* cells use each animated tile, so that CellListeners
+* are only told about those cells when a frame changes.
+*
+* Each tile index is either solid or passable, as set
+* by setSolid(); by default every tile but 0 is solid.
+* Sprite collision and path() consult a bitset of solid
+* cells which the layer keeps up to date as cells change,
+* so they can test up to 64 cells of a row at once.
+* The same cells block canSee(), raycast(), LineOfSight
+* and FieldOfView.
+*
 * @author John Earnest
 **/
 public class TiledLayer extends Layer {
 
 	private final int[][] cells;
-	private final Image tiles;
+	private final int columns;
+	private final int rows;
+	private final Image sheet;
+	private final int originX;
+	private final int originY;
 	private final int tileWidth;
 	private final int tileHeight;
 	private final int sheetWidth;
-	private final List<Integer> animatedTiles = new ArrayList<Integer>();
+	private final AnimatedTileTable animatedTiles = new AnimatedTileTable();
+	private final List<CellListener> listeners = new ArrayList<CellListener>();
+	private final int solidWords;
+	private boolean[] passable = new boolean[0];
+	private boolean[] animatedPassable = new boolean[0];
+	private long[] solid;
+	private int solidVersion = 0;
+	private final Rectangle view = new Rectangle();
+	private final int[] range = new int[4];
 
 	/**
 	* Create a new TiledLayer.
@@ -31,11 +69,25 @@ public class TiledLayer extends Layer {
 	* @param tileHeight the height of each tile in pixels
 	**/
 	public TiledLayer(int columns, int rows, Image tiles, int tileWidth, int tileHeight) {
-		cells = new int[columns][rows];
-		this.tiles = tiles;
+		this(columns, rows, tiles, tileWidth, tileHeight, true);
+	}
+
+	/**
+	* Create a new TiledLayer, optionally without dense
+	* cell storage. Subclasses which do not allocate cells
+	* must override getCell(), setCell() and paint().
+	**/
+	TiledLayer(int columns, int rows, Image tiles, int tileWidth, int tileHeight, boolean dense) {
+		cells = (dense) ? new int[columns][rows] : null;
+		this.columns = columns;
+		this.rows = rows;
+		sheet = AtlasRegion.sheet(tiles);
+		originX = AtlasRegion.originX(tiles);
+		originY = AtlasRegion.originY(tiles);
 		this.tileWidth = tileWidth;
 		this.tileHeight = tileHeight;
 		sheetWidth = tiles.getWidth(null) / tileWidth;
+		solidWords = (columns + 63) >>> 6;
 	}
 
 	/**
@@ -51,12 +103,12 @@ public class TiledLayer extends Layer {
 	/**
 	* Returns the number of columns in the TiledLayer.
 	**/
-	public int getColumns()		{ return cells.length; }
+	public int getColumns()		{ return columns; }
 
 	/**
 	* Returns the number of rows in the TiledLayer.
 	**/
-	public int getRows()		{ return cells[0].length; }	
+	public int getRows()		{ return rows; }
 	
 	/**
 	* Returns the width of a single tile in pixels.
@@ -86,7 +138,294 @@ public class TiledLayer extends Layer {
 	* @param tile the 1-indexed tile to set (0 is transparent)
 	**/
 	public void setCell(int col, int row, int tile) {
+		final int old = cells[col][row];
+		if (old == tile) { return; }
 		cells[col][row] = tile;
+		cellChanged(col, row, old, tile);
+	}
+
+	/**
+	* Returns the tile index at a given position if it is
+	* cheaply available, without side effects. Used when
+	* sweeping the animated tile index.
+	**/
+	int peekCell(int col, int row) {
+		if (col < 0 || row < 0 || col >= columns || row >= rows) { return 0; }
+		return getCell(col, row);
+	}
+
+	/**
+	* Must be called by every implementation of setCell()
+	* after a cell has actually changed.
+	**/
+	void cellChanged(int col, int row, int old, int tile) {
+		if (old < 0)  { animatedTiles.remove(-old - 1); }
+		if (tile < 0) { animatedTiles.add(-tile - 1, col, row, this); }
+		if (isSolidTile(old) != isSolidTile(tile)) {
+			if (solid != null) { solid[row * solidWords + (col >>> 6)] ^= 1L << col; }
+			solidVersion++;
+		}
+		for(int z = 0; z < listeners.size(); z++) {
+			listeners.get(z).cellChanged(this, col, row);
+		}
+	}
+
+	/**
+	* Record that a cell holds an animated tile without
+	* notifying listeners, for cells filled in bulk.
+	**/
+	void indexCell(int col, int row, int tile) {
+		if (tile < 0) { animatedTiles.add(-tile - 1, col, row, this); }
+	}
+
+	/**
+	* Forget which cells use which animated tiles
+	* where those cells have been discarded in bulk.
+	**/
+	void invalidateIndex() {
+		animatedTiles.invalidate();
+	}
+
+	/**
+	* Specify whether a tile index is solid. Solid tiles
+	* block paths and collide with Sprites; passable ones,
+	* such as decorations, do not. An animated tile has its
+	* own setting, regardless of the frame it shows.
+	* Tile 0 is always passable.
+	*
+	* @param tile the tile index (static or animated)
+	* @param solid true if the tile should be solid
+	**/
+	public void setSolid(int tile, boolean solid) {
+		if (tile == 0) {
+			if (solid) { throw new IllegalArgumentException("Tile 0 cannot be solid!"); }
+			return;
+		}
+		final int k = (tile > 0) ? tile : -tile;
+		boolean[] table = (tile > 0) ? passable : animatedPassable;
+		if (k >= table.length) {
+			if (solid) { return; }
+			table = Arrays.copyOf(table, Math.max(k + 1, table.length * 2));
+			if (tile > 0) { passable = table; }
+			else { animatedPassable = table; }
+		}
+		if (table[k] == !solid) { return; }
+		table[k] = !solid;
+		this.solid = null;
+		solidVersion++;
+	}
+
+	/**
+	* Returns a number which changes whenever
+	* the solidity of any cell may have changed.
+	**/
+	int getSolidVersion() { return solidVersion; }
+
+	/**
+	* Returns true if a tile index is solid.
+	*
+	* @param tile the tile index (static or animated)
+	**/
+	public boolean isSolidTile(int tile) {
+		if (tile > 0) { return tile >= passable.length || !passable[tile]; }
+		if (tile < 0) { return -tile >= animatedPassable.length || !animatedPassable[-tile]; }
+		return false;
+	}
+
+	/**
+	* Returns true if the cell at a given position is solid.
+	* Positions outside the layer are not solid.
+	*
+	* @param col the 0-indexed column number of the cell
+	* @param row the 0-indexed row number of the cell
+	**/
+	public boolean isSolid(int col, int row) {
+		if (col < 0 || row < 0 || col >= columns || row >= rows) { return false; }
+		return (solidBits(row, col >>> 6) & (1L << col)) != 0;
+	}
+
+	/**
+	* Returns true if any cell within a rectangular region is
+	* solid. The parts of the region outside the layer are ignored.
+	*
+	* @param col the 0-indexed column number of the upper-left cell
+	* @param row the 0-indexed row number of the upper-left cell
+	* @param numCols the number of columns in the region
+	* @param numRows the number of rows in the region
+	**/
+	public boolean isAnySolid(int col, int row, int numCols, int numRows) {
+		final int c0 = Math.max(col, 0);
+		final int c1 = Math.min(col + numCols, columns) - 1;
+		final int r0 = Math.max(row, 0);
+		final int r1 = Math.min(row + numRows, rows) - 1;
+		if (c0 > c1 || r0 > r1) { return false; }
+		final int w0 = c0 >>> 6;
+		final int w1 = c1 >>> 6;
+		final long first = -1L << c0;
+		final long last = -1L >>> (63 - (c1 & 63));
+		for(int y = r0; y <= r1; y++) {
+			for(int w = w0; w <= w1; w++) {
+				long mask = -1L;
+				if (w == w0) { mask &= first; }
+				if (w == w1) { mask &= last; }
+				if ((solidBits(y, w) & mask) != 0) { return true; }
+			}
+		}
+		return false;
+	}
+
+	/**
+	* Returns true if no solid cell lies on the line
+	* between the centers of two cells. The cells at
+	* either end are not considered, so a wall can be
+	* seen, and a line which passes exactly through the
+	* corner between two cells is only blocked if both
+	* of the cells beside the corner are solid.
+	*
+	* @param col0 the column of the first cell
+	* @param row0 the row of the first cell
+	* @param col1 the column of the second cell
+	* @param row1 the row of the second cell
+	**/
+	public boolean canSee(int col0, int row0, int col1, int row1) {
+		final boolean inside = col0 >= 0 && row0 >= 0 && col0 < columns && row0 < rows &&
+								col1 >= 0 && row1 >= 0 && col1 < columns && row1 < rows;
+		// every cell tested lies between the ends, so
+		// if they are within the layer the bitset can be read directly
+		final long[] bits = (inside) ? solidity() : null;
+		final int nx = Math.abs(col1 - col0);
+		final int ny = Math.abs(row1 - row0);
+		final int sx = (col1 > col0) ? 1 : -1;
+		final int sy = (row1 > row0) ? 1 : -1;
+		int x = col0;
+		int y = row0;
+		// compares where the line next crosses a column and a row boundary
+		long decision = (long) ny - nx;
+		for(int n = nx + ny; n > 0; n--) {
+			if (decision == 0) {
+				if (solidAt(bits, x + sx, y) && solidAt(bits, x, y + sy)) { return false; }
+				x += sx;
+				y += sy;
+				decision += 2L * (ny - nx);
+				n--;
+			}
+			else if (decision < 0) {
+				x += sx;
+				decision += 2L * ny;
+			}
+			else {
+				y += sy;
+				decision -= 2L * nx;
+			}
+			if ((x != col1 || y != row1) && solidAt(bits, x, y)) { return false; }
+		}
+		return true;
+	}
+
+	private boolean solidAt(long[] bits, int col, int row) {
+		if (bits == null) { return isSolid(col, row); }
+		return (bits[row * solidWords + (col >>> 6)] & (1L << col)) != 0;
+	}
+
+	/**
+	* Trace a ray through the grid from one point to another,
+	* visiting each cell it passes through in order, and
+	* return the fraction of the way along it at which the
+	* ray first enters a solid cell, or 1 if it never does.
+	* Points are in pixels, in the same coordinate space
+	* as the position of this layer. A ray which starts
+	* within a solid cell returns 0.
+	*
+	* @param x0 the x-position the ray starts from
+	* @param y0 the y-position the ray starts from
+	* @param x1 the x-position the ray ends at
+	* @param y1 the y-position the ray ends at
+	**/
+	public double raycast(double x0, double y0, double x1, double y1) {
+		final double px = (x0 - getX()) / tileWidth;
+		final double py = (y0 - getY()) / tileHeight;
+		final double dx = (x1 - getX()) / tileWidth - px;
+		final double dy = (y1 - getY()) / tileHeight - py;
+		int x = (int) Math.floor(px);
+		int y = (int) Math.floor(py);
+		if (isSolid(x, y)) { return 0; }
+
+		final int sx = (dx > 0) ? 1 : -1;
+		final int sy = (dy > 0) ? 1 : -1;
+		final double stepX = (dx == 0) ? Double.POSITIVE_INFINITY : Math.abs(1 / dx);
+		final double stepY = (dy == 0) ? Double.POSITIVE_INFINITY : Math.abs(1 / dy);
+		double nextX = (dx == 0) ? Double.POSITIVE_INFINITY : ((dx > 0) ? (x + 1 - px) : (px - x)) * stepX;
+		double nextY = (dy == 0) ? Double.POSITIVE_INFINITY : ((dy > 0) ? (y + 1 - py) : (py - y)) * stepY;
+		while(true) {
+			final double t;
+			if (nextX < nextY) {
+				t = nextX;
+				nextX += stepX;
+				x += sx;
+			}
+			else {
+				t = nextY;
+				nextY += stepY;
+				y += sy;
+			}
+			if (t > 1) { return 1; }
+			if (isSolid(x, y)) { return t; }
+		}
+	}
+
+	/**
+	* Returns the solidity of 64 cells of a row, starting
+	* at column word * 64, one bit per cell from the least
+	* significant. Bits past the last column are clear.
+	**/
+	long solidBits(int row, int word) {
+		final long[] bits = solidity();
+		if (bits == null) {
+			// sparse layers have no bitset, so gather the bits as needed
+			long ret = 0;
+			final int end = Math.min(64, columns - (word << 6));
+			for(int z = 0; z < end; z++) {
+				if (isSolidTile(getCell((word << 6) + z, row))) { ret |= 1L << z; }
+			}
+			return ret;
+		}
+		return bits[row * solidWords + word];
+	}
+
+	/**
+	* Returns the bitset of solid cells, building it if
+	* necessary, or null if this layer has no dense cells.
+	**/
+	private long[] solidity() {
+		if (cells == null) { return null; }
+		if (solid == null) {
+			final long[] bits = new long[solidWords * rows];
+			for(int x = 0; x < columns; x++) {
+				for(int y = 0; y < rows; y++) {
+					if (isSolidTile(cells[x][y])) { bits[y * solidWords + (x >>> 6)] |= 1L << x; }
+				}
+			}
+			solid = bits;
+		}
+		return solid;
+	}
+
+	/**
+	* Register a listener to be notified when the appearance of a cell changes.
+	*
+	* @param listener the listener to add
+	**/
+	public void addCellListener(CellListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	* Stop notifying a listener of cell changes.
+	*
+	* @param listener the listener to remove
+	**/
+	public void removeCellListener(CellListener listener) {
+		listeners.remove(listener);
 	}
 
 	/**
@@ -98,7 +437,21 @@ public class TiledLayer extends Layer {
 	* @param tiles an array of possible tiles to set
 	**/
 	public void setCell(int col, int row, int[] tiles) {
-		cells[col][row] = tiles[(int)(Math.random() * tiles.length)];
+		setCell(col, row, tiles, ThreadLocalRandom.current());
+	}
+
+	/**
+	* Sets the tile index at a given position with
+	* a tile chosen from a provided array using
+	* a specific random number generator.
+	*
+	* @param col the 0-indexed column number of the cell
+	* @param row the 0-indexed row number of the cell
+	* @param tiles an array of possible tiles to set
+	* @param random the source of randomness
+	**/
+	public void setCell(int col, int row, int[] tiles, Random random) {
+		setCell(col, row, tiles[random.nextInt(tiles.length)]);
 	}
 
 	/**
@@ -113,7 +466,7 @@ public class TiledLayer extends Layer {
 	public void fillCells(int col, int row, int numCols, int numRows, int tile) {
 		for(int x = 0; x < numCols; x++) {
 			for(int y = 0; y < numRows; y++) {
-				cells[col + x][row + y] = tile;
+				setCell(col + x, row + y, tile);
 			}
 		}
 	}
@@ -129,9 +482,25 @@ public class TiledLayer extends Layer {
 	* @param tiles an array of tile indices to fill the region with
 	**/
 	public void fillCells(int col, int row, int numCols, int numRows, int[] tiles) {
+		fillCells(col, row, numCols, numRows, tiles, ThreadLocalRandom.current());
+	}
+
+	/**
+	* Fill a rectangular region of cells with tiles
+	* chosen from a provided array using a specific
+	* random number generator.
+	*
+	* @param col the 0-indexed column number of the cell
+	* @param row the 0-indexed row number of the cell
+	* @param numCols the number of columns to fill
+	* @param numRows the number of rows to fill
+	* @param tiles an array of tile indices to fill the region with
+	* @param random the source of randomness
+	**/
+	public void fillCells(int col, int row, int numCols, int numRows, int[] tiles, Random random) {
 		for(int x = 0; x < numCols; x++) {
 			for(int y = 0; y < numRows; y++) {
-				cells[col + x][row + y] = tiles[(int)(Math.random() * tiles.length)];
+				setCell(col + x, row + y, tiles[random.nextInt(tiles.length)]);
 			}
 		}
 	}
@@ -143,24 +512,110 @@ public class TiledLayer extends Layer {
 	**/
 	public void paint(Graphics g) {
 		if (!isVisible()) { return; }
-		for(int x = 0; x < getColumns(); x++) {
-			for(int y = 0; y < getRows(); y++) {
+		if (!cull(g, getX(), getY(), view, range)) { return; }
+		for(int x = range[0]; x <= range[1]; x++) {
+			for(int y = range[2]; y <= range[3]; y++) {
 				
-				int tile = cells[x][y];
+				final int tile = cells[x][y];
+				if (tile == 0) { continue; }
+				drawTile(g, tile, x * tileWidth + getX(), y * tileHeight + getY());
+			}
+		}
+	}
+
+	boolean paintsPlain() { return getClass() == TiledLayer.class; }
+
+	Object capture(Object previous) {
+		if (cells == null) { return null; }
+		CellCopy copy = (CellCopy) previous;
+		if (copy == null) {
+			copy = new CellCopy(columns * rows);
+			addCellListener(copy);
+		}
+		if (copy.full) {
+			for(int x = 0; x < columns; x++) {
+				System.arraycopy(cells[x], 0, copy.cells, x * rows, rows);
+			}
+			copy.full = false;
+		}
+		else {
+			for(int z = 0; z < copy.changedCount; z++) {
+				final int col = AnimatedTileTable.col(copy.changed[z]);
+				final int row = AnimatedTileTable.row(copy.changed[z]);
+				copy.cells[col * rows + row] = cells[col][row];
+			}
+		}
+		copy.changedCount = 0;
+
+		final int n = animatedTiles.size();
+		if (copy.animated.length < n) { copy.animated = new int[n * 2]; }
+		for(int k = 0; k < n; k++) { copy.animated[k] = animatedTiles.get(k); }
+		copy.x = getX();
+		copy.y = getY();
+		copy.visible = isVisible();
+		return copy;
+	}
+
+	void paintCaptured(Graphics g, Object state) {
+		final CellCopy copy = (CellCopy) state;
+		if (!copy.visible) { return; }
+		if (!cull(g, copy.x, copy.y, copy.view, copy.range)) { return; }
+		for(int x = copy.range[0]; x <= copy.range[1]; x++) {
+			for(int y = copy.range[2]; y <= copy.range[3]; y++) {
+				int tile = copy.cells[x * rows + y];
+				if (tile < 0) { tile = copy.animated[-tile - 1]; }
 				if (tile == 0) { continue; }
-				if (tile < 0) { tile = getAnimatedTile(tile); }
-
-				final int tx = ((tile - 1) % sheetWidth) * tileWidth;
-				final int ty = ((tile - 1) / sheetWidth) * tileHeight;
-				final int dx = x * tileWidth + getX();
-				final int dy = y * tileHeight + getY();
-				g.drawImage(tiles,
-								dx, dy, dx + tileWidth, dy + tileHeight,
-								tx, ty, tx + tileWidth, ty + tileHeight, null);
+				drawStaticTile(g, tile, x * tileWidth + copy.x, y * tileHeight + copy.y);
 			}
 		}
 	}
 
+	void release(Object state) {
+		removeCellListener((CellCopy) state);
+	}
+
+	/**
+	* Find the cells which fall within the clip of a Graphics
+	* surface, for this layer drawn at a given position, as
+	* the columns range[0] to range[1] and the rows range[2]
+	* to range[3]. Returns false if there are none. Only the
+	* visible part of a layer seen through a small Viewport
+	* is then drawn.
+	**/
+	private boolean cull(Graphics g, int ox, int oy, Rectangle clip, int[] range) {
+		clip.setBounds(0, 0, -1, -1);
+		g.getClipBounds(clip);
+		if (clip.width < 0) {
+			range[0] = 0;
+			range[1] = columns - 1;
+			range[2] = 0;
+			range[3] = rows - 1;
+		}
+		else {
+			range[0] = Math.max(0, Math.floorDiv(clip.x - ox, tileWidth));
+			range[1] = Math.min(columns - 1, Math.floorDiv(clip.x + clip.width - 1 - ox, tileWidth));
+			range[2] = Math.max(0, Math.floorDiv(clip.y - oy, tileHeight));
+			range[3] = Math.min(rows - 1, Math.floorDiv(clip.y + clip.height - 1 - oy, tileHeight));
+		}
+		return range[0] <= range[1] && range[2] <= range[3];
+	}
+
+	/**
+	* Draw a single tile, resolving animated tiles.
+	**/
+	void drawTile(Graphics g, int tile, int dx, int dy) {
+		if (tile < 0) { tile = getAnimatedTile(tile); }
+		drawStaticTile(g, tile, dx, dy);
+	}
+
+	private void drawStaticTile(Graphics g, int tile, int dx, int dy) {
+		final int tx = originX + ((tile - 1) % sheetWidth) * tileWidth;
+		final int ty = originY + ((tile - 1) / sheetWidth) * tileHeight;
+		g.drawImage(sheet,
+						dx, dy, dx + tileWidth, dy + tileHeight,
+						tx, ty, tx + tileWidth, ty + tileHeight, null);
+	}
+
 	/**
 	* Create an animated tile.
 	* Returns the index of the new animated tile.
@@ -168,10 +623,28 @@ public class TiledLayer extends Layer {
 	* @param staticTileIndex the static tile index the animated tile appears as
 	**/
 	public int createAnimatedTile(int staticTileIndex) {
-		animatedTiles.add(staticTileIndex);
-		return -animatedTiles.size();
+		return -animatedTiles.create(staticTileIndex) - 1;
+	}
+
+	/**
+	* Create an animated tile which cycles through a
+	* sequence of static tiles as animate() is called.
+	* Returns the index of the new animated tile.
+	*
+	* @param frames the static tile indices to cycle through
+	* @param durations the number of seconds each frame is shown
+	**/
+	public int createAnimatedTile(int[] frames, double[] durations) {
+		final int ret = createAnimatedTile(frames[0]);
+		setAnimation(ret, frames, durations);
+		return ret;
 	}
 
+	/**
+	* Returns the number of animated tiles.
+	**/
+	public int getAnimatedTileCount() { return animatedTiles.size(); }
+
 	/**
 	* Returns the static tile index an animated tile currently appears as
 	*
@@ -188,7 +661,246 @@ public class TiledLayer extends Layer {
 	* @param staticTileIndex the static tile the animated tile should appear as
 	**/
 	public void setAnimatedTile(int animatedTileIndex, int staticTileIndex) {
-		animatedTiles.set(-animatedTileIndex - 1, staticTileIndex);
+		final int k = -animatedTileIndex - 1;
+		if (animatedTiles.get(k) == staticTileIndex) { return; }
+		animatedTiles.set(k, staticTileIndex);
+		notifyOccurrences(k);
+	}
+
+	/**
+	* Give an animated tile a timed sequence of frames,
+	* restarting it from the first frame. Passing null
+	* removes the sequence, leaving the tile on its
+	* current frame.
+	*
+	* @param animatedTileIndex the animated tile to change
+	* @param frames the static tile indices to cycle through
+	* @param durations the number of seconds each frame is shown
+	**/
+	public void setAnimation(int animatedTileIndex, int[] frames, double[] durations) {
+		final int k = -animatedTileIndex - 1;
+		final int old = animatedTiles.get(k);
+		animatedTiles.setSequence(k, frames, durations);
+		if (animatedTiles.get(k) != old) { notifyOccurrences(k); }
+	}
+
+	/**
+	* Give an animated tile a sequence of frames
+	* which are each shown for the same time.
+	*
+	* @param animatedTileIndex the animated tile to change
+	* @param frames the static tile indices to cycle through
+	* @param frameTime the number of seconds each frame is shown
+	**/
+	public void setAnimation(int animatedTileIndex, int[] frames, double frameTime) {
+		final double[] durations = new double[frames.length];
+		Arrays.fill(durations, frameTime);
+		setAnimation(animatedTileIndex, frames, durations);
+	}
+
+	/**
+	* Advance every animated tile which has a frame
+	* sequence. Listeners are notified of each cell using
+	* an animated tile whose appearance changed.
+	*
+	* @param time the number of seconds since the last call
+	**/
+	public void animate(double time) {
+		for(int k = 0; k < animatedTiles.size(); k++) {
+			if (animatedTiles.advance(k, time)) { notifyOccurrences(k); }
+		}
+	}
+
+	private void notifyOccurrences(int k) {
+		if (listeners.isEmpty()) { return; }
+		final int n = animatedTiles.occurrences(k, this);
+		for(int z = 0; z < n; z++) {
+			final long cell = animatedTiles.cell(k, z);
+			final int col = AnimatedTileTable.col(cell);
+			final int row = AnimatedTileTable.row(cell);
+			for(int l = 0; l < listeners.size(); l++) {
+				listeners.get(l).cellChanged(this, col, row);
+			}
+		}
+	}
+
+	private static final int MAP_MAGIC = 0x43474D50;	// "CGMP"
+	private static final int MAP_VERSION = 2;
+
+	/**
+	* Save this TiledLayer to the local filesystem in a
+	* compact binary format which can be read back with load().
+	* The file holds a fixed header, the animated tile table
+	* (including any frame sequences) and the cells in column
+	* order, run-length encoded with variable-length integers.
+	* Returns false if the map did not save successfully.
+	*
+	* @param filename the filename of the map file
+	**/
+	public boolean save(String filename) {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename)))) {
+			out.writeInt(MAP_MAGIC);
+			out.writeInt(MAP_VERSION);
+			out.writeInt(getColumns());
+			out.writeInt(getRows());
+			out.writeInt(tileWidth);
+			out.writeInt(tileHeight);
+
+			writeVarint(out, animatedTiles.size());
+			for(int z = 0; z < animatedTiles.size(); z++) {
+				writeVarint(out, zigzag(animatedTiles.get(z)));
+				final int[] frames = animatedTiles.getSequence(z);
+				final double[] durations = animatedTiles.getDurations(z);
+				writeVarint(out, (frames == null) ? 0 : frames.length);
+				for(int f = 0; frames != null && f < frames.length; f++) {
+					writeVarint(out, zigzag(frames[f]));
+					out.writeFloat((float) durations[f]);
+				}
+			}
+
+			int run = 0;
+			int tile = 0;
+			for(int x = 0; x < getColumns(); x++) {
+				for(int y = 0; y < getRows(); y++) {
+					final int cell = (cells != null) ? cells[x][y] : getCell(x, y);
+					if (run > 0 && cell == tile) { run++; continue; }
+					if (run > 0) {
+						writeVarint(out, run);
+						writeVarint(out, zigzag(tile));
+					}
+					tile = cell;
+					run = 1;
+				}
+			}
+			if (run > 0) {
+				writeVarint(out, run);
+				writeVarint(out, zigzag(tile));
+			}
+		}
+		catch(IOException ioe) { return false; }
+		return true;
+	}
+
+	/**
+	* Load a TiledLayer previously written by save().
+	* The file is memory-mapped and decoded directly into
+	* the cells of the new layer. Returns null if the file
+	* could not be read or is not a valid map.
+	*
+	* @param filename the filename of the map file
+	* @param tiles an Image containing a grid of equal-sized tiles
+	**/
+	public static TiledLayer load(String filename, Image tiles) {
+		try (RandomAccessFile raf = new RandomAccessFile(filename, "r")) {
+			final FileChannel channel = raf.getChannel();
+			final ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (in.getInt() != MAP_MAGIC) { return null; }
+			final int version = in.getInt();
+			if (version < 1 || version > MAP_VERSION) { return null; }
+			final int columns = in.getInt();
+			final int rows = in.getInt();
+			final int tileWidth = in.getInt();
+			final int tileHeight = in.getInt();
+			if (columns <= 0 || rows <= 0 || tileWidth <= 0 || tileHeight <= 0) { return null; }
+
+			// check the whole body before allocating anything it describes
+			final int body = in.position();
+			if (!check(in, version, (long) columns * rows)) { return null; }
+			in.position(body);
+			final TiledLayer ret = new TiledLayer(columns, rows, tiles, tileWidth, tileHeight);
+
+			for(int z = readVarint(in); z > 0; z--) {
+				final int k = ret.createAnimatedTile(unzigzag(readVarint(in)));
+				final int length = (version >= 2) ? readVarint(in) : 0;
+				if (length == 0) { continue; }
+				final int[] frames = new int[length];
+				final double[] durations = new double[length];
+				for(int f = 0; f < length; f++) {
+					frames[f] = unzigzag(readVarint(in));
+					durations[f] = in.getFloat();
+				}
+				ret.setAnimation(k, frames, durations);
+			}
+
+			final int[][] cells = ret.cells;
+			int x = 0;
+			int y = 0;
+			while(x < columns) {
+				int run = readVarint(in);
+				final int tile = unzigzag(readVarint(in));
+				while(run > 0) {
+					// fill as much of the current column as the run covers
+					final int span = Math.min(run, rows - y);
+					if (tile != 0) { Arrays.fill(cells[x], y, y + span, tile); }
+					for(int z = 0; tile < 0 && z < span; z++) { ret.indexCell(x, y + z, tile); }
+					run -= span;
+					y += span;
+					if (y == rows) { y = 0; x++; }
+				}
+			}
+			return ret;
+		}
+		catch(IOException ioe) {
+			ioe.printStackTrace();
+			return null;
+		}
+		catch(BufferUnderflowException bue) {
+			// the file ended in the middle of the map
+			bue.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	* Read the animated tile table and cells of a map without
+	* storing them, and return true if they describe exactly
+	* the given number of cells, using only animated tiles
+	* which the table defines and valid frame sequences.
+	**/
+	private static boolean check(ByteBuffer in, int version, long cells) throws IOException {
+		final int animated = readVarint(in);
+		if (animated < 0 || animated > in.remaining()) { return false; }
+		for(int z = 0; z < animated; z++) {
+			if (unzigzag(readVarint(in)) < 0) { return false; }
+			final int length = (version >= 2) ? readVarint(in) : 0;
+			// each frame takes at least five bytes
+			if (length < 0 || length > in.remaining() / 5) { return false; }
+			for(int f = 0; f < length; f++) {
+				if (unzigzag(readVarint(in)) < 0) { return false; }
+				if (!(in.getFloat() > 0)) { return false; }
+			}
+		}
+		long total = 0;
+		while(total < cells) {
+			final int run = readVarint(in);
+			final int tile = unzigzag(readVarint(in));
+			if (run <= 0 || run > cells - total) { return false; }
+			if (tile < -animated) { return false; }
+			total += run;
+		}
+		return true;
+	}
+
+	private static int zigzag(int n) { return (n << 1) ^ (n >> 31); }
+
+	private static int unzigzag(int n) { return (n >>> 1) ^ -(n & 1); }
+
+	private static void writeVarint(DataOutputStream out, int n) throws IOException {
+		while((n & ~0x7F) != 0) {
+			out.writeByte((n & 0x7F) | 0x80);
+			n >>>= 7;
+		}
+		out.writeByte(n);
+	}
+
+	private static int readVarint(ByteBuffer in) throws IOException {
+		int ret = 0;
+		for(int shift = 0; shift < 32; shift += 7) {
+			final byte b = in.get();
+			ret |= (b & 0x7F) << shift;
+			if (b >= 0) { return ret; }
+		}
+		throw new IOException("Malformed varint!");
 	}
 
 	private static boolean relEquals(int x, int y, TiledLayer grid, int testval) {
@@ -215,15 +927,32 @@ public class TiledLayer extends Layer {
 	* @param top tile indices for the top edge of the skyline
 	**/
 	public static void skyline(TiledLayer layer, int[] fill, int[] left, int[] right, int[] top) {
+		skyline(layer, ThreadLocalRandom.current(), fill, left, right, top);
+	}
+
+	/**
+	* Fill a provided TiledLayer with a procedurally
+	* generated skyline, drawing from a specific random
+	* number generator. Given generators seeded identically,
+	* the output is identical.
+	*
+	* @param layer the TiledLayer to fill.
+	* @param random the source of randomness
+	* @param fill tile indices for solid regions of the skyline
+	* @param left tile indices for left edges of the skyline
+	* @param right tile indices for right edges of the skyline
+	* @param top tile indices for the top edge of the skyline
+	**/
+	public static void skyline(TiledLayer layer, Random random, int[] fill, int[] left, int[] right, int[] top) {
 		layer.fillCells(0, 0, layer.getColumns(), layer.getRows(), 0);
 		
 		// fill solid skyline
 		int col = layer.getColumns() - 1;
 		int height = layer.getRows() / 2;
 		do {
-			height += (int)(Math.random() * SKY_HEIGHT_DELTA) * 2 - SKY_HEIGHT_DELTA;
-			if (height > layer.getRows() - 2) { height = (int)(Math.random() * layer.getRows()) - 2; }
-			int width = (int)(Math.random() * (SKY_WIDTH_MAX - SKY_WIDTH_MIN)) + SKY_WIDTH_MIN;
+			height += (int)(random.nextDouble() * SKY_HEIGHT_DELTA) * 2 - SKY_HEIGHT_DELTA;
+			if (height > layer.getRows() - 2) { height = (int)(random.nextDouble() * layer.getRows()) - 2; }
+			int width = (int)(random.nextDouble() * (SKY_WIDTH_MAX - SKY_WIDTH_MIN)) + SKY_WIDTH_MIN;
 
 			height = Math.max(height, 2);
 			width = Math.min(width, col);
@@ -231,7 +960,7 @@ public class TiledLayer extends Layer {
 
 			for(int x = 0; x <= width; x++) {
 				for(int y = 0; y < layer.getRows() - height; y++) {
-					layer.setCell(x + col, y + height, fill);
+					layer.setCell(x + col, y + height, fill, random);
 				}
 			}
 		} while (col > 0);
@@ -241,14 +970,14 @@ public class TiledLayer extends Layer {
 			for(int y = layer.getRows() - 1; y >= 0; y--) {
 
 				if (relEquals(x, y - 1, layer, 0)) {
-					layer.setCell(x, y - 1, top);
+					layer.setCell(x, y - 1, top, random);
 					break;
 				}
 				else if (relEquals(x + 1, y, layer, 0)) {
-					layer.setCell(x, y, right);
+					layer.setCell(x, y, right, random);
 				}
 				else if (relEquals(x - 1, y, layer, 0)) {
-					layer.setCell(x, y, left);
+					layer.setCell(x, y, left, random);
 				}
 			}
 		}
@@ -271,53 +1000,119 @@ public class TiledLayer extends Layer {
 	* @param fill tiles for the center of a cloud
 	**/
 	public static void clouds(TiledLayer layer, int[] leftend, int rightend[], int[] left, int[] right, int[] fill) {
+		clouds(layer, ThreadLocalRandom.current(), true, leftend, rightend, left, right, fill);
+	}
+
+	/**
+	* Add a series of procedurally generated clouds to
+	* a TiledLayer, drawing from a specific random number
+	* generator. Given generators seeded identically,
+	* the output is identical.
+	*
+	* @param layer the TiledLayer to fill
+	* @param random the source of randomness
+	* @param leftend tiles for the leftmost end of a cloud
+	* @param rightend tiles for the rightmost end of a cloud
+	* @param left tiles for upper-left corners/clumps
+	* @param right tiles for upper-right corners/clumps
+	* @param fill tiles for the center of a cloud
+	**/
+	public static void clouds(TiledLayer layer, Random random, int[] leftend, int rightend[], int[] left, int[] right, int[] fill) {
+		clouds(layer, random, true, leftend, rightend, left, right, fill);
+	}
+
+	private static void clouds(TiledLayer layer, Random random, boolean wrap, int[] leftend, int rightend[], int[] left, int[] right, int[] fill) {
 
 		for(int z = 0; z < CLOUD_COUNT; z++) {			
-			final int maxh = (int)Math.max(2, Math.random() * CLOUD_HEIGHT);
-			int x = (int)(Math.random() * layer.getColumns());
-			int y = (int)(Math.random() * (layer.getRows() - maxh - 1)) + maxh;
+			final int maxh = (int)Math.max(2, random.nextDouble() * CLOUD_HEIGHT);
+			// when not wrapping, keep the widest possible cloud inside the layer
+			final int span = (wrap) ? layer.getColumns() : layer.getColumns() - (2 * maxh + 1) * CLOUD_DELTA - 2;
+			if (span <= 0) { continue; }
+			int x = (int)(random.nextDouble() * span);
+			int y = (int)(random.nextDouble() * (layer.getRows() - maxh - 1)) + maxh;
 			
-			if (layer.getCell(x, y) == 0) { layer.setCell(x, y, leftend); }
+			if (layer.getCell(x, y) == 0) { layer.setCell(x, y, leftend, random); }
 			// build up
 			for(int h = 1; h <= maxh; h++) {
 				x = (x+1) % layer.getColumns();
-				if (layer.getCell(x, y-h) == 0) { layer.setCell(x, y-h, left); }
-				layer.fillCells(x, y-h+1, 1, h, fill);
+				if (layer.getCell(x, y-h) == 0) { layer.setCell(x, y-h, left, random); }
+				layer.fillCells(x, y-h+1, 1, h, fill, random);
 
-				for(int b = (int)(Math.random()*CLOUD_DELTA); b > 0; b--) {
+				for(int b = (int)(random.nextDouble()*CLOUD_DELTA); b > 0; b--) {
 					x = (x+1) % layer.getColumns();
-					layer.fillCells(x, y-h, 1, h+1, fill);
+					layer.fillCells(x, y-h, 1, h+1, fill, random);
 				}
 			}
 			// middle stretch
-			for(int b = (int)(Math.random()*CLOUD_DELTA) + 1; b > 0; b--) {
+			for(int b = (int)(random.nextDouble()*CLOUD_DELTA) + 1; b > 0; b--) {
 				x = (x+1) % layer.getColumns();
-				layer.fillCells(x, y-maxh, 1, maxh + 1, fill);
+				layer.fillCells(x, y-maxh, 1, maxh + 1, fill, random);
 			}
 			// build down
 			for(int h = maxh; h >= 1; h--) {
 				x = (x+1) % layer.getColumns();
-				if (layer.getCell(x, y-h) == 0) { layer.setCell(x, y-h, right); }
-				layer.fillCells(x, y-h+1, 1, h, fill);
+				if (layer.getCell(x, y-h) == 0) { layer.setCell(x, y-h, right, random); }
+				layer.fillCells(x, y-h+1, 1, h, fill, random);
 
-				for(int b = (int)(Math.random()*CLOUD_DELTA); b > 0; b--) {
+				for(int b = (int)(random.nextDouble()*CLOUD_DELTA); b > 0; b--) {
 					x = (x+1) % layer.getColumns();
-					layer.fillCells(x, y-h+1, 1, h, fill);
+					layer.fillCells(x, y-h+1, 1, h, fill, random);
 				}
 			}
 			x = (x+1) % layer.getColumns();
-			if (layer.getCell(x, y) == 0) { layer.setCell(x, y, rightend); }
+			if (layer.getCell(x, y) == 0) { layer.setCell(x, y, rightend, random); }
 		}
 	}
 
+	/**
+	* Returns a TileGenerator which fills each chunk
+	* with an independent procedurally generated skyline,
+	* as from skyline(). Suitable for use with a ProceduralLayer.
+	*
+	* @param fill tile indices for solid regions of the skyline
+	* @param left tile indices for left edges of the skyline
+	* @param right tile indices for right edges of the skyline
+	* @param top tile indices for the top edge of the skyline
+	**/
+	public static TileGenerator skylineGenerator(final int[] fill, final int[] left, final int[] right, final int[] top) {
+		return new TileGenerator() {
+			public void generate(TiledLayer chunk, int chunkX, int chunkY, Random random) {
+				skyline(chunk, random, fill, left, right, top);
+			}
+		};
+	}
+
+	/**
+	* Returns a TileGenerator which adds procedurally
+	* generated clouds to each chunk, as from clouds().
+	* Unlike clouds(), clouds never wrap around the edges
+	* of a chunk, so chunks may be placed side by side.
+	* Chunks should be at least 32 columns wide.
+	*
+	* @param leftend tiles for the leftmost end of a cloud
+	* @param rightend tiles for the rightmost end of a cloud
+	* @param left tiles for upper-left corners/clumps
+	* @param right tiles for upper-right corners/clumps
+	* @param fill tiles for the center of a cloud
+	**/
+	public static TileGenerator cloudGenerator(final int[] leftend, final int[] rightend, final int[] left, final int[] right, final int[] fill) {
+		return new TileGenerator() {
+			public void generate(TiledLayer chunk, int chunkX, int chunkY, Random random) {
+				clouds(chunk, random, false, leftend, rightend, left, right, fill);
+			}
+		};
+	}
+
 	/**
 	* Find a path from a starting location in a TiledLayer
-	* to a given goal location. Nonzero tiles are considered
-	* impassable, for consistency with how sprite collision
-	* deals with TiledLayers.
+	* to a given goal location. Solid tiles (by default, any
+	* nonzero tile) are considered impassable, for consistency
+	* with how sprite collision deals with TiledLayers.
 	*
 	* Returns a sequence of pairs of coordinates representing
 	* relative tile positions. If no path is found, returns null.
+	* Searches of large maps may take some time; a PathService
+	* can run them in the background or spread them over ticks.
 	*
 	* @param layer the TiledLayer to search
 	* @param xStart the x-position of the starting tile
@@ -327,64 +1122,72 @@ public class TiledLayer extends Layer {
 	* @param useDiagonal should we consider diagonal movement as well as orthogonal?
 	**/
 	public static List<int[]> path(TiledLayer layer, int xStart, int yStart, int xGoal, int yGoal, boolean useDiagonal) {
+		final Path path = new Path();
+		if (!path(layer, xStart, yStart, xGoal, yGoal, useDiagonal, path)) { return null; }
+		final List<int[]> ret = new ArrayList<int[]>();
+		for(int z = 1; z < path.size(); z++) {
+			final int dx = path.getX(z) - path.getX(z - 1);
+			final int dy = path.getY(z) - path.getY(z - 1);
+			for(int n = Math.max(Math.abs(dx), Math.abs(dy)); n > 0; n--) {
+				ret.add(new int[] { Integer.signum(dx), Integer.signum(dy) });
+			}
+		}
+		return ret;
+	}
 
-		List<int[]> frontier = new ArrayList<int[]>();
-		frontier.add(new int[] { xGoal, yGoal, 1 });
+	/**
+	* Find a path as with path() above, storing the
+	* cells where it changes direction in a Path which
+	* can be reused from one search to the next.
+	* Returns false, leaving the Path empty, if no
+	* path is found.
+	*
+	* @param layer the TiledLayer to search
+	* @param xStart the x-position of the starting tile
+	* @param yStart the y-position of the starting tile
+	* @param xGoal the x-position of the goal tile
+	* @param yGoal the y-position of the goal tile
+	* @param useDiagonal should we consider diagonal movement as well as orthogonal?
+	* @param out the Path to fill
+	**/
+	public static boolean path(TiledLayer layer, int xStart, int yStart, int xGoal, int yGoal, boolean useDiagonal, Path out) {
+		final PathSearch search = new PathSearch(PathSearch.open(layer), layer.getColumns(), layer.getRows(),
+													xStart, yStart, xGoal, yGoal, useDiagonal, out);
+		return search.run() != null;
+	}
 
-		int[][] grid = new int[layer.getColumns()][layer.getRows()];
-		int[][] deltas = (!useDiagonal) ? new int[][] { {-1, 0}, {1, 0}, {0, -1}, {0, 1} } :
-										  new int[][] { {-1, 0}, {1, 0}, {0, -1}, {0, 1},
-														{-1,-1}, {1, 1}, {-1, 1}, {1,-1} };
+	/**
+	* A copy of the cells, kept up to date between
+	* captures by recording which cells changed.
+	* Once enough cells have changed it is cheaper
+	* to copy the whole grid again.
+	**/
+	private static class CellCopy implements CellListener {
+		private final int[] cells;
+		private long[] changed = new long[64];
+		private int changedCount = 0;
+		private boolean full = true;
+		private int[] animated = new int[4];
+		private int x;
+		private int y;
+		private boolean visible;
+		private final Rectangle view = new Rectangle();
+		private final int[] range = new int[4];
 
-		while (!frontier.isEmpty()) {
-			int[] coords = frontier.remove(0);
-			int x = coords[0];
-			int y = coords[1];
-			int c = coords[2];
-			
-			if (x < 0 || x >= grid.length)		{ continue; }	// x off board
-			if (y < 0 || y >= grid[0].length)	{ continue; }	// y off board
-			if (layer.getCell(x, y) != 0)		{ continue; }	// impassable tile
-			if (grid[x][y] == 0) {								// if unvisited, fan out
-				for(int[] delta : deltas) {
-					frontier.add(new int[] { x + delta[0], y + delta[1], c + 1 });
-				}
-				grid[x][y] = c;
-			}
-			else {
-				grid[x][y] = Math.min(grid[x][y], c);
-			}
+		public CellCopy(int size) {
+			cells = new int[size];
 		}
 
-		// Now every unreachable grid cell should be at 0
-		// and every other grid cell should contain their
-		// distance from the goal position.
-
-		if (grid[xStart][yStart] == 0) { return null; }
-
-		List<int[]> ret = new ArrayList<int[]>();
-		int x = xStart;
-		int y = yStart;
-		while (x != xGoal || y != yGoal) {
-			int dx = 0;
-			int dy = 0;
-			int dc = Integer.MAX_VALUE;
-			for(int[] delta : deltas) {
-				int nx = x + delta[0];
-				int ny = y + delta[1];
-				if (nx < 0 || nx >= grid.length)	{ continue; } // x off board
-				if (ny < 0 || ny >= grid[0].length)	{ continue; } // y off board
-				int value = grid[nx][ny];
-				if (value == 0 || value >= dc)		{ continue; } // unreachable / suboptimal
-				dx = delta[0];
-				dy = delta[1];
-				dc = value;
+		public void cellChanged(TiledLayer layer, int col, int row) {
+			if (full) { return; }
+			if (changedCount == changed.length) {
+				if (changedCount * 8 >= cells.length) {
+					full = true;
+					return;
+				}
+				changed = Arrays.copyOf(changed, changedCount * 2);
 			}
-			ret.add(new int[] {dx, dy});
-			x += dx;
-			y += dy;
+			changed[changedCount++] = AnimatedTileTable.pack(col, row);
 		}
-		return ret;
 	}
-
-}
\ No newline at end of file
+}
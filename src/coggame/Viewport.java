@@ -0,0 +1,149 @@
+package coggame;
+
+import java.awt.Graphics;
+
+/**
+* A Viewport is a rectangular region of the screen through
+* which a LayerManager is drawn, along with the position of
+* a camera looking at the scene. Several Viewports allow the
+* same Layers to be drawn more than once in a frame, for
+* split-screen play or a separate overview, without moving
+* the Layers themselves:
+* <pre>
+* Viewport left  = new Viewport(  0, 0, 160, 240);
+* Viewport right = new Viewport(160, 0, 160, 240);
+* scene.addViewport(left);
+* scene.addViewport(right);
+*
+* public void tick(double time) {
+*     left.setCamera(player1.getX() - 80, player1.getY() - 120);
+*     right.setCamera(player2.getX() - 80, player2.getY() - 120);
+* }
+* </pre>
+*
+* The camera offset is scaled by the scroll multipliers
+* each Layer was added to the LayerManager with, so
+* parallax works within each Viewport independently.
+*
+* @author John Earnest
+**/
+public class Viewport {
+
+	private int x;
+	private int y;
+	private int width;
+	private int height;
+	private double cameraX = 0;
+	private double cameraY = 0;
+
+	/**
+	* Create a new Viewport, with its camera at the origin.
+	*
+	* @param x the x-position of the Viewport on screen, in pixels
+	* @param y the y-position of the Viewport on screen, in pixels
+	* @param width the width of the Viewport in pixels
+	* @param height the height of the Viewport in pixels
+	**/
+	public Viewport(int x, int y, int width, int height) {
+		setBounds(x, y, width, height);
+	}
+
+	/**
+	* Move or resize this Viewport on screen.
+	*
+	* @param x the x-position of the Viewport on screen, in pixels
+	* @param y the y-position of the Viewport on screen, in pixels
+	* @param width the width of the Viewport in pixels
+	* @param height the height of the Viewport in pixels
+	**/
+	public void setBounds(int x, int y, int width, int height) {
+		this.x = x;
+		this.y = y;
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	* Returns the x-position of this Viewport on screen.
+	**/
+	public int getX() { return x; }
+
+	/**
+	* Returns the y-position of this Viewport on screen.
+	**/
+	public int getY() { return y; }
+
+	/**
+	* Returns the width of this Viewport in pixels.
+	**/
+	public int getWidth() { return width; }
+
+	/**
+	* Returns the height of this Viewport in pixels.
+	**/
+	public int getHeight() { return height; }
+
+	/**
+	* Set the position of the camera. The point of the
+	* scene at this position appears at the top left corner
+	* of the Viewport, for Layers with scroll multipliers of 1.
+	*
+	* @param px the x-position of the camera in pixels
+	* @param py the y-position of the camera in pixels
+	**/
+	public void setCamera(double px, double py) {
+		cameraX = px;
+		cameraY = py;
+	}
+
+	/**
+	* Move the camera.
+	*
+	* @param dx the x-displacement in pixels
+	* @param dy the y-displacement in pixels
+	**/
+	public void moveCamera(double dx, double dy) {
+		cameraX += dx;
+		cameraY += dy;
+	}
+
+	/**
+	* Returns the x-position of the camera.
+	**/
+	public double getCameraX() { return cameraX; }
+
+	/**
+	* Returns the y-position of the camera.
+	**/
+	public double getCameraY() { return cameraY; }
+
+	/**
+	* Copy the bounds and camera of another Viewport.
+	**/
+	void set(Viewport other) {
+		setBounds(other.x, other.y, other.width, other.height);
+		setCamera(other.cameraX, other.cameraY);
+	}
+
+	/**
+	* Returns a Graphics surface whose origin is the top left
+	* corner of this Viewport, clipped to its bounds.
+	**/
+	Graphics open(Graphics g) {
+		return g.create(x, y, width, height);
+	}
+
+	/**
+	* Returns the horizontal offset at which to draw a Layer.
+	*
+	* @param scroll the Layer's horizontal scroll multiplier
+	**/
+	int offsetX(double scroll) { return (int) Math.floor(-cameraX * scroll); }
+
+	/**
+	* Returns the vertical offset at which to draw a Layer.
+	*
+	* @param scroll the Layer's vertical scroll multiplier
+	**/
+	int offsetY(double scroll) { return (int) Math.floor(-cameraY * scroll); }
+}
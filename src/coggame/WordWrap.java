@@ -0,0 +1,122 @@
+package coggame;
+
+/**
+* WordWrap is a reusable cursor which splits a
+* CharSequence into lines no longer than a specified
+* width by breaking on spaces between words.
+*
+* Rather than copying each line into a new String,
+* WordWrap reports the start and end offsets of the
+* current line within the original text, so wrapping
+* does not allocate. Newlines force a break, and words
+* longer than a line are broken at the line width.
+*
+* A typical loop looks like:
+* <pre>
+* WordWrap wrap = new WordWrap(text, 20);
+* while (wrap.next()) {
+*     tool.drawString(text, wrap.start(), wrap.end(), x, y++, g);
+* }
+* </pre>
+*
+* @author John Earnest
+**/
+public class WordWrap {
+
+	private CharSequence text;
+	private int width;
+	private int start = 0;
+	private int end = 0;
+	private int head = 0;
+
+	/**
+	* Create a new WordWrap positioned before the first line.
+	*
+	* @param text the text to word-wrap
+	* @param width the maximum width in characters of a wrapped line
+	**/
+	public WordWrap(CharSequence text, int width) {
+		reset(text, width);
+	}
+
+	/**
+	* Rewind to before the first line, possibly
+	* with different text or a different width.
+	*
+	* @param text the text to word-wrap
+	* @param width the maximum width in characters of a wrapped line
+	**/
+	public void reset(CharSequence text, int width) {
+		seek(text, width, 0);
+	}
+
+	/**
+	* Position the cursor before a line beginning at
+	* a given offset. This is mainly useful for
+	* resuming layout part of the way through a text.
+	*
+	* @param text the text to word-wrap
+	* @param width the maximum width in characters of a wrapped line
+	* @param offset the offset at which the next line begins
+	**/
+	public void seek(CharSequence text, int width, int offset) {
+		if (width < 1) { throw new IllegalArgumentException("Wrap width must be positive!"); }
+		this.text = text;
+		this.width = width;
+		start = offset;
+		end = offset;
+		head = offset;
+	}
+
+	/**
+	* Advance to the next line.
+	* Returns false if there are no more lines.
+	**/
+	public boolean next() {
+		final int length = text.length();
+		if (head >= length) { return false; }
+		start = head;
+
+		final int limit = start + width;
+		int space = -1;
+		for(int i = start; i < length && i <= limit; i++) {
+			final char c = text.charAt(i);
+			if (c == '\n') {
+				end = i;
+				head = i + 1;
+				return true;
+			}
+			if (c == ' ' && i > start) { space = i; }
+		}
+
+		if (length <= limit) {
+			end = length;
+			head = length;
+		}
+		else if (space >= 0) {
+			end = space;
+			head = space + 1;
+		}
+		else {
+			end = limit;
+			head = limit;
+		}
+		return true;
+	}
+
+	/**
+	* Returns the offset of the first character of the current line.
+	**/
+	public int start() { return start; }
+
+	/**
+	* Returns the offset just past the last character of the current line.
+	**/
+	public int end() { return end; }
+
+	/**
+	* Returns the offset at which the line after
+	* the current line will begin.
+	**/
+	public int head() { return head; }
+}
@@ -0,0 +1,166 @@
+package coggame;
+
+/**
+* WrappedText is a growable block of text which
+* maintains its own word-wrapped line layout.
+*
+* Appending text only lays out the final line again
+* along with whatever was added, so a typewriter-style
+* dialog box or a scrolling log costs time proportional
+* to the new characters rather than the whole text.
+* Changing the width lays out the whole text again,
+* but only when the width actually changes.
+*
+* Lines are stored as offsets into the text and
+* can be grouped into fixed-height pages.
+*
+* @author John Earnest
+**/
+public class WrappedText {
+
+	private final StringBuilder text = new StringBuilder();
+	private final WordWrap wrap;
+	private int width;
+	private int[] starts = new int[16];
+	private int[] ends = new int[16];
+	private int lines = 0;
+
+	/**
+	* Create an empty WrappedText.
+	*
+	* @param width the maximum width in characters of a wrapped line
+	**/
+	public WrappedText(int width) {
+		this.width = width;
+		wrap = new WordWrap(text, width);
+	}
+
+	/**
+	* Returns the full text.
+	**/
+	public CharSequence getText() { return text; }
+
+	/**
+	* Returns the number of characters in the text.
+	**/
+	public int length() { return text.length(); }
+
+	/**
+	* Returns the maximum width in characters of a wrapped line.
+	**/
+	public int getWidth() { return width; }
+
+	/**
+	* Change the maximum width of a wrapped line.
+	* The text is laid out again if the width differs.
+	*
+	* @param width the maximum width in characters of a wrapped line
+	**/
+	public void setWidth(int width) {
+		if (width < 1) { throw new IllegalArgumentException("Wrap width must be positive!"); }
+		if (width == this.width) { return; }
+		this.width = width;
+		lines = 0;
+		layout(0);
+	}
+
+	/**
+	* Append text and extend the layout to include it.
+	*
+	* @param s the text to append
+	**/
+	public void append(CharSequence s) {
+		text.append(s);
+		relayoutTail();
+	}
+
+	/**
+	* Append a single character and extend the layout to include it.
+	*
+	* @param c the character to append
+	**/
+	public void append(char c) {
+		text.append(c);
+		relayoutTail();
+	}
+
+	/**
+	* Remove all text.
+	**/
+	public void clear() {
+		text.setLength(0);
+		lines = 0;
+	}
+
+	/**
+	* Returns the number of wrapped lines.
+	**/
+	public int getLineCount() { return lines; }
+
+	/**
+	* Returns the offset of the first character of a line.
+	*
+	* @param line the 0-indexed line number
+	**/
+	public int getLineStart(int line) {
+		if (line < 0 || line >= lines) { throw new IndexOutOfBoundsException("Invalid line: " + line); }
+		return starts[line];
+	}
+
+	/**
+	* Returns the offset just past the last character of a line.
+	*
+	* @param line the 0-indexed line number
+	**/
+	public int getLineEnd(int line) {
+		if (line < 0 || line >= lines) { throw new IndexOutOfBoundsException("Invalid line: " + line); }
+		return ends[line];
+	}
+
+	/**
+	* Returns the number of pages needed to show every line.
+	*
+	* @param linesPerPage the number of lines that fit on a page
+	**/
+	public int getPageCount(int linesPerPage) {
+		return (lines + linesPerPage - 1) / linesPerPage;
+	}
+
+	/**
+	* Returns the 0-indexed line number which begins a page.
+	*
+	* @param page the 0-indexed page number
+	* @param linesPerPage the number of lines that fit on a page
+	**/
+	public int getPageStart(int page, int linesPerPage) {
+		return page * linesPerPage;
+	}
+
+	private void relayoutTail() {
+		// Only the final line can be affected by appending,
+		// so discard it and continue from where it began.
+		if (lines == 0) {
+			layout(0);
+			return;
+		}
+		lines--;
+		layout(starts[lines]);
+	}
+
+	private void layout(int offset) {
+		wrap.seek(text, width, offset);
+		while(wrap.next()) {
+			if (lines == starts.length) {
+				int[] ns = new int[lines * 2];
+				int[] ne = new int[lines * 2];
+				System.arraycopy(starts, 0, ns, 0, lines);
+				System.arraycopy(ends, 0, ne, 0, lines);
+				starts = ns;
+				ends = ne;
+			}
+			starts[lines] = wrap.start();
+			ends[lines] = wrap.end();
+			lines++;
+		}
+	}
+}